@@ -0,0 +1,182 @@
+package bitimage.storage.postgres.resultset;
+
+import bitimage.storage.dto.ImageDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures image rows selected and mapped per second on a
+ * single core, by the image mapper (columns read by position,
+ * uuids decoded by the driver, the md5 hash formatted as hex
+ * in java) and by the previous mapper (columns read by name,
+ * the md5 hash formatted by sql).
+ *
+ * <p>Rows are selected from a temporary table, in the postgres
+ * database at BITIMAGE_TEST_POSTGRES_URL (a jdbc url, with user
+ * and password parameters). Run with "./gradlew jmh".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class ImageResultSetMapperBenchmark
+{
+    private static final String POSTGRES_URL_ENV = "BITIMAGE_TEST_POSTGRES_URL";
+    private static final int ROW_COUNT = 1000;
+
+    private static final String SELECT_IMAGES_SQL = """
+        SELECT
+          id,
+          name,
+          user_id,
+          is_private,
+          size_bytes,
+          file_format,
+          updated_at,
+          hash_md5
+        FROM
+          images_bench;
+    """;
+
+    private static final String SELECT_IMAGES_HEX_HASH_SQL = """
+        SELECT
+          id,
+          name,
+          user_id,
+          is_private,
+          size_bytes,
+          file_format,
+          updated_at,
+          REPLACE(hash_md5 :: text, '-', '') AS hash_md5
+        FROM
+          images_bench;
+    """;
+
+    private Connection conn;
+    private PreparedStatement selectImagesStatement;
+    private PreparedStatement selectImagesHexHashStatement;
+
+    @Setup
+    public void setUp()
+            throws Exception
+    {
+        String postgresUrl = System.getenv(POSTGRES_URL_ENV);
+
+        if (postgresUrl == null) {
+            throw new IllegalStateException(POSTGRES_URL_ENV + " is not set");
+        }
+
+        conn = DriverManager.getConnection(postgresUrl);
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("""
+                CREATE TEMPORARY TABLE images_bench (
+                  id UUID NOT NULL,
+                  name VARCHAR(200) NOT NULL,
+                  user_id UUID NOT NULL,
+                  hash_md5 UUID NOT NULL,
+                  size_bytes BIGINT NOT NULL,
+                  file_format VARCHAR(20) NOT NULL,
+                  is_private BOOLEAN NOT NULL,
+                  updated_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+                );
+            """);
+
+            statement.execute(String.format("""
+                INSERT INTO images_bench
+                SELECT
+                  md5(random() :: text) :: uuid,
+                  'image-' || i,
+                  md5(random() :: text) :: uuid,
+                  md5(random() :: text) :: uuid,
+                  1000 + i,
+                  'png',
+                  i %% 2 = 0,
+                  now() - i * interval '1 second'
+                FROM
+                  generate_series(1, %d) i;
+            """, ROW_COUNT));
+        }
+
+        selectImagesStatement = conn.prepareStatement(SELECT_IMAGES_SQL);
+        selectImagesHexHashStatement = conn.prepareStatement(SELECT_IMAGES_HEX_HASH_SQL);
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        conn.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public List<ImageDTO> mapperByPosition()
+            throws Exception
+    {
+        try (ResultSet results = selectImagesStatement.executeQuery()) {
+            return new ImageResultSetMapper().mapToDTOs(results);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public List<ImageDTO> mapperByName()
+            throws Exception
+    {
+        try (ResultSet results = selectImagesHexHashStatement.executeQuery()) {
+            List<ImageDTO> imageDTOs = new ArrayList<>();
+
+            while (results.next()) {
+                imageDTOs.add(mapRowByName(results));
+            }
+
+            return imageDTOs;
+        }
+    }
+
+    /**
+     * Maps a row as the image mapper did before reading columns
+     * by position.
+     */
+    private static ImageDTO mapRowByName(ResultSet results)
+            throws Exception
+    {
+        ImageDTO imageDTO = new ImageDTO();
+
+        imageDTO.id = (UUID) results.getObject("id");
+        imageDTO.name = results.getString("name");
+        imageDTO.user_id = (UUID) results.getObject("user_id");
+        imageDTO.hash_md5 = results.getString("hash_md5");
+        imageDTO.size_bytes = (long) results.getFloat("size_bytes");
+        imageDTO.file_format = results.getString("file_format");
+        imageDTO.is_private = results.getBoolean("is_private");
+        imageDTO.updated_at = results.getTimestamp("updated_at");
+
+        return imageDTO;
+    }
+}
@@ -1,18 +1,31 @@
 package bitimage;
 
+import bitimage.storage.postgres.connection.ReadRouter;
 import bitimage.wire.Container;
+import io.micronaut.context.ApplicationContext;
 import io.micronaut.runtime.Micronaut;
 
+import java.util.concurrent.TimeUnit;
+
 public class Application
 {
     /**
-     * Application entry point, delegates message reading
-     * from queue to worker (thread) pool and spins up web
-     * server.
+     * Application entry point, spins up web server, then delegates
+     * message reading from queue to worker (thread) pool and
+     * schedules background maintenance tasks.
+     *
+     * <p>Workers use the web server's own container, so both share
+     * one object graph, and caches invalidated by workers are the
+     * ones requests are served from.
      */
     public static void main(String[] args)
     {
-        Container container = new Container();
+        ApplicationContext context = Micronaut
+                .build(args)
+                .mainClass(Application.class)
+                .start();
+
+        Container container = context.getBean(Container.class);
 
         container
                 .provideWorkerPool()
@@ -20,9 +33,62 @@ public class Application
                         .provideMessageReader()
                         .readMessages());
 
-        Micronaut
-                .build(args)
-                .mainClass(Application.class)
-                .start();
+        container
+                .provideWorkerPool()
+                .submit(container.provideTagNamesBackfill());
+
+        if (container.isPartitionMigrationEnabled()) {
+            container
+                    .provideWorkerPool()
+                    .submit(container.providePartitionMigration());
+        }
+
+        long sweepIntervalMs = container.provideOrphanSweepIntervalMs();
+
+        container
+                .provideScheduler()
+                .scheduleWithFixedDelay(
+                        container.provideOrphanSweeper(),
+                        sweepIntervalMs,
+                        sweepIntervalMs,
+                        TimeUnit.MILLISECONDS);
+
+        long reconcileIntervalMs = container.provideUploadCountReconcileIntervalMs();
+
+        container
+                .provideScheduler()
+                .scheduleWithFixedDelay(
+                        container.provideUploadCountReconciler(),
+                        reconcileIntervalMs,
+                        reconcileIntervalMs,
+                        TimeUnit.MILLISECONDS);
+
+        if (container.isUserExistenceFilterEnabled()) {
+            long filterIntervalMs = container.provideUserExistenceFilterIntervalMs();
+
+            // filter is built right away, as it is not trusted until built
+            container
+                    .provideScheduler()
+                    .scheduleWithFixedDelay(
+                            container.provideUserExistenceFilterBuilder(),
+                            0,
+                            filterIntervalMs,
+                            TimeUnit.MILLISECONDS);
+        }
+
+        // replicas are polled on the router injected into the web tier
+        ReadRouter readRouter = context.getBean(ReadRouter.class);
+
+        if (readRouter.hasReplicas()) {
+            long replicaPollIntervalMs = container.provideReplicaPollIntervalMs();
+
+            container
+                    .provideScheduler()
+                    .scheduleWithFixedDelay(
+                            readRouter::refreshReplicaStatus,
+                            0,
+                            replicaPollIntervalMs,
+                            TimeUnit.MILLISECONDS);
+        }
     }
 }
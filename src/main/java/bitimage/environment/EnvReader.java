@@ -1,7 +1,12 @@
 package bitimage.environment;
 
+import bitimage.storage.ImageDeletionPolicy;
+
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 public class EnvReader
 {
@@ -26,6 +31,11 @@ public class EnvReader
         return mapToGlobalEnv(props);
     }
 
+    /**
+     * Tuning properties default to the values shipped in the
+     * dev properties, so a properties file written before they
+     * existed still starts.
+     */
     public GlobalEnv mapToGlobalEnv(Properties props)
     {
         GlobalEnv env = new GlobalEnv();
@@ -34,11 +44,57 @@ public class EnvReader
         env.postgresPassword = props.getProperty("postgres.password");
         env.postgresHostPort = props.getProperty("postgres.hostport");
         env.postgresPoolSize = Integer.parseInt(props.getProperty("postgres.poolsize"));
+        env.postgresPoolMinIdle = Integer.parseInt(props.getProperty("postgres.pool.minidle", "2"));
+        env.postgresPoolConnectTimeoutMs = Long.parseLong(props.getProperty("postgres.pool.timeout.connect", "3000"));
+        env.postgresPoolIdleTimeoutMs = Long.parseLong(props.getProperty("postgres.pool.timeout.idle", "600000"));
+        env.postgresPoolMaxLifetimeMs = Long.parseLong(props.getProperty("postgres.pool.lifetime.max", "1800000"));
+        env.postgresPoolLeakDetectionThresholdMs = Long.parseLong(props.getProperty("postgres.pool.leakdetection.threshold", "10000"));
+        env.postgresPoolValidationQuery = props.getProperty("postgres.pool.validationquery");
+        env.postgresStatementCacheSize = Integer.parseInt(props.getProperty("postgres.statementcache.size", "32"));
+        env.postgresFetchSize = Integer.parseInt(props.getProperty("postgres.fetchsize", "500"));
+        env.postgresBulkLabelIngestEnabled = Boolean.parseBoolean(props.getProperty("postgres.labels.bulkingest", "false"));
+        env.postgresOrphanSweepBatchSize = Integer.parseInt(props.getProperty("postgres.orphansweeper.batchsize", "500"));
+        env.postgresOrphanSweepMaxBatches = Integer.parseInt(props.getProperty("postgres.orphansweeper.batches.max", "20"));
+        env.postgresOrphanSweepIntervalMs = Long.parseLong(props.getProperty("postgres.orphansweeper.interval", "30000"));
+        env.postgresOrphanSweepGraceMs = Long.parseLong(props.getProperty("postgres.orphansweeper.grace", "600000"));
+        env.postgresReplicaHostPorts = parseList(props.getProperty("postgres.replica.hostports"));
+        env.postgresReplicaMaxLagMs = Long.parseLong(props.getProperty("postgres.replica.lag.max", "5000"));
+        env.postgresReplicaMaxTrackedSessions = Integer.parseInt(props.getProperty("postgres.replica.sessions.max", "10000"));
+        env.postgresReplicaPollIntervalMs = Long.parseLong(props.getProperty("postgres.replica.pollinterval", "500"));
+        env.postgresAsyncThreadCount = Integer.parseInt(props.getProperty("postgres.async.threads", "10"));
+        env.postgresAsyncQueueSize = Integer.parseInt(props.getProperty("postgres.async.queue.size", "1000"));
+        env.postgresTagNamesBackfillBatchSize = Integer.parseInt(props.getProperty("postgres.tagnames.backfill.batchsize", "1000"));
+        env.postgresTagNamesBackfillPauseMs = Long.parseLong(props.getProperty("postgres.tagnames.backfill.pause", "200"));
+        env.postgresPartitionCount = Integer.parseInt(props.getProperty("postgres.partitions.count", "0"));
+        env.postgresPartitionMigrationEnabled = Boolean.parseBoolean(props.getProperty("postgres.partitions.migrate", "false"));
+        env.postgresPartitionMigrationBatchSize = Integer.parseInt(props.getProperty("postgres.partitions.migrate.batchsize", "1000"));
+        env.postgresPartitionMigrationPauseMs = Long.parseLong(props.getProperty("postgres.partitions.migrate.pause", "100"));
+        env.postgresSlowQueryThresholdMs = Long.parseLong(props.getProperty("postgres.slowquery.threshold", "500"));
+        env.postgresImageDeletionChunkSize = Integer.parseInt(props.getProperty("postgres.images.delete.chunksize", "500"));
+        env.postgresDictionaryCacheSize = Integer.parseInt(props.getProperty("postgres.dictionarycache.size", "10000"));
+        env.postgresUploadCountReconcileBatchSize = Integer.parseInt(props.getProperty("postgres.uploadcounts.reconcile.batchsize", "500"));
+        env.postgresUploadCountReconcileIntervalMs = Long.parseLong(props.getProperty("postgres.uploadcounts.reconcile.interval", "3600000"));
+        env.postgresPublicFeedRefreshIntervalMs = Long.parseLong(props.getProperty("postgres.publicfeed.refresh.interval", "5000"));
+        env.postgresPublicFeedMaxStalenessMs = Long.parseLong(props.getProperty("postgres.publicfeed.staleness.max", "20000"));
+        env.postgresPublicFeedCacheSize = Integer.parseInt(props.getProperty("postgres.publicfeed.cache.size", "64"));
+        env.postgresUserImageCacheMaxWeight = Long.parseLong(props.getProperty("postgres.userimagecache.weight.max", "500000"));
+        env.postgresUserImageCacheMaxUserImages = Integer.parseInt(props.getProperty("postgres.userimagecache.userimages.max", "2000"));
+        env.postgresUserImageCacheTtlMs = Long.parseLong(props.getProperty("postgres.userimagecache.ttl", "600000"));
+        env.postgresImageCacheSize = Long.parseLong(props.getProperty("postgres.imagecache.size", "20000"));
+        env.postgresImageCacheTtlMs = Long.parseLong(props.getProperty("postgres.imagecache.ttl", "600000"));
+        env.postgresUserExistenceCacheSize = Long.parseLong(props.getProperty("postgres.userexistence.cache.size", "100000"));
+        env.postgresUserExistenceCacheTtlMs = Long.parseLong(props.getProperty("postgres.userexistence.cache.ttl", "600000"));
+        env.postgresUserExistenceFilterEnabled = Boolean.parseBoolean(props.getProperty("postgres.userexistence.filter", "false"));
+        env.postgresUserExistenceFilterBatchSize = Integer.parseInt(props.getProperty("postgres.userexistence.filter.batchsize", "10000"));
+        env.postgresUserExistenceFilterIntervalMs = Long.parseLong(props.getProperty("postgres.userexistence.filter.interval", "900000"));
+        env.imageDeletionPolicy = ImageDeletionPolicy.valueOf(props.getProperty("postgres.images.delete.policy", "ALLOW_PARTIAL"));
 
         env.awsAccessKey = props.getProperty("aws.access.key");
         env.awsAccessID = props.getProperty("aws.access.id");
         env.awsRegion = props.getProperty("aws.region");
         env.awsObjectKeyPrefix = props.getProperty("aws.objectkeyprefix");
+        env.awsViewUrlMinValidityMs = Long.parseLong(props.getProperty("aws.viewurl.validity.min", "30000"));
+        env.awsViewUrlCacheSize = Integer.parseInt(props.getProperty("aws.viewurl.cache.size", "100000"));
 
         env.beanstalkHost = props.getProperty("beanstalk.host");
         env.beanstalkQueueName = props.getProperty("beanstalk.queue.name");
@@ -51,4 +107,20 @@ public class EnvReader
 
         return env;
     }
+
+    /**
+     * Parses comma delimited property, treating a missing or
+     * blank property as an empty list.
+     */
+    private static List<String> parseList(String property)
+    {
+        if (property == null || property.isBlank()) {
+            return List.of();
+        }
+
+        return Arrays.stream(property.split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
 }
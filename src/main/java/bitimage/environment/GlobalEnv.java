@@ -1,10 +1,13 @@
 package bitimage.environment;
 
 import bitimage.messaging.beanstalk.BeanstalkEnv;
+import bitimage.storage.ImageDeletionPolicy;
 import bitimage.storage.postgres.connection.PostgresEnv;
 import bitimage.storage.s3.AwsEnv;
 import bitimage.transport.middleware.TokenCheckerEnv;
 
+import java.util.List;
+
 /**
  * Global environment class providing configurations to
  * several modules.
@@ -16,11 +19,57 @@ public class GlobalEnv
     public String postgresPassword;
     public String postgresHostPort;
     public int postgresPoolSize;
+    public int postgresPoolMinIdle;
+    public long postgresPoolConnectTimeoutMs;
+    public long postgresPoolIdleTimeoutMs;
+    public long postgresPoolMaxLifetimeMs;
+    public long postgresPoolLeakDetectionThresholdMs;
+    public String postgresPoolValidationQuery;
+    public int postgresStatementCacheSize;
+    public int postgresFetchSize;
+    public boolean postgresBulkLabelIngestEnabled;
+    public int postgresOrphanSweepBatchSize;
+    public int postgresOrphanSweepMaxBatches;
+    public long postgresOrphanSweepIntervalMs;
+    public long postgresOrphanSweepGraceMs;
+    public List<String> postgresReplicaHostPorts;
+    public long postgresReplicaMaxLagMs;
+    public int postgresReplicaMaxTrackedSessions;
+    public long postgresReplicaPollIntervalMs;
+    public int postgresAsyncThreadCount;
+    public int postgresAsyncQueueSize;
+    public int postgresTagNamesBackfillBatchSize;
+    public long postgresTagNamesBackfillPauseMs;
+    public int postgresPartitionCount;
+    public boolean postgresPartitionMigrationEnabled;
+    public int postgresPartitionMigrationBatchSize;
+    public long postgresPartitionMigrationPauseMs;
+    public long postgresSlowQueryThresholdMs;
+    public int postgresImageDeletionChunkSize;
+    public int postgresDictionaryCacheSize;
+    public int postgresUploadCountReconcileBatchSize;
+    public long postgresUploadCountReconcileIntervalMs;
+    public long postgresPublicFeedRefreshIntervalMs;
+    public long postgresPublicFeedMaxStalenessMs;
+    public int postgresPublicFeedCacheSize;
+    public long postgresUserImageCacheMaxWeight;
+    public int postgresUserImageCacheMaxUserImages;
+    public long postgresUserImageCacheTtlMs;
+    public long postgresImageCacheSize;
+    public long postgresImageCacheTtlMs;
+    public long postgresUserExistenceCacheSize;
+    public long postgresUserExistenceCacheTtlMs;
+    public boolean postgresUserExistenceFilterEnabled;
+    public int postgresUserExistenceFilterBatchSize;
+    public long postgresUserExistenceFilterIntervalMs;
+    public ImageDeletionPolicy imageDeletionPolicy;
 
     public String awsAccessID;
     public String awsAccessKey;
     public String awsRegion;
     public String awsObjectKeyPrefix;
+    public long awsViewUrlMinValidityMs;
+    public int awsViewUrlCacheSize;
 
     public String beanstalkHost;
     public String beanstalkQueueName;
@@ -54,6 +103,226 @@ public class GlobalEnv
         return postgresPoolSize;
     }
 
+    public int getPostgresPoolMinIdle()
+    {
+        return postgresPoolMinIdle;
+    }
+
+    public long getPostgresPoolConnectTimeoutMs()
+    {
+        return postgresPoolConnectTimeoutMs;
+    }
+
+    public long getPostgresPoolIdleTimeoutMs()
+    {
+        return postgresPoolIdleTimeoutMs;
+    }
+
+    public long getPostgresPoolMaxLifetimeMs()
+    {
+        return postgresPoolMaxLifetimeMs;
+    }
+
+    public long getPostgresPoolLeakDetectionThresholdMs()
+    {
+        return postgresPoolLeakDetectionThresholdMs;
+    }
+
+    public String getPostgresPoolValidationQuery()
+    {
+        return postgresPoolValidationQuery;
+    }
+
+    public int getPostgresStatementCacheSize()
+    {
+        return postgresStatementCacheSize;
+    }
+
+    public int getPostgresFetchSize()
+    {
+        return postgresFetchSize;
+    }
+
+    public boolean isPostgresBulkLabelIngestEnabled()
+    {
+        return postgresBulkLabelIngestEnabled;
+    }
+
+    public int getPostgresOrphanSweepBatchSize()
+    {
+        return postgresOrphanSweepBatchSize;
+    }
+
+    public int getPostgresOrphanSweepMaxBatches()
+    {
+        return postgresOrphanSweepMaxBatches;
+    }
+
+    public long getPostgresOrphanSweepIntervalMs()
+    {
+        return postgresOrphanSweepIntervalMs;
+    }
+
+    public long getPostgresOrphanSweepGraceMs()
+    {
+        return postgresOrphanSweepGraceMs;
+    }
+
+    public List<String> getPostgresReplicaHostPorts()
+    {
+        return postgresReplicaHostPorts;
+    }
+
+    public long getPostgresReplicaMaxLagMs()
+    {
+        return postgresReplicaMaxLagMs;
+    }
+
+    public int getPostgresReplicaMaxTrackedSessions()
+    {
+        return postgresReplicaMaxTrackedSessions;
+    }
+
+    public long getPostgresReplicaPollIntervalMs()
+    {
+        return postgresReplicaPollIntervalMs;
+    }
+
+    public int getPostgresAsyncThreadCount()
+    {
+        return postgresAsyncThreadCount;
+    }
+
+    public int getPostgresAsyncQueueSize()
+    {
+        return postgresAsyncQueueSize;
+    }
+
+    public int getPostgresTagNamesBackfillBatchSize()
+    {
+        return postgresTagNamesBackfillBatchSize;
+    }
+
+    public long getPostgresTagNamesBackfillPauseMs()
+    {
+        return postgresTagNamesBackfillPauseMs;
+    }
+
+    public int getPostgresPartitionCount()
+    {
+        return postgresPartitionCount;
+    }
+
+    public boolean isPostgresPartitionMigrationEnabled()
+    {
+        return postgresPartitionMigrationEnabled;
+    }
+
+    public int getPostgresPartitionMigrationBatchSize()
+    {
+        return postgresPartitionMigrationBatchSize;
+    }
+
+    public long getPostgresPartitionMigrationPauseMs()
+    {
+        return postgresPartitionMigrationPauseMs;
+    }
+
+    public long getPostgresSlowQueryThresholdMs()
+    {
+        return postgresSlowQueryThresholdMs;
+    }
+
+    public int getPostgresImageDeletionChunkSize()
+    {
+        return postgresImageDeletionChunkSize;
+    }
+
+    public int getPostgresDictionaryCacheSize()
+    {
+        return postgresDictionaryCacheSize;
+    }
+
+    public int getPostgresUploadCountReconcileBatchSize()
+    {
+        return postgresUploadCountReconcileBatchSize;
+    }
+
+    public long getPostgresUploadCountReconcileIntervalMs()
+    {
+        return postgresUploadCountReconcileIntervalMs;
+    }
+
+    public long getPostgresPublicFeedRefreshIntervalMs()
+    {
+        return postgresPublicFeedRefreshIntervalMs;
+    }
+
+    public long getPostgresPublicFeedMaxStalenessMs()
+    {
+        return postgresPublicFeedMaxStalenessMs;
+    }
+
+    public int getPostgresPublicFeedCacheSize()
+    {
+        return postgresPublicFeedCacheSize;
+    }
+
+    public long getPostgresUserImageCacheMaxWeight()
+    {
+        return postgresUserImageCacheMaxWeight;
+    }
+
+    public int getPostgresUserImageCacheMaxUserImages()
+    {
+        return postgresUserImageCacheMaxUserImages;
+    }
+
+    public long getPostgresUserImageCacheTtlMs()
+    {
+        return postgresUserImageCacheTtlMs;
+    }
+
+    public long getPostgresImageCacheSize()
+    {
+        return postgresImageCacheSize;
+    }
+
+    public long getPostgresImageCacheTtlMs()
+    {
+        return postgresImageCacheTtlMs;
+    }
+
+    public long getPostgresUserExistenceCacheSize()
+    {
+        return postgresUserExistenceCacheSize;
+    }
+
+    public long getPostgresUserExistenceCacheTtlMs()
+    {
+        return postgresUserExistenceCacheTtlMs;
+    }
+
+    public boolean isPostgresUserExistenceFilterEnabled()
+    {
+        return postgresUserExistenceFilterEnabled;
+    }
+
+    public int getPostgresUserExistenceFilterBatchSize()
+    {
+        return postgresUserExistenceFilterBatchSize;
+    }
+
+    public long getPostgresUserExistenceFilterIntervalMs()
+    {
+        return postgresUserExistenceFilterIntervalMs;
+    }
+
+    public ImageDeletionPolicy getImageDeletionPolicy()
+    {
+        return imageDeletionPolicy;
+    }
+
     /**
      * components can get injected Beanstalk configurations.
      */
@@ -105,6 +374,16 @@ public class GlobalEnv
         return awsObjectKeyPrefix;
     }
 
+    public long getAwsViewUrlMinValidityMs()
+    {
+        return awsViewUrlMinValidityMs;
+    }
+
+    public int getAwsViewUrlCacheSize()
+    {
+        return awsViewUrlCacheSize;
+    }
+
     /**
      * components can get injected Token checker (CAS) configurations.
      */
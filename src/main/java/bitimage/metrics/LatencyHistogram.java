@@ -0,0 +1,118 @@
+package bitimage.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with exponential (power of two)
+ * microsecond buckets, from 1 us up to ~1 minute. Recording
+ * a sample is a couple of atomic increments, so it is safe to
+ * call on hot paths from many threads.
+ *
+ * <p>Percentiles are approximated by the upper bound of the
+ * bucket they fall into.
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKET_COUNT = 28;
+
+    private final AtomicLongArray bucketCounts;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    public LatencyHistogram()
+    {
+        this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+    }
+
+    public void record(long durationNanos)
+    {
+        long durationMicros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+
+        bucketCounts.incrementAndGet(toBucketIndex(durationMicros));
+        count.incrementAndGet();
+        totalNanos.addAndGet(durationNanos);
+        maxNanos.accumulateAndGet(durationNanos, Math::max);
+    }
+
+    /**
+     * Bucket i holds samples up to 2^i us, the last bucket
+     * holds everything larger.
+     */
+    private static int toBucketIndex(long durationMicros)
+    {
+        int bucketIndex = 64 - Long.numberOfLeadingZeros(Math.max(0, durationMicros - 1));
+        return Math.min(bucketIndex, BUCKET_COUNT - 1);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getTotalNanos()
+    {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos()
+    {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos()
+    {
+        long currCount = count.get();
+        return currCount == 0 ? 0 : (double) totalNanos.get() / currCount;
+    }
+
+    /**
+     * @param percentile within range (0, 100].
+     */
+    public long getPercentileNanos(double percentile)
+    {
+        long currCount = count.get();
+
+        if (currCount == 0) {
+            return 0;
+        }
+
+        long targetCount = (long) Math.ceil(currCount * percentile / 100);
+        long seenCount = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seenCount += bucketCounts.get(i);
+
+            if (seenCount >= targetCount) {
+                return Math.min(getBucketUpperBoundNanos(i), maxNanos.get());
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    public long[] getBucketCounts()
+    {
+        long[] counts = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+
+        return counts;
+    }
+
+    public static long getBucketUpperBoundNanos(int bucketIndex)
+    {
+        if (bucketIndex == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        return TimeUnit.MICROSECONDS.toNanos(1L << bucketIndex);
+    }
+}
@@ -0,0 +1,54 @@
+package bitimage.storage;
+
+import bitimage.shared.entities.Label;
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.dto.LabelDTO;
+import bitimage.storage.mappers.LabelStoreMapper;
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.LabelDAO;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Label store that bulk ingests labels through the PostgreSQL
+ * COPY protocol, for analysis workloads producing many labels
+ * per image.
+ */
+public class BulkLabelStore
+        implements bitimage.analysis.ports.LabelStore
+{
+    private final DAOFactory daoFactory;
+    private final LabelStoreMapper mapper;
+    private final ExpandedImageCache expandedImageCache;
+
+    public BulkLabelStore(
+            DAOFactory daoFactory,
+            LabelStoreMapper mapper,
+            ExpandedImageCache expandedImageCache)
+    {
+        this.daoFactory = daoFactory;
+        this.mapper = mapper;
+        this.expandedImageCache = expandedImageCache;
+    }
+
+    /**
+     * Labeled images are invalidated from the expanded image
+     * cache, once labels are stored.
+     */
+    public void addLabels(List<Label> labels)
+            throws Exception
+    {
+        if (labels.isEmpty()) {
+            return;
+        }
+
+        LabelDAO labelDAO = daoFactory.getLabelDAO();
+        List<LabelDTO> labelDTOs = mapper.mapToLabelDTOs(labels);
+        labelDAO.copyLabels(labelDTOs);
+
+        expandedImageCache.invalidateAll(labelDTOs.stream()
+                .map(labelDTO -> labelDTO.image_id)
+                .collect(Collectors.toSet()));
+    }
+}
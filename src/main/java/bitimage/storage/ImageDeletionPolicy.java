@@ -0,0 +1,25 @@
+package bitimage.storage;
+
+/**
+ * How a request to delete several images is handled when
+ * only some of the requested images are found.
+ */
+public enum ImageDeletionPolicy
+{
+    /**
+     * Deletes the images found, failing only if none are.
+     */
+    ALLOW_PARTIAL,
+
+    /**
+     * Deletes the images only if all are found, otherwise
+     * deletes nothing and fails.
+     */
+    REQUIRE_ALL,
+
+    /**
+     * Deletes the images found, never failing on missing
+     * images, so repeated deletes succeed.
+     */
+    IGNORE_MISSING
+}
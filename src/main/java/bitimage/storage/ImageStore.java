@@ -5,17 +5,31 @@ import bitimage.shared.entities.Image;
 import bitimage.shared.entities.NullImage;
 import bitimage.uploading.entities.FileUrl;
 import bitimage.uploading.entities.ImageMetadata;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.entities.NullImageMetadata;
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.cache.SnapshotCache;
+import bitimage.storage.cache.UserImageListCache;
 import bitimage.storage.dto.FileDTO;
 import bitimage.storage.dto.FileMetadataDTO;
 import bitimage.storage.dto.ImageDTO;
+import bitimage.storage.dto.ImagePageCursorDTO;
+import bitimage.storage.exceptions.StorageObjectNotFoundException;
+import bitimage.storage.exceptions.StorageObjectReferenceException;
+import bitimage.storage.exceptions.StorageQuotaExceededException;
 import bitimage.storage.mappers.ImageStoreMapper;
 import bitimage.storage.postgres.dao.DAOFactory;
 import bitimage.storage.postgres.dao.ImageDAO;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
 import bitimage.storage.s3.FileSystem;
 import bitimage.storage.s3.S3Constants;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ImageStore
         implements bitimage.uploading.ports.ImageStore
@@ -23,12 +37,30 @@ public class ImageStore
     private final DAOFactory daoFactory;
     private final FileSystem fileSystem;
     private final ImageStoreMapper mapper;
-
-    public ImageStore(DAOFactory daoFactory, FileSystem fileSystem, ImageStoreMapper mapper)
+    private final ImageDeletionPolicy deletionPolicy;
+    private final int deletionChunkSize;
+    private final SnapshotCache<String, ImagePage> publicFeedCache;
+    private final UserImageListCache userImageListCache;
+    private final ExpandedImageCache expandedImageCache;
+
+    public ImageStore(
+            DAOFactory daoFactory,
+            FileSystem fileSystem,
+            ImageStoreMapper mapper,
+            ImageDeletionPolicy deletionPolicy,
+            int deletionChunkSize,
+            SnapshotCache<String, ImagePage> publicFeedCache,
+            UserImageListCache userImageListCache,
+            ExpandedImageCache expandedImageCache)
     {
         this.daoFactory = daoFactory;
         this.fileSystem = fileSystem;
         this.mapper = mapper;
+        this.deletionPolicy = deletionPolicy;
+        this.deletionChunkSize = deletionChunkSize;
+        this.publicFeedCache = publicFeedCache;
+        this.userImageListCache = userImageListCache;
+        this.expandedImageCache = expandedImageCache;
     }
 
     public FileUrl generateImageUploadUrl(EntityID userID)
@@ -43,6 +75,31 @@ public class ImageStore
         return new FileUrl(imageUploadUrl, newImageID);
     }
 
+    /**
+     * Generates upload urls for many new images of a user, all
+     * signed in a single call to the file system.
+     */
+    public List<FileUrl> generateImageUploadUrls(EntityID userID, int imageCount)
+    {
+        List<EntityID> newImageIDs = new ArrayList<>(imageCount);
+
+        for (int i = 0; i < imageCount; i++) {
+            newImageIDs.add(EntityID.CreateNew());
+        }
+
+        List<String> imageUploadUrls = fileSystem.generateFileUploadUrls(
+                mapper.mapToFileIDs(userID, newImageIDs),
+                S3Constants.TEMPORARY_STORAGE_FOLDER);
+
+        List<FileUrl> fileUrls = new ArrayList<>(imageCount);
+
+        for (int i = 0; i < imageCount; i++) {
+            fileUrls.add(new FileUrl(imageUploadUrls.get(i), newImageIDs.get(i)));
+        }
+
+        return fileUrls;
+    }
+
     public ImageMetadata getReceivedImageMetadata(EntityID userID, EntityID imageID)
     {
         FileMetadataDTO fileMetadataDTO = fileSystem.getFileMetadata(
@@ -56,6 +113,12 @@ public class ImageStore
         return mapper.mapToImageMetadata(imageID, fileMetadataDTO);
     }
 
+    /**
+     * Copies received images into the permanent folder, then
+     * stores them in rdbms. If rdbms rejects the images (ex. an
+     * exceeded upload limit), the insert is rolled back, so the
+     * copied files are deleted rather than left unreferenced.
+     */
     public List<Image> addImages(List<Image> images)
             throws Exception
     {
@@ -71,83 +134,211 @@ public class ImageStore
         ImageDAO imageDAO = daoFactory.getImageDAO();
         List<ImageDTO> imageDTOs = mapper.mapToImageDTOs(images);
 
-        imageDAO.insertImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+        try {
+            imageDAO.insertImages(imageDTOs);
+        }
+        catch (StorageQuotaExceededException | StorageObjectReferenceException e) {
+            List<String> fileIDs = fileDTOs.stream()
+                    .map(fileDTO -> fileDTO.id)
+                    .collect(Collectors.toList());
+
+            fileSystem.deleteFilesFromFolder(fileIDs, S3Constants.PERMANENT_STORAGE_FOLDER);
+            throw e;
+        }
+
+        userImageListCache.addImages(imageDTOs);
+
+        if (images.stream().anyMatch(image -> !image.isPrivate())) {
+            publicFeedCache.invalidateAll();
+        }
+
+        hydrateWithViewUrls(images);
 
         return images;
     }
 
-    public List<Image> getAllPublicImages()
+    /**
+     * Gets a page of the public feed from its shared snapshot,
+     * which holds view urls already signed, so concurrent callers
+     * of the same page share a single query and signing pass.
+     *
+     * <p>Snapshots are invalidated as public images are added or
+     * deleted by this instance. Changes made through other
+     * instances show once snapshots are refreshed.
+     */
+    public ImagePage getAllPublicImages(String pageCursor, int pageSize)
             throws Exception
     {
-        ImageDAO imageDAO = daoFactory.getImageDAO();
-        List<ImageDTO> imageDTOs = imageDAO.selectAllPublicImages();
+        // cursor is validated on load, so invalid cursors are never cached
+        return publicFeedCache.get(
+                pageSize + ":" + pageCursor,
+                () -> selectAllPublicImages(pageCursor, pageSize));
+    }
 
-        List<Image> images = mapper.mapToImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+    private ImagePage selectAllPublicImages(String pageCursor, int pageSize)
+            throws Exception
+    {
+        ImageDAO imageDAO = daoFactory.getImageDAO();
+        List<ImageDTO> imageDTOs = imageDAO.selectAllPublicImages(
+                mapper.mapToPageCursorDTO(pageCursor),
+                pageSize + 1);
 
-        return images;
+        return mapToHydratedImagePage(imageDTOs, pageSize);
     }
 
-    public List<Image> getAllUserImages(EntityID userID)
+    /**
+     * Gets a page of user's images, cut from the user's cached
+     * image list when the user's list is cached, else selected
+     * from rdbms.
+     */
+    public ImagePage getAllUserImages(EntityID userID, String pageCursor, int pageSize)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        List<ImageDTO> imageDTOs = imageDAO.selectAllUserImages(userID.toUUID());
+        ImagePageCursorDTO pageCursorDTO = mapper.mapToPageCursorDTO(pageCursor);
 
-        List<Image> images = mapper.mapToImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+        UserImageListCache.ImageList imageList = userImageListCache.getOrLoad(
+                userID.toUUID(),
+                limit -> imageDAO.selectAllUserImages(userID.toUUID(), null, limit));
 
-        return images;
+        List<ImageDTO> imageDTOs = imageList != null
+                ? imageList.getPage(pageCursorDTO, pageSize + 1)
+                : imageDAO.selectAllUserImages(userID.toUUID(), pageCursorDTO, pageSize + 1);
+
+        return mapToHydratedImagePage(imageDTOs, pageSize);
     }
 
     /**
-     * Gets all image entities similar to provided image name, which belong to the provided user id.
+     * Streams all user's images, mapping and signing a view url
+     * for each image only as it is consumed. Images come from
+     * the user's cached image list when the user's list is
+     * cached, else are streamed from rdbms.
      *
-     * <p>Retrieves all image metadata from RDBMS and generates a view url for each image (pointing to
-     * AWS S3 bucket).
+     * @postcondition Returned stream must be closed after.
      */
-    public List<Image> getImagesByName(EntityID userID, String imageName)
+    public Stream<Image> streamAllUserImages(EntityID userID)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        List<ImageDTO> imageDTOs = imageDAO.selectImagesByName(userID.toUUID(), imageName);
 
-        List<Image> images = mapper.mapToImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+        UserImageListCache.ImageList imageList = userImageListCache.getOrLoad(
+                userID.toUUID(),
+                limit -> imageDAO.selectAllUserImages(userID.toUUID(), null, limit));
 
-        return images;
+        Stream<ImageDTO> imageDTOs = imageList != null
+                ? imageList.getPage(null, imageList.size()).stream()
+                : imageDAO.streamAllUserImages(userID.toUUID());
+
+        return imageDTOs
+                .map(mapper::mapToImage)
+                .peek(this::hydrateWithViewUrl);
     }
 
-    public List<Image> getImagesByTag(EntityID userID, String tagName)
+    /**
+     * Gets a page of image entities similar to provided image
+     * name, which belong to the provided user id or are public.
+     *
+     * <p>Retrieves all image metadata from RDBMS and generates a
+     * view url for each image (pointing to AWS S3 bucket).
+     */
+    public ImagePage getImagesByName(
+            EntityID userID,
+            String imageName,
+            String pageCursor,
+            int pageSize)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        List<ImageDTO> imageDTOs = imageDAO.selectImagesByTag(userID.toUUID(), tagName);
+        List<ImageDTO> imageDTOs = imageDAO.selectImagesByName(
+                userID.toUUID(),
+                imageName,
+                mapper.mapToPageCursorDTO(pageCursor),
+                pageSize + 1);
 
-        List<Image> images = mapper.mapToImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+        return mapToHydratedImagePage(imageDTOs, pageSize);
+    }
 
-        return images;
+    /**
+     * Gets a page of image entities whose name contains the
+     * provided text, which belong to the provided user id or are
+     * public.
+     */
+    public ImagePage getImagesByNameContaining(
+            EntityID userID,
+            String imageNameText,
+            String pageCursor,
+            int pageSize)
+            throws Exception
+    {
+        ImageDAO imageDAO = daoFactory.getImageDAO();
+        List<ImageDTO> imageDTOs = imageDAO.selectImagesByNameContaining(
+                userID.toUUID(),
+                imageNameText,
+                mapper.mapToPageCursorDTO(pageCursor),
+                pageSize + 1);
+
+        return mapToHydratedImagePage(imageDTOs, pageSize);
     }
 
-    public List<Image> getImagesByContentLabel(EntityID userID, String labelName)
+    public ImagePage getImagesByTag(
+            EntityID userID,
+            String tagName,
+            String pageCursor,
+            int pageSize)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        List<ImageDTO> imageDTOs = imageDAO.selectImagesByContentLabel(userID.toUUID(), labelName);
+        List<ImageDTO> imageDTOs = imageDAO.selectImagesByTag(
+                userID.toUUID(),
+                tagName,
+                mapper.mapToPageCursorDTO(pageCursor),
+                pageSize + 1);
 
-        List<Image> images = mapper.mapToImages(imageDTOs);
-        images.parallelStream().forEach(this::hydrateWithViewUrl);
+        return mapToHydratedImagePage(imageDTOs, pageSize);
+    }
 
-        return images;
+    public ImagePage getImagesByContentLabel(
+            EntityID userID,
+            String labelName,
+            String pageCursor,
+            int pageSize)
+            throws Exception
+    {
+        ImageDAO imageDAO = daoFactory.getImageDAO();
+        List<ImageDTO> imageDTOs = imageDAO.selectImagesByContentLabel(
+                userID.toUUID(),
+                labelName,
+                mapper.mapToPageCursorDTO(pageCursor),
+                pageSize + 1);
+
+        return mapToHydratedImagePage(imageDTOs, pageSize);
+    }
+
+    /**
+     * @param imageDTOs up to pageSize + 1 selected images, where
+     * the extra image signals that a next page exists.
+     */
+    private ImagePage mapToHydratedImagePage(List<ImageDTO> imageDTOs, int pageSize)
+    {
+        ImagePage imagePage = mapper.mapToImagePage(imageDTOs, pageSize);
+        hydrateWithViewUrls(imagePage.getImages());
+
+        return imagePage;
     }
 
+    /**
+     * Gets an expanded image from the expanded image cache, or
+     * selects it from rdbms on a miss. The view url is signed per
+     * call, rather than cached with the image.
+     */
     public Image getImageByID(EntityID userID, EntityID imageID)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        ImageDTO imageDTO = imageDAO.selectImageByID(userID.toUUID(), imageID.toUUID());
+        ImageDTO imageDTO = expandedImageCache.getOrLoad(
+                userID.toUUID(),
+                imageID.toUUID(),
+                () -> imageDAO.selectImageByID(userID.toUUID(), imageID.toUUID()));
 
         if (imageDTO.isNull()) {
             return new NullImage();
@@ -169,28 +360,138 @@ public class ImageStore
         image.setViewUrl(new FileUrl(imageViewUrl, image.getID()));
     }
 
+    /**
+     * Signs view urls of all images in a single call to the
+     * file system, rather than signing each image's url apart.
+     */
+    private void hydrateWithViewUrls(List<Image> images)
+    {
+        List<String> fileIDs = images.stream()
+                .map(image -> mapper.mapToFileID(image.getUserID(), image.getID()))
+                .collect(Collectors.toList());
+
+        List<String> imageViewUrls = fileSystem.generateFileViewUrls(
+                fileIDs,
+                S3Constants.PERMANENT_STORAGE_FOLDER);
+
+        for (int i = 0; i < images.size(); i++) {
+            Image image = images.get(i);
+            image.setViewUrl(new FileUrl(imageViewUrls.get(i), image.getID()));
+        }
+    }
+
+    /**
+     * Deletes images' rdbms rows, then the files of only those
+     * images whose rows were actually deleted, so files of
+     * another user's images, or of uploads not yet written to
+     * rdbms, are never deleted.
+     *
+     * <p>Missing images are handled as set by the deletion
+     * policy. Unless all images must be found, ids are deleted in
+     * chunks, bounding the rows locked by each statement. Each
+     * committed chunk's images are uncached and their files
+     * deleted before the next chunk, so a failing chunk leaves
+     * no deleted image cached or file behind.
+     *
+     * @throws StorageObjectNotFoundException if missing images
+     * fail the deletion, per deletion policy.
+     */
     public void deleteImages(EntityID userID, List<EntityID> imageIDs)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        imageDAO.deleteImagesByID(userID.toUUID(), mapper.mapToUUIDs(imageIDs));
 
-        List<String> fileIDsToDelete = mapper.mapToFileIDs(userID, imageIDs);
+        List<UUID> imageIDsToDelete = mapper.mapToUUIDs(imageIDs)
+                .stream()
+                .distinct()
+                .collect(Collectors.toList());
+
+        int deletedImageCount = deletionPolicy == ImageDeletionPolicy.REQUIRE_ALL
+                ? removeDeletedImages(userID, imageDAO.deleteImagesByIDIfAllExist(userID.toUUID(), imageIDsToDelete))
+                : deleteImagesInChunks(imageDAO, userID, imageIDsToDelete);
+
+        if (deletedImageCount == 0 && deletionPolicy != ImageDeletionPolicy.IGNORE_MISSING) {
+            throw new StorageObjectNotFoundException();
+        }
+    }
+
+    private int deleteImagesInChunks(ImageDAO imageDAO, EntityID userID, List<UUID> imageIDs)
+            throws Exception
+    {
+        int deletedImageCount = 0;
+
+        for (int i = 0; i < imageIDs.size(); i += deletionChunkSize) {
+            List<UUID> chunk = imageIDs.subList(i, Math.min(i + deletionChunkSize, imageIDs.size()));
+            deletedImageCount += removeDeletedImages(userID, imageDAO.deleteImagesByID(userID.toUUID(), chunk));
+        }
+
+        return deletedImageCount;
+    }
+
+    /**
+     * Uncaches images whose rows were deleted, then deletes their
+     * files.
+     *
+     * @return the number of deleted images.
+     */
+    private int removeDeletedImages(EntityID userID, List<UUID> deletedImageIDs)
+            throws Exception
+    {
+        if (deletedImageIDs.isEmpty()) {
+            return 0;
+        }
+
+        // deleted rows' privacy is not returned, so any deletion invalidates the public feed
+        publicFeedCache.invalidateAll();
+        userImageListCache.removeImages(userID.toUUID(), deletedImageIDs);
+        expandedImageCache.invalidateAll(deletedImageIDs);
+
+        List<EntityID> deletedIDs = deletedImageIDs.stream()
+                .map(EntityID::CreateNew)
+                .collect(Collectors.toList());
+
+        List<String> fileIDsToDelete = mapper.mapToFileIDs(userID, deletedIDs);
 
         fileSystem.deleteFilesFromFolder(fileIDsToDelete, S3Constants.PERMANENT_STORAGE_FOLDER);
+
+        return deletedImageIDs.size();
     }
 
+    /**
+     * Deletes all of a user's rdbms rows and files. Rows are
+     * deleted while files are looked up, and the deletion is
+     * always awaited and the user's cached images invalidated,
+     * even if the file lookup fails.
+     */
     public void deleteAllUserImages(EntityID userID)
             throws Exception
     {
         ImageDAO imageDAO = daoFactory.getImageDAO();
-        imageDAO.deleteImagesByUserID(userID.toUUID());
-
-        // delete images by user id prefix
-        List<String> fileIDsToDelete = fileSystem.lookupFileIDsByPrefix(
-                String.format("users/%s/", userID),
-                S3Constants.PERMANENT_STORAGE_FOLDER);
+        CompletableFuture<Void> imagesDeleted = imageDAO.deleteImagesByUserIDAsync(userID.toUUID());
+        List<String> fileIDsToDelete;
+
+        try {
+            // files are looked up by user id prefix while rdbms rows are deleted
+            fileIDsToDelete = fileSystem.lookupFileIDsByPrefix(
+                    String.format("users/%s/", userID),
+                    S3Constants.PERMANENT_STORAGE_FOLDER);
+        }
+        finally {
+            try {
+                AsyncQueryExecutor.await(imagesDeleted);
+            }
+            finally {
+                invalidateUserImages(userID.toUUID());
+            }
+        }
 
         fileSystem.deleteFilesFromFolder(fileIDsToDelete, S3Constants.PERMANENT_STORAGE_FOLDER);
     }
+
+    private void invalidateUserImages(UUID userID)
+    {
+        publicFeedCache.invalidateAll();
+        userImageListCache.invalidate(userID);
+        expandedImageCache.invalidateUserImages(userID);
+    }
 }
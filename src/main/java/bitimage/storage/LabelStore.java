@@ -1,30 +1,45 @@
 package bitimage.storage;
 
 import bitimage.shared.entities.Label;
+import bitimage.storage.cache.ExpandedImageCache;
 import bitimage.storage.dto.LabelDTO;
 import bitimage.storage.mappers.LabelStoreMapper;
 import bitimage.storage.postgres.dao.DAOFactory;
 import bitimage.storage.postgres.dao.LabelDAO;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class LabelStore
         implements bitimage.analysis.ports.LabelStore
 {
     private final DAOFactory daoFactory;
     private final LabelStoreMapper mapper;
+    private final ExpandedImageCache expandedImageCache;
 
-    public LabelStore(DAOFactory daoFactory, LabelStoreMapper mapper)
+    public LabelStore(
+            DAOFactory daoFactory,
+            LabelStoreMapper mapper,
+            ExpandedImageCache expandedImageCache)
     {
         this.daoFactory = daoFactory;
         this.mapper = mapper;
+        this.expandedImageCache = expandedImageCache;
     }
 
+    /**
+     * Labeled images are invalidated from the expanded image
+     * cache, once labels are stored.
+     */
     public void addLabels(List<Label> labels)
             throws Exception
     {
         LabelDAO labelDAO = daoFactory.getLabelDAO();
         List<LabelDTO> labelDTOs = mapper.mapToLabelDTOs(labels);
         labelDAO.insertLabels(labelDTOs);
+
+        expandedImageCache.invalidateAll(labelDTOs.stream()
+                .map(labelDTO -> labelDTO.image_id)
+                .collect(Collectors.toSet()));
     }
 }
@@ -0,0 +1,149 @@
+package bitimage.storage;
+
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.ImageDAO;
+import bitimage.storage.postgres.dao.LabelDAO;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background task that incrementally deletes tags and labels
+ * no longer linked to any image. Candidates are recorded by
+ * triggers as link rows are deleted, then reaped here in
+ * bounded batches, so no single delete has to scan the tag or
+ * label tables.
+ *
+ * <p>Only candidates recorded longer than the grace period ago
+ * are swept. Tags and labels are inserted, and recorded as
+ * candidates, before the transaction linking them to an image
+ * commits, so younger candidates may be about to be linked.
+ *
+ * <p>Each run sweeps until a batch deletes fewer rows than the
+ * batch size (taken as drained, as candidates since linked
+ * again are not deleted, a run may stop early, leaving them to
+ * the next run), or the maximum number of batches per run is
+ * reached, then logs its throughput. The remaining backlog is
+ * a full count of candidates, so is only counted every few
+ * runs.
+ */
+public class OrphanSweeper
+        implements Runnable
+{
+    private static final int BACKLOG_COUNT_RUN_INTERVAL = 10;
+
+    private final DAOFactory daoFactory;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long graceMs;
+    private final Logger logger;
+
+    private final AtomicLong totalTagsDeleted;
+    private final AtomicLong totalLabelsDeleted;
+    private final AtomicLong tagBacklog;
+    private final AtomicLong labelBacklog;
+    private final AtomicLong runCount;
+
+    /**
+     * @param graceMs minimum age of swept candidates, which must
+     * exceed the time taken to link a newly inserted tag or label.
+     */
+    public OrphanSweeper(DAOFactory daoFactory, int batchSize, int maxBatchesPerRun, long graceMs)
+    {
+        this.daoFactory = daoFactory;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.graceMs = graceMs;
+        this.logger = Logger.getLogger("Orphan sweeper logger");
+        this.totalTagsDeleted = new AtomicLong();
+        this.totalLabelsDeleted = new AtomicLong();
+        this.tagBacklog = new AtomicLong();
+        this.labelBacklog = new AtomicLong();
+        this.runCount = new AtomicLong();
+    }
+
+    /**
+     * Exceptions are logged rather than thrown, since a thrown
+     * exception would cancel all further scheduled runs.
+     */
+    public void run()
+    {
+        try {
+            sweep();
+        }
+        catch (Exception e) {
+            logger.log(Level.WARNING, "Orphan sweep failed: " + e.getMessage(), e);
+        }
+    }
+
+    public void sweep()
+            throws Exception
+    {
+        ImageDAO imageDAO = daoFactory.getImageDAO();
+        LabelDAO labelDAO = daoFactory.getLabelDAO();
+
+        long startNanos = System.nanoTime();
+        long tagsDeleted = 0;
+        long labelsDeleted = 0;
+        boolean tagsDrained = false;
+        boolean labelsDrained = false;
+
+        for (int i = 0; i < maxBatchesPerRun && !(tagsDrained && labelsDrained); i++) {
+            if (!tagsDrained) {
+                long batchTagsDeleted = imageDAO.deleteOrphanedTags(batchSize, graceMs);
+                tagsDeleted += batchTagsDeleted;
+                tagsDrained = batchTagsDeleted < batchSize;
+            }
+
+            if (!labelsDrained) {
+                long batchLabelsDeleted = labelDAO.deleteOrphanedLabels(batchSize, graceMs);
+                labelsDeleted += batchLabelsDeleted;
+                labelsDrained = batchLabelsDeleted < batchSize;
+            }
+        }
+
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+        totalTagsDeleted.addAndGet(tagsDeleted);
+        totalLabelsDeleted.addAndGet(labelsDeleted);
+
+        boolean isBacklogCounted = runCount.getAndIncrement() % BACKLOG_COUNT_RUN_INTERVAL == 0;
+
+        if (isBacklogCounted) {
+            tagBacklog.set(imageDAO.countOrphanedTagCandidates());
+            labelBacklog.set(labelDAO.countOrphanedLabelCandidates());
+        }
+
+        if (tagsDeleted + labelsDeleted > 0 || (isBacklogCounted && getBacklog() > 0)) {
+            logger.log(Level.INFO, String.format(
+                    "Swept %d orphaned tags and %d orphaned labels in %d ms (%.1f rows/s), backlog %d tags, %d labels",
+                    tagsDeleted,
+                    labelsDeleted,
+                    elapsedMs,
+                    (tagsDeleted + labelsDeleted) * 1000.0 / elapsedMs,
+                    tagBacklog.get(),
+                    labelBacklog.get()));
+        }
+    }
+
+    public long getTotalTagsDeleted()
+    {
+        return totalTagsDeleted.get();
+    }
+
+    public long getTotalLabelsDeleted()
+    {
+        return totalLabelsDeleted.get();
+    }
+
+    /**
+     * @return number of candidates left unswept, for both tags
+     * and labels, as of the last run that counted them.
+     */
+    public long getBacklog()
+    {
+        return tagBacklog.get() + labelBacklog.get();
+    }
+}
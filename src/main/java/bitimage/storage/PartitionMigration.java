@@ -0,0 +1,73 @@
+package bitimage.storage;
+
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.PartitionMigrationDAO;
+
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off background task that moves unpartitioned images
+ * and link tables into tables hash partitioned by user_id,
+ * while requests keep being served from the old tables.
+ *
+ * <p>Rows are copied in small batches (one short statement
+ * each), pausing between batches, then the tables are swapped
+ * in a single transaction. Until the application is restarted,
+ * queries run without partition pruning predicates, which are
+ * still correct against the partitioned tables.
+ */
+public class PartitionMigration
+        implements Runnable
+{
+    private final DAOFactory daoFactory;
+    private final int batchSize;
+    private final long pauseMs;
+    private final Logger logger;
+
+    public PartitionMigration(DAOFactory daoFactory, int batchSize, long pauseMs)
+    {
+        this.daoFactory = daoFactory;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.logger = Logger.getLogger("Partition migration logger");
+    }
+
+    public void run()
+    {
+        PartitionMigrationDAO migrationDAO = daoFactory.getPartitionMigrationDAO();
+        long batchCount = 0;
+
+        try {
+            if (migrationDAO.isImagesTablePartitioned()) {
+                return;
+            }
+
+            migrationDAO.createPartitionedTables();
+            migrationDAO.createSyncTriggers();
+
+            UUID lastCopiedID = null;
+
+            while ((lastCopiedID = migrationDAO.copyImagesBatch(lastCopiedID, batchSize)) != null) {
+                batchCount++;
+                Thread.sleep(pauseMs);
+            }
+
+            migrationDAO.swapTables();
+
+            logger.log(Level.INFO, String.format(
+                    "Migrated images to partitioned tables in %d batches",
+                    batchCount));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            logger.log(Level.WARNING, String.format(
+                    "Partition migration stopped after %d batches: %s",
+                    batchCount,
+                    e.getMessage()), e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package bitimage.storage;
+
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.ImageDAO;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off background task that fills the denormalized
+ * tag_names column of images created before the column
+ * existed.
+ *
+ * <p>Images are filled in small batches (one short transaction
+ * each), pausing between batches, so the backfill does not hold
+ * locks on many rows or compete with request traffic for long.
+ */
+public class TagNamesBackfill
+        implements Runnable
+{
+    private final DAOFactory daoFactory;
+    private final int batchSize;
+    private final long pauseMs;
+    private final Logger logger;
+
+    public TagNamesBackfill(DAOFactory daoFactory, int batchSize, long pauseMs)
+    {
+        this.daoFactory = daoFactory;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.logger = Logger.getLogger("Tag names backfill logger");
+    }
+
+    public void run()
+    {
+        ImageDAO imageDAO = daoFactory.getImageDAO();
+        long totalFilled = 0;
+
+        try {
+            long filled;
+
+            while ((filled = imageDAO.backfillImageTagNames(batchSize)) > 0) {
+                totalFilled += filled;
+                Thread.sleep(pauseMs);
+            }
+
+            if (totalFilled > 0) {
+                logger.log(Level.INFO, String.format("Backfilled tag names of %d images", totalFilled));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            logger.log(Level.WARNING, String.format(
+                    "Tag names backfill stopped after %d images: %s",
+                    totalFilled,
+                    e.getMessage()), e);
+        }
+    }
+}
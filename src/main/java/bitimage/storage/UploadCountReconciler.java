@@ -0,0 +1,72 @@
+package bitimage.storage;
+
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.UserDAO;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background task that repairs drift between users' image
+ * upload counts and their actual number of images (ex. after
+ * images were deleted by hand).
+ *
+ * <p>Each run walks all users in batches by id. Drifted counts
+ * are found without locking, and only those users are locked
+ * and recounted, so a run mostly reads.
+ */
+public class UploadCountReconciler
+        implements Runnable
+{
+    private final DAOFactory daoFactory;
+    private final int batchSize;
+    private final Logger logger;
+
+    public UploadCountReconciler(DAOFactory daoFactory, int batchSize)
+    {
+        this.daoFactory = daoFactory;
+        this.batchSize = batchSize;
+        this.logger = Logger.getLogger("Upload count reconciler logger");
+    }
+
+    /**
+     * Exceptions are logged rather than thrown, since a thrown
+     * exception would cancel all further scheduled runs.
+     */
+    public void run()
+    {
+        try {
+            reconcile();
+        }
+        catch (Exception e) {
+            logger.log(Level.WARNING, "Upload count reconciliation failed: " + e.getMessage(), e);
+        }
+    }
+
+    public void reconcile()
+            throws Exception
+    {
+        UserDAO userDAO = daoFactory.getUserDAO();
+
+        long usersRepaired = 0;
+        UUID lastUserID = null;
+        List<UUID> userIDs;
+
+        while (!(userIDs = userDAO.selectUserIDs(lastUserID, batchSize)).isEmpty()) {
+            List<UUID> driftedUserIDs = userDAO.selectUserIDsWithDriftedUploadCount(userIDs);
+
+            if (!driftedUserIDs.isEmpty()) {
+                userDAO.repairImageUploadCounts(driftedUserIDs);
+                usersRepaired += driftedUserIDs.size();
+            }
+
+            lastUserID = userIDs.get(userIDs.size() - 1);
+        }
+
+        if (usersRepaired > 0) {
+            logger.log(Level.INFO, String.format("Repaired image upload counts of %d users", usersRepaired));
+        }
+    }
+}
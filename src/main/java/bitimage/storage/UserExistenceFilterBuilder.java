@@ -0,0 +1,81 @@
+package bitimage.storage;
+
+import bitimage.storage.cache.UserExistenceCache;
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.UserDAO;
+import com.google.common.hash.BloomFilter;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background task that rebuilds the user existence filter from
+ * all user ids, dropping deleted users, and adding users
+ * created through other application instances.
+ *
+ * <p>Each run walks all users in batches by id, into a new
+ * filter sized for the current number of users, which replaces
+ * the filter only once complete.
+ */
+public class UserExistenceFilterBuilder
+        implements Runnable
+{
+    private final DAOFactory daoFactory;
+    private final UserExistenceCache userExistenceCache;
+    private final int batchSize;
+    private final Logger logger;
+
+    public UserExistenceFilterBuilder(
+            DAOFactory daoFactory,
+            UserExistenceCache userExistenceCache,
+            int batchSize)
+    {
+        this.daoFactory = daoFactory;
+        this.userExistenceCache = userExistenceCache;
+        this.batchSize = batchSize;
+        this.logger = Logger.getLogger("User existence filter builder logger");
+    }
+
+    /**
+     * Exceptions are logged rather than thrown, since a thrown
+     * exception would cancel all further scheduled runs.
+     */
+    public void run()
+    {
+        try {
+            build();
+        }
+        catch (Exception e) {
+            logger.log(Level.WARNING, "User existence filter build failed: " + e.getMessage(), e);
+        }
+    }
+
+    public void build()
+            throws Exception
+    {
+        UserDAO userDAO = daoFactory.getUserDAO();
+        BloomFilter<UUID> newFilter = userExistenceCache.startFilterBuild(userDAO.countUsers());
+
+        try {
+            long userCount = 0;
+            UUID lastUserID = null;
+            List<UUID> userIDs;
+
+            while (!(userIDs = userDAO.selectUserIDs(lastUserID, batchSize)).isEmpty()) {
+                userIDs.forEach(newFilter::put);
+                userCount += userIDs.size();
+
+                lastUserID = userIDs.get(userIDs.size() - 1);
+            }
+
+            userExistenceCache.completeFilterBuild(newFilter);
+            logger.log(Level.INFO, String.format("Built user existence filter of %d users", userCount));
+        }
+        catch (Exception e) {
+            userExistenceCache.cancelFilterBuild(newFilter);
+            throw e;
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package bitimage.storage;
 
 import bitimage.shared.entities.EntityID;
+import bitimage.uploading.entities.NullUser;
 import bitimage.uploading.entities.User;
+import bitimage.storage.cache.UserExistenceCache;
 import bitimage.storage.dto.UserDTO;
 import bitimage.storage.mappers.UserStoreMapper;
 import bitimage.storage.postgres.dao.DAOFactory;
 import bitimage.storage.postgres.dao.UserDAO;
 
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
 public class UserStore
         implements bitimage.uploading.ports.UserStore
 {
     private final DAOFactory daoFactory;
     private final UserStoreMapper mapper;
+    private final UserExistenceCache userExistenceCache;
 
-    public UserStore(DAOFactory daoFactory, UserStoreMapper mapper)
+    public UserStore(
+            DAOFactory daoFactory,
+            UserStoreMapper mapper,
+            UserExistenceCache userExistenceCache)
     {
         this.daoFactory = daoFactory;
         this.mapper = mapper;
+        this.userExistenceCache = userExistenceCache;
     }
 
     public void addUser(User user)
@@ -25,6 +35,8 @@ public class UserStore
         UserDTO userDTO = mapper.mapToUserDTO(user);
         UserDAO userDAO = daoFactory.getUserDAO();
         userDAO.insertUser(userDTO);
+
+        userExistenceCache.addUser(userDTO.id);
     }
 
     public void deleteUserByID(EntityID userID)
@@ -32,12 +44,78 @@ public class UserStore
     {
         UserDAO userDAO = daoFactory.getUserDAO();
         userDAO.deleteUserByID(userID.toUUID());
+
+        userExistenceCache.removeUser(userID.toUUID());
     }
 
+    /**
+     * Users known not to exist are answered without querying
+     * rdbms. Existing users are always selected, as their upload
+     * counts change.
+     */
+    public User getUserByID(EntityID userID)
+            throws Exception
+    {
+        if (Boolean.FALSE.equals(userExistenceCache.lookup(userID.toUUID()))) {
+            return new NullUser();
+        }
+
+        UserDAO userDAO = daoFactory.getUserDAO();
+        UserDTO userDTO = userDAO.selectUserByID(userID.toUUID());
+
+        if (userDTO.isNull()) {
+            return new NullUser();
+        }
+
+        return mapper.mapToUser(userDTO);
+    }
+
+    /**
+     * Answers from the user existence cache when possible, else
+     * checks rdbms, caching users found to exist.
+     */
     public boolean doesUserExist(EntityID userID)
             throws Exception
     {
+        UUID id = userID.toUUID();
+        Boolean doesUserExist = userExistenceCache.lookup(id);
+
+        if (doesUserExist != null) {
+            return doesUserExist;
+        }
+
+        long lookupVersion = userExistenceCache.getLookupVersion(id);
         UserDAO userDAO = daoFactory.getUserDAO();
-        return userDAO.doesUserExist(userID.toUUID());
+
+        return cacheIfExists(id, userDAO.doesUserExist(id), lookupVersion);
+    }
+
+    /**
+     * Completes without a database thread when answered from the
+     * user existence cache.
+     */
+    public CompletableFuture<Boolean> doesUserExistAsync(EntityID userID)
+    {
+        UUID id = userID.toUUID();
+        Boolean doesUserExist = userExistenceCache.lookup(id);
+
+        if (doesUserExist != null) {
+            return CompletableFuture.completedFuture(doesUserExist);
+        }
+
+        long lookupVersion = userExistenceCache.getLookupVersion(id);
+        UserDAO userDAO = daoFactory.getUserDAO();
+
+        return userDAO.doesUserExistAsync(id)
+                .thenApply(exists -> cacheIfExists(id, exists, lookupVersion));
+    }
+
+    private boolean cacheIfExists(UUID userID, boolean doesUserExist, long lookupVersion)
+    {
+        if (doesUserExist) {
+            userExistenceCache.putExisting(userID, lookupVersion);
+        }
+
+        return doesUserExist;
     }
 }
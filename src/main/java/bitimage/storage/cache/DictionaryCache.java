@@ -0,0 +1,105 @@
+package bitimage.storage.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of dictionary ids (ex. tag name to tag id),
+ * shared by all request threads.
+ *
+ * <p>Dictionaries are small and heavily skewed towards a few
+ * hot entries, so the least recently used entries are evicted
+ * once the cache is full. Lookups are made for a whole batch
+ * of keys at once, so the cache lock is taken once per batch,
+ * not once per key.
+ */
+public class DictionaryCache<K>
+{
+    private final int maxSize;
+    private final Map<K, UUID> idsByKey;
+
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+
+    public DictionaryCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+        this.idsByKey = newBoundedIDMap();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the cached ids of given keys. Keys that are not
+     * cached are left out of the returned map.
+     */
+    public Map<K, UUID> getAll(Collection<K> keys)
+    {
+        Map<K, UUID> cachedIDs = new HashMap<>();
+
+        synchronized (idsByKey) {
+            for (K key : keys) {
+                UUID id = idsByKey.get(key);
+
+                if (id != null) {
+                    cachedIDs.put(key, id);
+                }
+            }
+        }
+
+        hitCount.addAndGet(cachedIDs.size());
+        missCount.addAndGet(keys.size() - cachedIDs.size());
+
+        return cachedIDs;
+    }
+
+    public void putAll(Map<K, UUID> ids)
+    {
+        if (maxSize <= 0) {
+            return;
+        }
+
+        synchronized (idsByKey) {
+            idsByKey.putAll(ids);
+        }
+    }
+
+    /**
+     * Removes keys whose ids were deleted, or found to be stale
+     * (ex. deleted by another application instance).
+     */
+    public void invalidateAll(Collection<K> keys)
+    {
+        synchronized (idsByKey) {
+            idsByKey.keySet().removeAll(keys);
+        }
+    }
+
+    /**
+     * Least recently used id map, evicting its eldest entry
+     * once it holds more than the maximum number of entries.
+     */
+    private Map<K, UUID> newBoundedIDMap()
+    {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<K, UUID> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,127 @@
+package bitimage.storage.cache;
+
+import bitimage.storage.dto.ImageDTO;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of expanded images (with their tags and content
+ * labels), keyed by image id, shared by all request threads.
+ *
+ * <p>An image is cached once for all users, so the selecting
+ * query's privacy rule is applied to cached images: an image is
+ * only returned to its owner, or if it is public. View urls are
+ * not cached, as they expire, and are signed per request.
+ *
+ * <p>Images are invalidated when their labels are added, or
+ * they are deleted. Loads racing with an invalidation are
+ * discarded, so an image read before the write is never cached
+ * after it. Writes by other application instances show once
+ * entries expire.
+ */
+public class ExpandedImageCache
+{
+    private static final int VERSION_STRIPE_COUNT = 256;
+
+    private final Cache<UUID, ImageDTO> imageDTOsByID;
+    private final StripedVersions imageVersions;
+
+    /**
+     * @param ttlMs time after which an image is reloaded.
+     */
+    public ExpandedImageCache(long maxSize, long ttlMs)
+    {
+        this.imageDTOsByID = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.imageVersions = new StripedVersions(VERSION_STRIPE_COUNT);
+    }
+
+    /**
+     * Gets the image if visible to user, or loads it on a miss.
+     * Images not found (or not visible) are not cached.
+     *
+     * @param loader selects the image if visible to user, or
+     * returns a null image.
+     */
+    public ImageDTO getOrLoad(UUID userID, UUID imageID, Callable<ImageDTO> loader)
+            throws Exception
+    {
+        ImageDTO imageDTO = imageDTOsByID.getIfPresent(imageID);
+
+        if (imageDTO != null) {
+            return isVisibleToUser(imageDTO, userID) ? imageDTO : new ImageDTO().asNull();
+        }
+
+        long loadVersion = imageVersions.get(imageID);
+        imageDTO = loader.call();
+
+        if (!imageDTO.isNull()) {
+            putIfNotWritten(imageID, imageDTO, loadVersion);
+        }
+
+        return imageDTO;
+    }
+
+    private static boolean isVisibleToUser(ImageDTO imageDTO, UUID userID)
+    {
+        return imageDTO.user_id.equals(userID) || !imageDTO.is_private;
+    }
+
+    /**
+     * Caches a loaded image, unless it was written since its load
+     * started. A write racing with the put is caught by checking
+     * the version again after it.
+     */
+    private void putIfNotWritten(UUID imageID, ImageDTO imageDTO, long loadVersion)
+    {
+        if (imageVersions.get(imageID) != loadVersion) {
+            return;
+        }
+
+        imageDTOsByID.asMap().putIfAbsent(imageID, imageDTO);
+
+        if (imageVersions.get(imageID) != loadVersion) {
+            imageDTOsByID.asMap().remove(imageID, imageDTO);
+        }
+    }
+
+    /**
+     * Removes images whose labels were added, or which were
+     * deleted, after the write is committed.
+     */
+    public void invalidateAll(Collection<UUID> imageIDs)
+    {
+        imageIDs.forEach(imageVersions::increment);
+        imageDTOsByID.invalidateAll(imageIDs);
+    }
+
+    /**
+     * Removes all of a user's images, whose ids are not known
+     * (ex. when all of a user's images are deleted), by scanning
+     * the cache.
+     */
+    public void invalidateUserImages(UUID userID)
+    {
+        imageVersions.incrementAll();
+        imageDTOsByID.asMap().values().removeIf(imageDTO -> imageDTO.user_id.equals(userID));
+    }
+
+    public CacheStats getStats()
+    {
+        return imageDTOsByID.stats();
+    }
+
+    public long getSize()
+    {
+        return imageDTOsByID.size();
+    }
+}
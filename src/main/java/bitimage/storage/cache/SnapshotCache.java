@@ -0,0 +1,195 @@
+package bitimage.storage.cache;
+
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of periodically refreshed snapshots (ex. pages of the
+ * public image feed), shared by all request threads.
+ *
+ * <p>Snapshots younger than the refresh interval are served as
+ * is. Older snapshots are still served, up to the maximum
+ * staleness, while a single background load refreshes them, so
+ * callers never wait on a refresh. Only callers that find no
+ * usable snapshot wait, and concurrent callers of the same key
+ * wait on a single load (single flight).
+ *
+ * <p>Invalidating drops all snapshots, and discards the results
+ * of loads started before it, so the next callers load fresh
+ * snapshots. Snapshots expire once past the maximum staleness,
+ * and the least recently used are evicted once the maximum
+ * number of snapshots is held.
+ */
+public class SnapshotCache<K, V>
+{
+    private final long refreshIntervalMs;
+    private final long maxStalenessMs;
+    private final Executor refreshExecutor;
+
+    private final Cache<K, Snapshot<V>> snapshotsByKey;
+    private final Map<K, CompletableFuture<V>> loadsByKey;
+    private final AtomicLong generation;
+
+    private final LongAdder hitCount;
+    private final LongAdder staleHitCount;
+    private final LongAdder missCount;
+
+    /**
+     * @param maxStalenessMs maximum age of served snapshots,
+     * which must be at least the refresh interval.
+     * @param refreshExecutor runs background refreshes of stale
+     * snapshots.
+     */
+    public SnapshotCache(long refreshIntervalMs, long maxStalenessMs, int maxSize, Executor refreshExecutor)
+    {
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.maxStalenessMs = maxStalenessMs;
+        this.refreshExecutor = refreshExecutor;
+        this.snapshotsByKey = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxStalenessMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.loadsByKey = new ConcurrentHashMap<>();
+        this.generation = new AtomicLong();
+        this.hitCount = new LongAdder();
+        this.staleHitCount = new LongAdder();
+        this.missCount = new LongAdder();
+    }
+
+    /**
+     * Gets the snapshot of given key, or loads it on a miss.
+     *
+     * @throws Exception thrown by the loader, to every caller
+     * waiting on the failed load.
+     */
+    public V get(K key, Callable<V> loader)
+            throws Exception
+    {
+        Snapshot<V> snapshot = snapshotsByKey.getIfPresent(key);
+
+        if (snapshot != null) {
+            long ageMs = System.currentTimeMillis() - snapshot.loadedAtMs;
+
+            if (ageMs < refreshIntervalMs) {
+                hitCount.increment();
+                return snapshot.value;
+            }
+            if (ageMs < maxStalenessMs) {
+                staleHitCount.increment();
+                load(key, loader, refreshExecutor);
+                return snapshot.value;
+            }
+        }
+
+        missCount.increment();
+
+        // the caller runs the load itself, unless another caller already is
+        return AsyncQueryExecutor.await(load(key, loader, Runnable::run));
+    }
+
+    /**
+     * Starts loading the key, or joins its in-flight load.
+     */
+    private CompletableFuture<V> load(K key, Callable<V> loader, Executor executor)
+    {
+        CompletableFuture<V> newLoad = new CompletableFuture<>();
+        CompletableFuture<V> currLoad = loadsByKey.putIfAbsent(key, newLoad);
+
+        if (currLoad != null) {
+            return currLoad;
+        }
+
+        long loadGeneration = generation.get();
+
+        executor.execute(() -> {
+            try {
+                V value = loader.call();
+                putSnapshot(key, value, loadGeneration);
+                newLoad.complete(value);
+            }
+            catch (Throwable e) {
+                newLoad.completeExceptionally(e);
+            }
+            finally {
+                loadsByKey.remove(key, newLoad);
+            }
+        });
+
+        return newLoad;
+    }
+
+    /**
+     * Caches a loaded snapshot, unless the cache was invalidated
+     * since its load started. An invalidation racing with the put
+     * is caught by checking the generation again after it.
+     */
+    private void putSnapshot(K key, V value, long loadGeneration)
+    {
+        if (generation.get() != loadGeneration) {
+            return;
+        }
+
+        Snapshot<V> snapshot = new Snapshot<>(value, System.currentTimeMillis());
+        snapshotsByKey.put(key, snapshot);
+
+        if (generation.get() != loadGeneration) {
+            snapshotsByKey.asMap().remove(key, snapshot);
+        }
+    }
+
+    /**
+     * Drops all snapshots. In-flight loads are detached, so new
+     * callers start new loads rather than joining them.
+     */
+    public void invalidateAll()
+    {
+        generation.incrementAndGet();
+        loadsByKey.clear();
+        snapshotsByKey.invalidateAll();
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of stale snapshots served while refreshing.
+     */
+    public long getStaleHitCount()
+    {
+        return staleHitCount.sum();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    public long getSize()
+    {
+        return snapshotsByKey.size();
+    }
+
+    private static class Snapshot<V>
+    {
+        private final V value;
+        private final long loadedAtMs;
+
+        private Snapshot(V value, long loadedAtMs)
+        {
+            this.value = value;
+            this.loadedAtMs = loadedAtMs;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bitimage.storage.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Write versions of cache keys, striped by key hash, which
+ * caches compare before and after a load to discard loads
+ * racing with a write of the same key (or of a key sharing its
+ * stripe, which only costs a discarded load).
+ */
+class StripedVersions
+{
+    private final AtomicLongArray versions;
+
+    StripedVersions(int stripeCount)
+    {
+        this.versions = new AtomicLongArray(stripeCount);
+    }
+
+    long get(Object key)
+    {
+        return versions.get(getStripe(key));
+    }
+
+    void increment(Object key)
+    {
+        versions.incrementAndGet(getStripe(key));
+    }
+
+    /**
+     * Discards all in-flight loads, for writes whose keys are
+     * not known (ex. all of a user's images).
+     */
+    void incrementAll()
+    {
+        for (int i = 0; i < versions.length(); i++) {
+            versions.incrementAndGet(i);
+        }
+    }
+
+    private int getStripe(Object key)
+    {
+        return Math.floorMod(key.hashCode(), versions.length());
+    }
+}
@@ -0,0 +1,215 @@
+package bitimage.storage.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Answers whether users exist without querying rdbms, for the
+ * common cases: users known to exist, and ids of no user.
+ *
+ * <p>Known users are held by a bounded cache of positive
+ * lookups. Unknown ids are checked against a Bloom filter of
+ * all user ids, which has no false negatives, so an id missing
+ * from the filter is of no user. The filter is rebuilt in the
+ * background (ex. to drop deleted users), and only trusted
+ * once built.
+ *
+ * <p>Users created through this instance are added to the
+ * filter (and to a filter being built), and deleted users are
+ * removed from the known users. Users created through other
+ * application instances are missing from the filter until its
+ * next rebuild, and are answered as not existing until then.
+ * The filter is therefore disabled by default, and only meant
+ * for deployments creating users through a single instance.
+ */
+public class UserExistenceCache
+{
+    private static final int VERSION_STRIPE_COUNT = 64;
+    private static final long MIN_FILTER_CAPACITY = 10000;
+    private static final double FILTER_CAPACITY_HEADROOM = 1.25;
+    private static final double FILTER_FPP = 0.01;
+
+    private static final Funnel<UUID> USER_ID_FUNNEL = (userID, sink) -> sink
+            .putLong(userID.getMostSignificantBits())
+            .putLong(userID.getLeastSignificantBits());
+
+    private final boolean isFilterEnabled;
+    private final Cache<UUID, Boolean> knownUserIDs;
+    private final StripedVersions userVersions;
+
+    private final AtomicReference<BloomFilter<UUID>> currFilter;
+    private final AtomicReference<BloomFilter<UUID>> buildingFilter;
+    private final AtomicLong filteredLookupCount;
+
+    /**
+     * @param ttlMs time after which a known user is checked
+     * again, bounding how long users deleted through other
+     * instances are still known.
+     * @param isFilterEnabled whether ids missing from the filter
+     * are answered as not existing.
+     */
+    public UserExistenceCache(long maxSize, long ttlMs, boolean isFilterEnabled)
+    {
+        this.isFilterEnabled = isFilterEnabled;
+        this.knownUserIDs = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.userVersions = new StripedVersions(VERSION_STRIPE_COUNT);
+        this.currFilter = new AtomicReference<>();
+        this.buildingFilter = new AtomicReference<>();
+        this.filteredLookupCount = new AtomicLong();
+    }
+
+    /**
+     * @return whether user exists, or null if unknown, in which
+     * case the caller checks rdbms.
+     */
+    public Boolean lookup(UUID userID)
+    {
+        if (knownUserIDs.getIfPresent(userID) != null) {
+            return true;
+        }
+
+        BloomFilter<UUID> filter = currFilter.get();
+
+        if (isFilterEnabled && filter != null && !filter.mightContain(userID)) {
+            filteredLookupCount.incrementAndGet();
+            return false;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return version to pass to putExisting, taken before
+     * checking rdbms.
+     */
+    public long getLookupVersion(UUID userID)
+    {
+        return userVersions.get(userID);
+    }
+
+    /**
+     * Caches a user found in rdbms, unless the user was deleted
+     * since the check started. A delete racing with the put is
+     * caught by checking the version again after it.
+     */
+    public void putExisting(UUID userID, long lookupVersion)
+    {
+        if (userVersions.get(userID) != lookupVersion) {
+            return;
+        }
+
+        knownUserIDs.asMap().putIfAbsent(userID, true);
+
+        if (userVersions.get(userID) != lookupVersion) {
+            knownUserIDs.asMap().remove(userID);
+        }
+    }
+
+    /**
+     * Adds a user once created (committed), to the filter and to
+     * any filter being built, which may have already read past
+     * the user's id.
+     */
+    public void addUser(UUID userID)
+    {
+        // Read the filter being built first: a built filter is
+        // made current before it stops being the one built, so
+        // either the filter being built is seen here, or it is
+        // already current when read after.
+        BloomFilter<UUID> newFilter = buildingFilter.get();
+        BloomFilter<UUID> filter = currFilter.get();
+
+        if (filter != null) {
+            filter.put(userID);
+        }
+        if (newFilter != null) {
+            newFilter.put(userID);
+        }
+
+        knownUserIDs.put(userID, true);
+    }
+
+    /**
+     * Removes a user once deleted. The user stays in the filter,
+     * which only costs a lookup in rdbms, until the next rebuild.
+     */
+    public void removeUser(UUID userID)
+    {
+        userVersions.increment(userID);
+        knownUserIDs.invalidate(userID);
+    }
+
+    /**
+     * Starts building a new filter, which users created from
+     * now on are also added to. Must be called before reading
+     * user ids from rdbms.
+     */
+    public BloomFilter<UUID> startFilterBuild(long userCount)
+    {
+        long capacity = Math.max(MIN_FILTER_CAPACITY, (long) (userCount * FILTER_CAPACITY_HEADROOM));
+        BloomFilter<UUID> newFilter = BloomFilter.create(USER_ID_FUNNEL, capacity, FILTER_FPP);
+
+        buildingFilter.set(newFilter);
+
+        return newFilter;
+    }
+
+    /**
+     * Replaces the filter with a fully built filter.
+     */
+    public void completeFilterBuild(BloomFilter<UUID> newFilter)
+    {
+        currFilter.set(newFilter);
+        buildingFilter.compareAndSet(newFilter, null);
+    }
+
+    public void cancelFilterBuild(BloomFilter<UUID> newFilter)
+    {
+        buildingFilter.compareAndSet(newFilter, null);
+    }
+
+    public boolean isFilterBuilt()
+    {
+        return currFilter.get() != null;
+    }
+
+    public CacheStats getStats()
+    {
+        return knownUserIDs.stats();
+    }
+
+    /**
+     * @return lookups answered as not existing by the filter.
+     */
+    public long getFilteredLookupCount()
+    {
+        return filteredLookupCount.get();
+    }
+
+    public long getSize()
+    {
+        return knownUserIDs.size();
+    }
+
+    /**
+     * @return estimated false positive rate of the filter, or 0
+     * if not yet built.
+     */
+    public double getFilterFpp()
+    {
+        BloomFilter<UUID> filter = currFilter.get();
+        return filter != null ? filter.expectedFpp() : 0;
+    }
+}
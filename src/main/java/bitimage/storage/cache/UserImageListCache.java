@@ -0,0 +1,432 @@
+package bitimage.storage.cache;
+
+import bitimage.storage.dto.ImageDTO;
+import bitimage.storage.dto.ImagePageCursorDTO;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of users' image summaries (the columns listed
+ * by gallery pages), each user's images held as a single list
+ * ordered as image pages are, so pages are cut from memory.
+ *
+ * <p>Entries are weighed by their image count, and evicted
+ * once the cache's total image count exceeds the maximum
+ * weight. Users with more images than the per user maximum are
+ * remembered as uncached, and their pages read from rdbms.
+ *
+ * <p>A user's list is only loaded on the user's second miss
+ * within a doorkeeper window (as TinyLFU admits entries), so
+ * users loading a single page never pay for loading, nor
+ * evict, whole lists.
+ *
+ * <p>Image inserts and deletes are written through to cached
+ * lists, after being committed. Loads racing with a write are
+ * discarded (by each user's stripe version), so a list read
+ * before a write never replaces the written list. Writes by
+ * other application instances show once entries expire.
+ */
+public class UserImageListCache
+{
+    private static final int VERSION_STRIPE_COUNT = 64;
+    private static final int DOORKEEPER_CAPACITY = 100000;
+    private static final double DOORKEEPER_FPP = 0.01;
+
+    private static final Funnel<UUID> USER_ID_FUNNEL = (userID, sink) -> sink
+            .putLong(userID.getMostSignificantBits())
+            .putLong(userID.getLeastSignificantBits());
+
+    /**
+     * Estimated bytes held by an image summary, not counting
+     * its name, which is added per image.
+     */
+    private static final int IMAGE_SUMMARY_BYTES = 320;
+
+    private static final Comparator<ImageDTO> PAGE_ORDER = Comparator
+            .comparing((ImageDTO imageDTO) -> imageDTO.updated_at)
+            .thenComparing(imageDTO -> imageDTO.id, UserImageListCache::compareUnsigned)
+            .reversed();
+
+    private final int maxImagesPerUser;
+    private final Cache<UUID, ImageList> imageListsByUserID;
+    private final StripedVersions userVersions;
+    private final AtomicReference<BloomFilter<UUID>> doorkeeper;
+    private final AtomicLong doorkeeperSize;
+    private final AtomicLong rejectedLoadCount;
+
+    /**
+     * @param maxWeight maximum number of images held, over all
+     * cached users.
+     * @param ttlMs time after which a user's list is reloaded.
+     */
+    public UserImageListCache(long maxWeight, int maxImagesPerUser, long ttlMs)
+    {
+        this.maxImagesPerUser = maxImagesPerUser;
+        this.imageListsByUserID = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((UUID userID, ImageList imageList) -> imageList.getWeight())
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.userVersions = new StripedVersions(VERSION_STRIPE_COUNT);
+        this.doorkeeper = new AtomicReference<>(newDoorkeeper());
+        this.doorkeeperSize = new AtomicLong();
+        this.rejectedLoadCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the user's cached image list, or loads it on a miss.
+     *
+     * @param loader selects up to the given number of the user's
+     * images, ordered as image pages.
+     * @return user's images, or null if user is not (yet)
+     * admitted, or has too many images to be cached.
+     */
+    public ImageList getOrLoad(UUID userID, ImageListLoader loader)
+            throws Exception
+    {
+        ImageList imageList = imageListsByUserID.getIfPresent(userID);
+
+        if (imageList != null) {
+            return imageList.isComplete() ? imageList : null;
+        }
+        if (!admit(userID)) {
+            rejectedLoadCount.incrementAndGet();
+            return null;
+        }
+
+        long loadVersion = userVersions.get(userID);
+        List<ImageDTO> imageDTOs = loader.load(maxImagesPerUser + 1);
+
+        imageList = imageDTOs.size() > maxImagesPerUser
+                ? ImageList.Uncached()
+                : new ImageList(mapToSummaries(imageDTOs));
+
+        putIfNotWritten(userID, imageList, loadVersion);
+
+        return imageList.isComplete() ? imageList : null;
+    }
+
+    /**
+     * Admits users seen before by the doorkeeper, else records
+     * the user. The doorkeeper is reset once full, so only
+     * recent misses count.
+     */
+    private boolean admit(UUID userID)
+    {
+        BloomFilter<UUID> currDoorkeeper = doorkeeper.get();
+
+        if (currDoorkeeper.mightContain(userID)) {
+            return true;
+        }
+
+        currDoorkeeper.put(userID);
+
+        if (doorkeeperSize.incrementAndGet() >= DOORKEEPER_CAPACITY) {
+            doorkeeperSize.set(0);
+            doorkeeper.set(newDoorkeeper());
+        }
+
+        return false;
+    }
+
+    private static BloomFilter<UUID> newDoorkeeper()
+    {
+        return BloomFilter.create(USER_ID_FUNNEL, DOORKEEPER_CAPACITY, DOORKEEPER_FPP);
+    }
+
+    /**
+     * Caches a loaded list, unless one of the user's images was
+     * written since its load started. A write racing with the
+     * put is caught by checking the version again after it.
+     */
+    private void putIfNotWritten(UUID userID, ImageList imageList, long loadVersion)
+    {
+        if (userVersions.get(userID) != loadVersion) {
+            return;
+        }
+
+        imageListsByUserID.asMap().putIfAbsent(userID, imageList);
+
+        if (userVersions.get(userID) != loadVersion) {
+            imageListsByUserID.asMap().remove(userID, imageList);
+        }
+    }
+
+    /**
+     * Adds inserted images to their owners' cached lists. Lists
+     * growing past the per user maximum are marked uncached.
+     */
+    public void addImages(List<ImageDTO> imageDTOs)
+    {
+        Map<UUID, List<ImageDTO>> imageDTOsByUserID = imageDTOs.stream()
+                .collect(Collectors.groupingBy(imageDTO -> imageDTO.user_id));
+
+        imageDTOsByUserID.forEach((userID, userImageDTOs) -> {
+            userVersions.increment(userID);
+
+            imageListsByUserID.asMap().computeIfPresent(userID, (id, imageList) -> {
+                if (!imageList.isComplete()
+                        || imageList.size() + userImageDTOs.size() > maxImagesPerUser) {
+                    return ImageList.Uncached();
+                }
+
+                return imageList.withAdded(mapToSummaries(userImageDTOs));
+            });
+        });
+    }
+
+    /**
+     * Removes deleted images from the user's cached list. A
+     * user marked uncached is dropped, so its list is loaded
+     * again, now that it may fit.
+     */
+    public void removeImages(UUID userID, Collection<UUID> imageIDs)
+    {
+        userVersions.increment(userID);
+
+        imageListsByUserID.asMap().computeIfPresent(userID, (id, imageList) -> imageList.isComplete()
+                ? imageList.withRemoved(new HashSet<>(imageIDs))
+                : null);
+    }
+
+    public void invalidate(UUID userID)
+    {
+        userVersions.increment(userID);
+        imageListsByUserID.invalidate(userID);
+    }
+
+    /**
+     * Copies only the columns selected for image pages, with
+     * values as rdbms returns them, so cached pages are the same
+     * as those read from rdbms.
+     */
+    private static List<ImageDTO> mapToSummaries(List<ImageDTO> imageDTOs)
+    {
+        List<ImageDTO> summaries = new ArrayList<>(imageDTOs.size());
+
+        for (ImageDTO imageDTO : imageDTOs) {
+            ImageDTO summary = new ImageDTO();
+
+            summary.id = imageDTO.id;
+            summary.name = imageDTO.name;
+            summary.user_id = imageDTO.user_id;
+            summary.hash_md5 = imageDTO.hash_md5 == null ? null : imageDTO.hash_md5.toLowerCase(Locale.ROOT);
+            summary.size_bytes = imageDTO.size_bytes;
+            summary.file_format = imageDTO.file_format;
+            summary.is_private = imageDTO.is_private;
+            summary.updated_at = roundToMicros(imageDTO.updated_at);
+
+            summaries.add(summary);
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Rounds timestamp to the microsecond precision stored by
+     * rdbms, half to even as rdbms does.
+     */
+    private static Timestamp roundToMicros(Timestamp timestamp)
+    {
+        long epochSecond = Math.floorDiv(timestamp.getTime(), 1000L);
+        long micros = (long) Math.rint(timestamp.getNanos() / 1000.0);
+
+        Timestamp rounded = new Timestamp((epochSecond + micros / 1_000_000L) * 1000L);
+        rounded.setNanos((int) (micros % 1_000_000L) * 1000);
+
+        return rounded;
+    }
+
+    /**
+     * Compares uuids as unsigned bytes, as rdbms orders them.
+     */
+    private static int compareUnsigned(UUID a, UUID b)
+    {
+        int comparison = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+
+        return comparison != 0
+                ? comparison
+                : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    public CacheStats getStats()
+    {
+        return imageListsByUserID.stats();
+    }
+
+    /**
+     * @return misses not loaded, for users not yet admitted.
+     */
+    public long getRejectedLoadCount()
+    {
+        return rejectedLoadCount.get();
+    }
+
+    public long getUserCount()
+    {
+        return imageListsByUserID.size();
+    }
+
+    public long getImageCount()
+    {
+        return imageListsByUserID.asMap().values().stream()
+                .mapToLong(ImageList::size)
+                .sum();
+    }
+
+    /**
+     * @return estimated bytes held by all cached image lists.
+     */
+    public long getEstimatedBytes()
+    {
+        return imageListsByUserID.asMap().values().stream()
+                .mapToLong(ImageList::getEstimatedBytes)
+                .sum();
+    }
+
+    public interface ImageListLoader
+    {
+        List<ImageDTO> load(int limit)
+                throws Exception;
+    }
+
+    /**
+     * Immutable list of a user's image summaries, ordered by the
+     * most recently updated images first.
+     */
+    public static class ImageList
+    {
+        private final List<ImageDTO> imageDTOs;
+        private final boolean isComplete;
+        private final long estimatedBytes;
+
+        private ImageList(List<ImageDTO> imageDTOs)
+        {
+            this(imageDTOs, true);
+        }
+
+        private ImageList(List<ImageDTO> imageDTOs, boolean isComplete)
+        {
+            imageDTOs.sort(PAGE_ORDER);
+
+            this.imageDTOs = imageDTOs;
+            this.isComplete = isComplete;
+            this.estimatedBytes = imageDTOs.stream()
+                    .mapToLong(imageDTO -> IMAGE_SUMMARY_BYTES + 2L * imageDTO.name.length())
+                    .sum();
+        }
+
+        private static ImageList Uncached()
+        {
+            return new ImageList(new ArrayList<>(), false);
+        }
+
+        private ImageList withAdded(List<ImageDTO> addedImageDTOs)
+        {
+            Set<UUID> addedIDs = addedImageDTOs.stream()
+                    .map(imageDTO -> imageDTO.id)
+                    .collect(Collectors.toSet());
+
+            List<ImageDTO> newImageDTOs = new ArrayList<>(imageDTOs.size() + addedImageDTOs.size());
+
+            for (ImageDTO imageDTO : imageDTOs) {
+                if (!addedIDs.contains(imageDTO.id)) {
+                    newImageDTOs.add(imageDTO);
+                }
+            }
+
+            newImageDTOs.addAll(addedImageDTOs);
+
+            return new ImageList(newImageDTOs);
+        }
+
+        private ImageList withRemoved(Set<UUID> removedIDs)
+        {
+            List<ImageDTO> newImageDTOs = imageDTOs.stream()
+                    .filter(imageDTO -> !removedIDs.contains(imageDTO.id))
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            return new ImageList(newImageDTOs);
+        }
+
+        /**
+         * Gets up to limit images after the page cursor, the same
+         * as selecting a page of the user's images.
+         *
+         * @param pageCursor key of the last image on the previous
+         * page, or null for the first page.
+         */
+        public List<ImageDTO> getPage(ImagePageCursorDTO pageCursor, int limit)
+        {
+            int start = 0;
+
+            if (pageCursor != null) {
+                ImageDTO cursorKey = new ImageDTO();
+                cursorKey.updated_at = pageCursor.updated_at;
+                cursorKey.id = pageCursor.id;
+
+                // binary search finds the first image ordered after the cursor
+                int low = 0;
+                int high = imageDTOs.size();
+
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+
+                    if (PAGE_ORDER.compare(imageDTOs.get(mid), cursorKey) <= 0) {
+                        low = mid + 1;
+                    }
+                    else {
+                        high = mid;
+                    }
+                }
+
+                start = low;
+            }
+
+            return imageDTOs.subList(start, Math.min(start + limit, imageDTOs.size()));
+        }
+
+        public boolean isComplete()
+        {
+            return isComplete;
+        }
+
+        public int size()
+        {
+            return imageDTOs.size();
+        }
+
+        /**
+         * Uncached users still weigh one, so they are evicted
+         * like any other entry.
+         */
+        private int getWeight()
+        {
+            return imageDTOs.size() + 1;
+        }
+
+        private long getEstimatedBytes()
+        {
+            return estimatedBytes;
+        }
+    }
+}
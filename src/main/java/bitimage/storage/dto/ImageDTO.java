@@ -13,7 +13,7 @@ public class ImageDTO
     public String name;
     public String hash_md5;
     public String file_format;
-    public double size_bytes;
+    public long size_bytes;
 
     public Timestamp created_at;
     public Timestamp updated_at;
@@ -0,0 +1,14 @@
+package bitimage.storage.dto;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Sort key of the last image on a page, which the next
+ * page of images is read after.
+ */
+public class ImagePageCursorDTO
+{
+    public Timestamp updated_at;
+    public UUID id;
+}
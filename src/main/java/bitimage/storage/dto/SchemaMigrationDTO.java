@@ -0,0 +1,11 @@
+package bitimage.storage.dto;
+
+import java.sql.Timestamp;
+
+public class SchemaMigrationDTO
+{
+    public int version;
+    public String description;
+    public String checksum;
+    public Timestamp applied_at;
+}
@@ -12,4 +12,22 @@ public class UserDTO
 
     public int image_upload_count;
     public int image_upload_limit;
+
+    public boolean is_null;
+
+    public UserDTO()
+    {
+        this.is_null = false;
+    }
+
+    public UserDTO asNull()
+    {
+        is_null = true;
+        return this;
+    }
+
+    public boolean isNull()
+    {
+        return is_null;
+    }
 }
@@ -0,0 +1,10 @@
+package bitimage.storage.exceptions;
+
+public class StorageCursorInvalidException
+        extends RuntimeException
+{
+    public StorageCursorInvalidException()
+    {
+        super("Storage page cursor is invalid");
+    }
+}
@@ -0,0 +1,10 @@
+package bitimage.storage.exceptions;
+
+public class StorageQuotaExceededException
+        extends RuntimeException
+{
+    public StorageQuotaExceededException()
+    {
+        super("Storage object quota exceeded");
+    }
+}
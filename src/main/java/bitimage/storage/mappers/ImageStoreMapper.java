@@ -5,14 +5,19 @@ import bitimage.shared.entities.Image;
 import bitimage.shared.entities.Label;
 import bitimage.uploading.entities.FileSize;
 import bitimage.uploading.entities.ImageMetadata;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.entities.Tag;
 import bitimage.storage.dto.FileDTO;
 import bitimage.storage.dto.FileMetadataDTO;
 import bitimage.storage.dto.ImageDTO;
+import bitimage.storage.dto.ImagePageCursorDTO;
 import bitimage.storage.dto.LabelDTO;
 import bitimage.storage.dto.TagDTO;
+import bitimage.storage.exceptions.StorageCursorInvalidException;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -87,6 +92,72 @@ public class ImageStoreMapper
                 labelDTO.name);
     }
 
+    /**
+     * Maps up to pageSize + 1 selected images into a page of
+     * pageSize images. The extra image only signals that a next
+     * page exists, which starts after the page's last image.
+     */
+    public ImagePage mapToImagePage(List<ImageDTO> imageDTOs, int pageSize)
+    {
+        if (imageDTOs.size() <= pageSize) {
+            return new ImagePage(mapToImages(imageDTOs), null);
+        }
+
+        List<ImageDTO> pageImageDTOs = imageDTOs.subList(0, pageSize);
+        ImageDTO lastImageDTO = pageImageDTOs.get(pageSize - 1);
+
+        return new ImagePage(mapToImages(pageImageDTOs), mapToPageCursor(lastImageDTO));
+    }
+
+    /**
+     * Encodes image's sort key (updated at time in microseconds,
+     * and id) as an opaque url safe page cursor.
+     */
+    private static String mapToPageCursor(ImageDTO imageDTO)
+    {
+        long updatedAtMicros = Math.floorDiv(imageDTO.updated_at.getTime(), 1000L) * 1_000_000L
+                + imageDTO.updated_at.getNanos() / 1000;
+
+        String pageCursor = updatedAtMicros + ":" + imageDTO.id;
+
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(pageCursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return decoded page cursor, or null if no cursor is
+     * provided (requesting the first page).
+     * @throws StorageCursorInvalidException if cursor cannot be decoded.
+     */
+    public ImagePageCursorDTO mapToPageCursorDTO(String pageCursor)
+    {
+        if (pageCursor == null) {
+            return null;
+        }
+
+        try {
+            String[] cursorParts = new String(
+                    Base64.getUrlDecoder().decode(pageCursor),
+                    StandardCharsets.UTF_8)
+                    .split(":");
+
+            long updatedAtMicros = Long.parseLong(cursorParts[0]);
+
+            Timestamp updatedAt = new Timestamp(Math.floorDiv(updatedAtMicros, 1_000_000L) * 1000L);
+            updatedAt.setNanos((int) Math.floorMod(updatedAtMicros, 1_000_000L) * 1000);
+
+            ImagePageCursorDTO pageCursorDTO = new ImagePageCursorDTO();
+            pageCursorDTO.updated_at = updatedAt;
+            pageCursorDTO.id = UUID.fromString(cursorParts[1]);
+
+            return pageCursorDTO;
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new StorageCursorInvalidException();
+        }
+    }
+
     public ImageMetadata mapToImageMetadata(
             EntityID imageID,
             FileMetadataDTO fileMetadataDTO)
@@ -119,7 +190,7 @@ public class ImageStoreMapper
         imageDTO.is_private = image.isPrivate();
         imageDTO.file_format = image.getMetadata().getFileFormat();
         imageDTO.hash_md5 = image.getMetadata().getHash().toString();
-        imageDTO.size_bytes = image.getMetadata().getSize().toBytes();
+        imageDTO.size_bytes = Math.round(image.getMetadata().getSize().toBytes());
         imageDTO.created_at = Timestamp.from(image.getDateTimeCreated());
         imageDTO.updated_at = Timestamp.from(image.getDateTimeUpdated());
         imageDTO.tag_dtos = mapToTagDTOs(image.getTags());
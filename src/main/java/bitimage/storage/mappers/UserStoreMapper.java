@@ -1,5 +1,6 @@
 package bitimage.storage.mappers;
 
+import bitimage.shared.entities.EntityID;
 import bitimage.uploading.entities.User;
 import bitimage.storage.dto.UserDTO;
 
@@ -19,4 +20,12 @@ public class UserStoreMapper
 
         return userDTO;
     }
+
+    public User mapToUser(UserDTO userDTO)
+    {
+        return User.CreateNew(
+                EntityID.CreateNew(userDTO.id),
+                userDTO.image_upload_count,
+                userDTO.image_upload_limit);
+    }
 }
@@ -3,27 +3,18 @@ package bitimage.storage.postgres.connection;
 import java.sql.Connection;
 import java.sql.SQLException;
 
-import org.apache.commons.dbcp.BasicDataSource;
-
 public class ConnectionHandler
 {
-    private final BasicDataSource connectionPool;
+    private final ConnectionPool connectionPool;
 
-    private ConnectionHandler(BasicDataSource connectionPool)
+    public ConnectionHandler(ConnectionPool connectionPool)
     {
         this.connectionPool = connectionPool;
     }
 
     public static ConnectionHandler CreateNew(PostgresEnv env)
     {
-        BasicDataSource connectionPool = new BasicDataSource();
-
-        connectionPool.setUsername(env.getPostgresUsername());
-        connectionPool.setPassword(env.getPostgresPassword());
-        connectionPool.setUrl(env.getPostgresHostPort());
-        connectionPool.setInitialSize(env.getPostgresPoolSize());
-
-        return new ConnectionHandler(connectionPool);
+        return new ConnectionHandler(HikariConnectionPool.CreateNew(env));
     }
 
     public Connection getConnection()
@@ -32,6 +23,11 @@ public class ConnectionHandler
         return connectionPool.getConnection();
     }
 
+    public ConnectionPoolMetrics getPoolMetrics()
+    {
+        return connectionPool.getMetrics();
+    }
+
     public void closeResource(AutoCloseable resource)
             throws Exception
     {
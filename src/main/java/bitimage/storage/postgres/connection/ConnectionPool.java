@@ -0,0 +1,19 @@
+package bitimage.storage.postgres.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Pool of database connections, allowing the pool
+ * implementation behind ConnectionHandler to be swapped.
+ */
+public interface ConnectionPool
+        extends AutoCloseable
+{
+    Connection getConnection()
+            throws SQLException;
+
+    ConnectionPoolMetrics getMetrics();
+
+    void close();
+}
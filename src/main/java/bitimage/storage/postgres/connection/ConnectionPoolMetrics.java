@@ -0,0 +1,61 @@
+package bitimage.storage.postgres.connection;
+
+import bitimage.metrics.LatencyHistogram;
+
+/**
+ * Point in time snapshot of connection pool usage, used to
+ * size the pool from observed load.
+ */
+public class ConnectionPoolMetrics
+{
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int totalConnections;
+    private final int pendingThreads;
+    private final LatencyHistogram acquireTimeHistogram;
+
+    public ConnectionPoolMetrics(
+            int activeConnections,
+            int idleConnections,
+            int totalConnections,
+            int pendingThreads,
+            LatencyHistogram acquireTimeHistogram)
+    {
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.totalConnections = totalConnections;
+        this.pendingThreads = pendingThreads;
+        this.acquireTimeHistogram = acquireTimeHistogram;
+    }
+
+    public int getActiveConnections()
+    {
+        return activeConnections;
+    }
+
+    public int getIdleConnections()
+    {
+        return idleConnections;
+    }
+
+    public int getTotalConnections()
+    {
+        return totalConnections;
+    }
+
+    /**
+     * Number of threads blocked waiting to borrow a connection.
+     */
+    public int getPendingThreads()
+    {
+        return pendingThreads;
+    }
+
+    /**
+     * Time threads spent waiting to borrow a connection.
+     */
+    public LatencyHistogram getAcquireTimeHistogram()
+    {
+        return acquireTimeHistogram;
+    }
+}
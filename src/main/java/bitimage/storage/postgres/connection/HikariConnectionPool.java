@@ -0,0 +1,122 @@
+package bitimage.storage.postgres.connection;
+
+import bitimage.metrics.LatencyHistogram;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Default connection pool, backed by HikariCP.
+ */
+public class HikariConnectionPool
+        implements ConnectionPool
+{
+    private static final String POOL_NAME = "bitimage-postgres";
+
+    private final HikariDataSource dataSource;
+    private final LatencyHistogram acquireTimeHistogram;
+
+    private HikariConnectionPool(HikariDataSource dataSource, LatencyHistogram acquireTimeHistogram)
+    {
+        this.dataSource = dataSource;
+        this.acquireTimeHistogram = acquireTimeHistogram;
+    }
+
+    public static HikariConnectionPool CreateNew(PostgresEnv env)
+    {
+        return CreateNew(env, POOL_NAME, env.getPostgresHostPort(), false);
+    }
+
+    /**
+     * Creates pool to the given host, sharing the primary pool's
+     * credentials and sizing (ex. for a read replica).
+     */
+    public static HikariConnectionPool CreateNew(
+            PostgresEnv env,
+            String poolName,
+            String hostPort,
+            boolean isReadOnly)
+    {
+        LatencyHistogram acquireTimeHistogram = new LatencyHistogram();
+        HikariConfig config = new HikariConfig();
+
+        config.setPoolName(poolName);
+        config.setJdbcUrl(hostPort);
+        config.setUsername(env.getPostgresUsername());
+        config.setPassword(env.getPostgresPassword());
+        config.setReadOnly(isReadOnly);
+
+        config.setMaximumPoolSize(env.getPostgresPoolSize());
+        config.setMinimumIdle(env.getPostgresPoolMinIdle());
+        config.setConnectionTimeout(env.getPostgresPoolConnectTimeoutMs());
+        config.setIdleTimeout(env.getPostgresPoolIdleTimeoutMs());
+        config.setMaxLifetime(env.getPostgresPoolMaxLifetimeMs());
+        config.setLeakDetectionThreshold(env.getPostgresPoolLeakDetectionThresholdMs());
+
+        // without a validation query, connections are validated with Connection.isValid()
+        String validationQuery = env.getPostgresPoolValidationQuery();
+
+        if (validationQuery != null && !validationQuery.isBlank()) {
+            config.setConnectionTestQuery(validationQuery);
+        }
+
+        // lets driver collapse batched inserts into multi-row inserts
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        // driver caches statements per physical connection, closing them along with it
+        config.addDataSourceProperty(
+                "preparedStatementCacheQueries",
+                String.valueOf(env.getPostgresStatementCacheSize()));
+
+        config.setMetricsTrackerFactory(
+                (metricsPoolName, poolStats) -> new AcquireTimeTracker(acquireTimeHistogram));
+
+        return new HikariConnectionPool(new HikariDataSource(config), acquireTimeHistogram);
+    }
+
+    public Connection getConnection()
+            throws SQLException
+    {
+        return dataSource.getConnection();
+    }
+
+    public ConnectionPoolMetrics getMetrics()
+    {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+
+        return new ConnectionPoolMetrics(
+                pool.getActiveConnections(),
+                pool.getIdleConnections(),
+                pool.getTotalConnections(),
+                pool.getThreadsAwaitingConnection(),
+                acquireTimeHistogram);
+    }
+
+    public void close()
+    {
+        dataSource.close();
+    }
+
+    /**
+     * Records time spent borrowing connections from the pool.
+     */
+    private static class AcquireTimeTracker
+            implements IMetricsTracker
+    {
+        private final LatencyHistogram acquireTimeHistogram;
+
+        AcquireTimeTracker(LatencyHistogram acquireTimeHistogram)
+        {
+            this.acquireTimeHistogram = acquireTimeHistogram;
+        }
+
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos)
+        {
+            acquireTimeHistogram.record(elapsedAcquiredNanos);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package bitimage.storage.postgres.connection;
 
+import java.util.List;
+
 public interface PostgresEnv
 {
     String getPostgresUsername();
@@ -9,4 +11,54 @@ public interface PostgresEnv
     String getPostgresHostPort();
 
     int getPostgresPoolSize();
+
+    int getPostgresPoolMinIdle();
+
+    long getPostgresPoolConnectTimeoutMs();
+
+    long getPostgresPoolIdleTimeoutMs();
+
+    long getPostgresPoolMaxLifetimeMs();
+
+    long getPostgresPoolLeakDetectionThresholdMs();
+
+    String getPostgresPoolValidationQuery();
+
+    int getPostgresStatementCacheSize();
+
+    int getPostgresFetchSize();
+
+    boolean isPostgresBulkLabelIngestEnabled();
+
+    int getPostgresOrphanSweepBatchSize();
+
+    int getPostgresOrphanSweepMaxBatches();
+
+    long getPostgresOrphanSweepIntervalMs();
+
+    List<String> getPostgresReplicaHostPorts();
+
+    long getPostgresReplicaMaxLagMs();
+
+    int getPostgresReplicaMaxTrackedSessions();
+
+    long getPostgresReplicaPollIntervalMs();
+
+    int getPostgresAsyncThreadCount();
+
+    int getPostgresAsyncQueueSize();
+
+    int getPostgresTagNamesBackfillBatchSize();
+
+    long getPostgresTagNamesBackfillPauseMs();
+
+    int getPostgresPartitionCount();
+
+    boolean isPostgresPartitionMigrationEnabled();
+
+    int getPostgresPartitionMigrationBatchSize();
+
+    long getPostgresPartitionMigrationPauseMs();
+
+    long getPostgresSlowQueryThresholdMs();
 }
@@ -0,0 +1,342 @@
+package bitimage.storage.postgres.connection;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes reads across read replicas, falling back to the
+ * primary when no replica is available or caught up. Writes
+ * always go to the primary.
+ *
+ * <p>Reads tied to a session (ex. a user) are guarded so they
+ * observe the session's own writes: the primary's wal position
+ * (LSN) after each session commit is recorded, and the session
+ * only reads from replicas that have replayed past it.
+ * Sessions evicted from tracking are guarded by the highest
+ * evicted LSN instead, as are all untracked sessions until
+ * replicas replay past it.
+ *
+ * <p>Replica replay positions and lag are polled in the
+ * background, by calling refreshReplicaStatus().
+ */
+public class ReadRouter
+{
+    private static final String REPLICA_POOL_NAME = "bitimage-postgres-replica-%d";
+
+    private final ConnectionHandler primary;
+    private final List<Replica> replicas;
+    private final long maxReplicaLagMs;
+    private final int maxTrackedSessions;
+
+    private final Map<Object, Long> sessionWriteLSNs;
+    private final AtomicLong evictedWriteLSN;
+    private final AtomicInteger nextReplicaIndex;
+    private final AtomicLong primaryLSN;
+
+    private final AtomicLong replicaReadCount;
+    private final AtomicLong primaryReadCount;
+    private final AtomicLong sessionPrimaryReadCount;
+
+    public ReadRouter(
+            ConnectionHandler primary,
+            List<ConnectionHandler> replicaHandlers,
+            long maxReplicaLagMs,
+            int maxTrackedSessions)
+    {
+        this.primary = primary;
+        this.replicas = new ArrayList<>();
+        this.maxReplicaLagMs = maxReplicaLagMs;
+        this.maxTrackedSessions = maxTrackedSessions;
+        this.evictedWriteLSN = new AtomicLong();
+        this.sessionWriteLSNs = Collections.synchronizedMap(newBoundedSessionMap());
+        this.nextReplicaIndex = new AtomicInteger();
+        this.primaryLSN = new AtomicLong();
+        this.replicaReadCount = new AtomicLong();
+        this.primaryReadCount = new AtomicLong();
+        this.sessionPrimaryReadCount = new AtomicLong();
+
+        for (int i = 0; i < replicaHandlers.size(); i++) {
+            replicas.add(new Replica(String.format(REPLICA_POOL_NAME, i), replicaHandlers.get(i)));
+        }
+    }
+
+    /**
+     * Creates router over a pool per configured replica. With no
+     * replicas configured, all reads are routed to the primary.
+     */
+    public static ReadRouter CreateNew(PostgresEnv env, ConnectionHandler primary)
+    {
+        List<ConnectionHandler> replicaHandlers = new ArrayList<>();
+        List<String> replicaHostPorts = env.getPostgresReplicaHostPorts();
+
+        for (int i = 0; i < replicaHostPorts.size(); i++) {
+            replicaHandlers.add(new ConnectionHandler(HikariConnectionPool.CreateNew(
+                    env,
+                    String.format(REPLICA_POOL_NAME, i),
+                    replicaHostPorts.get(i),
+                    true)));
+        }
+
+        return new ReadRouter(
+                primary,
+                replicaHandlers,
+                env.getPostgresReplicaMaxLagMs(),
+                env.getPostgresReplicaMaxTrackedSessions());
+    }
+
+    public boolean hasReplicas()
+    {
+        return !replicas.isEmpty();
+    }
+
+    public ConnectionHandler getPrimary()
+    {
+        return primary;
+    }
+
+    /**
+     * Picks replicas round robin, skipping replicas that are
+     * unreachable, lag too far behind, or have not yet replayed
+     * the session's last write.
+     *
+     * @param sessionKey key of session read belongs to, or null
+     * for reads that do not need to see prior writes.
+     */
+    public ConnectionHandler routeRead(Object sessionKey)
+    {
+        if (replicas.isEmpty()) {
+            primaryReadCount.incrementAndGet();
+            return primary;
+        }
+
+        Long sessionLSN = (sessionKey == null) ? null : getSessionWriteLSN(sessionKey);
+        boolean isBehindSession = false;
+        int startIndex = nextReplicaIndex.getAndIncrement();
+
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(startIndex + i, replicas.size()));
+
+            if (!replica.isAvailable(maxReplicaLagMs)) {
+                continue;
+            }
+
+            if (sessionLSN != null && replica.replayLSN.get() < sessionLSN) {
+                isBehindSession = true;
+                continue;
+            }
+
+            replicaReadCount.incrementAndGet();
+            return replica.handler;
+        }
+
+        if (isBehindSession) {
+            sessionPrimaryReadCount.incrementAndGet();
+        }
+        else {
+            primaryReadCount.incrementAndGet();
+        }
+
+        return primary;
+    }
+
+    /**
+     * Gets the session's last write position, or for sessions
+     * not tracked (possibly evicted), the highest evicted write
+     * position not yet replayed by all replicas.
+     */
+    private Long getSessionWriteLSN(Object sessionKey)
+    {
+        Long sessionLSN = sessionWriteLSNs.get(sessionKey);
+
+        if (sessionLSN != null) {
+            return sessionLSN;
+        }
+
+        long currEvictedLSN = evictedWriteLSN.get();
+
+        return currEvictedLSN > 0 ? currEvictedLSN : null;
+    }
+
+    /**
+     * Records the primary's wal position after a session's
+     * write was committed, read on the same connection.
+     */
+    public void recordWrite(Object sessionKey, Connection primaryConn)
+            throws SQLException
+    {
+        if (sessionKey == null || replicas.isEmpty()) {
+            return;
+        }
+
+        long commitLSN = selectLSN(primaryConn, "SELECT pg_current_wal_lsn() :: text");
+        sessionWriteLSNs.merge(sessionKey, commitLSN, Math::max);
+    }
+
+    /**
+     * Polls each replica's replayed wal position and replay lag.
+     * Unreachable replicas are marked unavailable until the next
+     * successful poll. Sessions whose writes every replica has
+     * replayed stop being tracked, and the evicted write position
+     * is cleared once every replica has replayed it.
+     */
+    public void refreshReplicaStatus()
+    {
+        try (Connection conn = primary.getConnection()) {
+            primaryLSN.set(selectLSN(conn, "SELECT pg_current_wal_lsn() :: text"));
+        }
+        catch (SQLException e) {
+            return;
+        }
+
+        long minReplayLSN = Long.MAX_VALUE;
+
+        for (Replica replica : replicas) {
+            replica.refresh(primaryLSN.get());
+            minReplayLSN = Math.min(minReplayLSN, replica.replayLSN.get());
+        }
+
+        long caughtUpLSN = minReplayLSN;
+
+        synchronized (sessionWriteLSNs) {
+            sessionWriteLSNs.values().removeIf(lsn -> lsn <= caughtUpLSN);
+        }
+
+        evictedWriteLSN.updateAndGet(lsn -> lsn <= caughtUpLSN ? 0 : lsn);
+    }
+
+    public ReadRoutingMetrics getMetrics()
+    {
+        Map<String, Long> replicaLagMs = new LinkedHashMap<>();
+        Map<String, Long> replicaLagBytes = new LinkedHashMap<>();
+
+        for (Replica replica : replicas) {
+            boolean isReachable = replica.isReachable;
+
+            replicaLagMs.put(replica.name, isReachable ? replica.lagMs.get() : -1);
+            replicaLagBytes.put(replica.name, isReachable
+                    ? Math.max(0, primaryLSN.get() - replica.replayLSN.get())
+                    : -1);
+        }
+
+        return new ReadRoutingMetrics(
+                replicaReadCount.get(),
+                primaryReadCount.get(),
+                sessionPrimaryReadCount.get(),
+                sessionWriteLSNs.size(),
+                replicaLagMs,
+                replicaLagBytes);
+    }
+
+    /**
+     * Least recently written session map. Evicted sessions are
+     * the oldest writes, which replicas have most likely long
+     * since replayed, and their positions are kept as the
+     * highest evicted write position.
+     */
+    private Map<Object, Long> newBoundedSessionMap()
+    {
+        return new LinkedHashMap<>(16, 0.75f, false) {
+            protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest)
+            {
+                if (size() <= maxTrackedSessions) {
+                    return false;
+                }
+
+                evictedWriteLSN.accumulateAndGet(eldest.getValue(), Math::max);
+                return true;
+            }
+        };
+    }
+
+    private static long selectLSN(Connection conn, String sql)
+            throws SQLException
+    {
+        try (Statement statement = conn.createStatement();
+             ResultSet results = statement.executeQuery(sql)) {
+
+            results.next();
+            return parseLSN(results.getString(1));
+        }
+    }
+
+    /**
+     * Parses PostgreSQL's textual LSN (ex. "16/B374D848"), the
+     * high and low 32 bits of a wal byte position in hex.
+     */
+    static long parseLSN(String lsn)
+    {
+        if (lsn == null) {
+            return 0;
+        }
+
+        int separatorIndex = lsn.indexOf('/');
+        long high = Long.parseLong(lsn.substring(0, separatorIndex), 16);
+        long low = Long.parseLong(lsn.substring(separatorIndex + 1), 16);
+
+        return (high << 32) | low;
+    }
+
+    private static class Replica
+    {
+        private static final String STATUS_SQL = """
+            SELECT
+              pg_last_wal_replay_lsn() :: text AS replay_lsn,
+              COALESCE(
+                EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000,
+                0
+              ) :: bigint AS lag_ms;
+        """;
+
+        private final String name;
+        private final ConnectionHandler handler;
+        private final AtomicLong replayLSN;
+        private final AtomicLong lagMs;
+        private volatile boolean isReachable;
+
+        Replica(String name, ConnectionHandler handler)
+        {
+            this.name = name;
+            this.handler = handler;
+            this.replayLSN = new AtomicLong();
+            this.lagMs = new AtomicLong();
+            this.isReachable = false;
+        }
+
+        boolean isAvailable(long maxLagMs)
+        {
+            return isReachable && lagMs.get() <= maxLagMs;
+        }
+
+        /**
+         * A replica that has replayed up to the primary's current
+         * position has no lag, even if its last replayed
+         * transaction is old (ex. while the primary is idle).
+         */
+        void refresh(long primaryLSN)
+        {
+            try (Connection conn = handler.getConnection();
+                 Statement statement = conn.createStatement();
+                 ResultSet results = statement.executeQuery(STATUS_SQL)) {
+
+                results.next();
+                long currReplayLSN = parseLSN(results.getString("replay_lsn"));
+
+                replayLSN.accumulateAndGet(currReplayLSN, Math::max);
+                lagMs.set(currReplayLSN >= primaryLSN ? 0 : results.getLong("lag_ms"));
+                isReachable = true;
+            }
+            catch (SQLException e) {
+                isReachable = false;
+            }
+        }
+    }
+}
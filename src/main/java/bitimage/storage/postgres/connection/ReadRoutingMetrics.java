@@ -0,0 +1,81 @@
+package bitimage.storage.postgres.connection;
+
+import java.util.Map;
+
+/**
+ * Point in time snapshot of read routing decisions and
+ * replica lag.
+ */
+public class ReadRoutingMetrics
+{
+    private final long replicaReadCount;
+    private final long primaryReadCount;
+    private final long sessionPrimaryReadCount;
+    private final int trackedSessionCount;
+    private final Map<String, Long> replicaLagMs;
+    private final Map<String, Long> replicaLagBytes;
+
+    public ReadRoutingMetrics(
+            long replicaReadCount,
+            long primaryReadCount,
+            long sessionPrimaryReadCount,
+            int trackedSessionCount,
+            Map<String, Long> replicaLagMs,
+            Map<String, Long> replicaLagBytes)
+    {
+        this.replicaReadCount = replicaReadCount;
+        this.primaryReadCount = primaryReadCount;
+        this.sessionPrimaryReadCount = sessionPrimaryReadCount;
+        this.trackedSessionCount = trackedSessionCount;
+        this.replicaLagMs = Map.copyOf(replicaLagMs);
+        this.replicaLagBytes = Map.copyOf(replicaLagBytes);
+    }
+
+    public long getReplicaReadCount()
+    {
+        return replicaReadCount;
+    }
+
+    /**
+     * Reads sent to the primary because no replica was
+     * configured, reachable, or within the maximum lag.
+     */
+    public long getPrimaryReadCount()
+    {
+        return primaryReadCount;
+    }
+
+    /**
+     * Reads sent to the primary because no available replica
+     * had yet replayed the reading session's last write.
+     */
+    public long getSessionPrimaryReadCount()
+    {
+        return sessionPrimaryReadCount;
+    }
+
+    /**
+     * Sessions with writes not yet replayed by every replica.
+     */
+    public int getTrackedSessionCount()
+    {
+        return trackedSessionCount;
+    }
+
+    /**
+     * Replay lag per replica, or -1 for unreachable replicas.
+     */
+    public Map<String, Long> getReplicaLagMs()
+    {
+        return replicaLagMs;
+    }
+
+    /**
+     * Wal bytes per replica not yet replayed, as of the last
+     * poll, or -1 for unreachable replicas.
+     */
+    public Map<String, Long> getReplicaLagBytes()
+    {
+        return replicaLagBytes;
+    }
+}
@@ -1,65 +1,114 @@
 package bitimage.storage.postgres.dao;
 
+import bitimage.storage.cache.DictionaryCache;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
 import bitimage.storage.postgres.query.QueryExecutor;
 
 /**
  * Factory that maintains PostgreSQL connection pool
- * allocation, and custom logic for creating new tables
- * in correct order.
+ * allocation, and brings the schema up to date before
+ * DAOs are handed out.
+ *
+ * <p>Tag and label id caches are shared by all DAOs handed
+ * out, so a factory should be created once per application.
  */
 public class DAOFactory
 {
     private final QueryExecutor queryExecutor;
+    private final AsyncQueryExecutor asyncQueryExecutor;
+    private final PartitionLayout partitionLayout;
+    private final PartitionLayout targetPartitionLayout;
+    private final DictionaryCache<String> tagIDCache;
+    private final DictionaryCache<LabelKey> labelIDCache;
 
-    private DAOFactory(QueryExecutor queryExecutor)
+    private DAOFactory(
+            QueryExecutor queryExecutor,
+            AsyncQueryExecutor asyncQueryExecutor,
+            PartitionLayout partitionLayout,
+            PartitionLayout targetPartitionLayout,
+            int dictionaryCacheSize)
     {
         this.queryExecutor = queryExecutor;
+        this.asyncQueryExecutor = asyncQueryExecutor;
+        this.partitionLayout = partitionLayout;
+        this.targetPartitionLayout = targetPartitionLayout;
+        this.tagIDCache = new DictionaryCache<>(dictionaryCacheSize);
+        this.labelIDCache = new DictionaryCache<>(dictionaryCacheSize);
     }
 
     /**
-     * Creates a new Data Access Object factory, and
-     * handles instantiation of DAO PostgreSQL tables in
-     * correct order based on table dependencies.
+     * Creates a new Data Access Object factory, applying
+     * any pending schema migrations first.
      *
-     * TODO: Move into DB migration script
+     * <p>New tables are created with the configured partition
+     * layout. Existing unpartitioned tables are used as they are,
+     * until moved by the partition migration.
+     *
+     * @param dictionaryCacheSize maximum number of tag ids, and
+     * of label ids, cached.
      */
-    public static DAOFactory CreateNew(QueryExecutor queryExecutor)
+    public static DAOFactory CreateNew(
+            QueryExecutor queryExecutor,
+            AsyncQueryExecutor asyncQueryExecutor,
+            PartitionLayout targetPartitionLayout,
+            int dictionaryCacheSize)
             throws Exception
     {
-        DAOFactory daoFactory = new DAOFactory(queryExecutor);
-
-        UserDAO userDAO = daoFactory.getUserDAO();
-        ImageDAO imageDAO = daoFactory.getImageDAO();
-        LabelDAO labelDAO = daoFactory.getLabelDAO();
+        PartitionLayout partitionLayout = resolvePartitionLayout(
+                new PartitionMigrationDAO(queryExecutor, targetPartitionLayout),
+                targetPartitionLayout);
 
-        userDAO.createUsersTable();
+        DAOFactory daoFactory = new DAOFactory(
+                queryExecutor,
+                asyncQueryExecutor,
+                partitionLayout,
+                targetPartitionLayout,
+                dictionaryCacheSize);
 
-        imageDAO.createImagesTable();
-        imageDAO.createTagsTable();
-        imageDAO.createImageTagLinkTable();
-        imageDAO.createFunctionToDeleteOrphanedTags();
-        imageDAO.createTriggerToDeleteOrphanedTags();
+        SchemaMigrator schemaMigrator = new SchemaMigrator(
+                new SchemaMigrationDAO(queryExecutor),
+                SchemaMigrations.All(),
+                partitionLayout);
 
-        labelDAO.createLabelsTable();
-        labelDAO.createImageLabelLinkTable();
-        labelDAO.createFunctionToDeleteOrphanedLabels();
-        labelDAO.createTriggerToDeleteOrphanedLabels();
+        schemaMigrator.migrate();
 
         return daoFactory;
     }
 
+    private static PartitionLayout resolvePartitionLayout(
+            PartitionMigrationDAO partitionMigrationDAO,
+            PartitionLayout targetPartitionLayout)
+            throws Exception
+    {
+        if (!targetPartitionLayout.isPartitioned()) {
+            return targetPartitionLayout;
+        }
+
+        if (!partitionMigrationDAO.doesImagesTableExist() ||
+                partitionMigrationDAO.isImagesTablePartitioned()) {
+            return targetPartitionLayout;
+        }
+
+        return PartitionLayout.Unpartitioned();
+    }
+
     public ImageDAO getImageDAO()
     {
-        return new ImageDAO(queryExecutor);
+        return new ImageDAO(queryExecutor, asyncQueryExecutor, partitionLayout, tagIDCache);
     }
 
     public UserDAO getUserDAO()
     {
-        return new UserDAO(queryExecutor);
+        return new UserDAO(queryExecutor, asyncQueryExecutor);
     }
 
     public LabelDAO getLabelDAO()
     {
-        return new LabelDAO(queryExecutor);
+        return new LabelDAO(queryExecutor, partitionLayout, labelIDCache);
+    }
+
+    public PartitionMigrationDAO getPartitionMigrationDAO()
+    {
+        return new PartitionMigrationDAO(queryExecutor, targetPartitionLayout);
     }
 }
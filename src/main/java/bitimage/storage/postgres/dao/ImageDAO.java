@@ -1,36 +1,84 @@
 package bitimage.storage.postgres.dao;
 
+import bitimage.storage.cache.DictionaryCache;
 import bitimage.storage.dto.ImageDTO;
+import bitimage.storage.dto.ImagePageCursorDTO;
 import bitimage.storage.dto.TagDTO;
+import bitimage.storage.exceptions.StorageObjectReferenceException;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
 import bitimage.storage.postgres.query.QueryExecutor;
 import bitimage.storage.postgres.query.SQLQuery;
 import bitimage.storage.postgres.query.Transaction;
+import bitimage.storage.postgres.resultset.CountResultSetMapper;
 import bitimage.storage.postgres.resultset.ImageExpandedViewResultSetMapper;
 import bitimage.storage.postgres.resultset.ImageResultSetMapper;
+import bitimage.storage.postgres.resultset.TagResultSetMapper;
+import bitimage.storage.postgres.resultset.UUIDResultSetMapper;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ImageDAO
 {
     private final QueryExecutor queryExecutor;
+    private final AsyncQueryExecutor asyncQueryExecutor;
+    private final PartitionLayout partitionLayout;
+    private final DictionaryCache<String> tagIDCache;
 
-    public ImageDAO(QueryExecutor queryExecutor)
+    public ImageDAO(
+            QueryExecutor queryExecutor,
+            AsyncQueryExecutor asyncQueryExecutor,
+            PartitionLayout partitionLayout,
+            DictionaryCache<String> tagIDCache)
     {
         this.queryExecutor = queryExecutor;
+        this.asyncQueryExecutor = asyncQueryExecutor;
+        this.partitionLayout = partitionLayout;
+        this.tagIDCache = tagIDCache;
     }
 
     /**
      * Creates table for storing image metadata, with
      * multiple indexes to optimize for faster read
      * performance, based on column usage in select clauses.
+     *
+     * <p>Images carry a denormalized copy of their lower-cased
+     * tag names (tag_names), so tag search is a single table
+     * lookup on a GIN index. Rows created before the column
+     * existed have null tag_names until backfilled.
+     *
+     * <p>Constraint and index names are derived from the
+     * table name, so a partitioned copy of the table can be
+     * created alongside the original while migrating.
+     *
+     * <p>Unique constraints on a partitioned table must include
+     * the partition key, so partitioned images are keyed by
+     * (user_id, id), with a separate index on id.
      */
-    public void createImagesTable()
-            throws Exception
+    static String getCreateImagesTableSQL(String tableName, PartitionLayout layout)
     {
-        String sql = """
-            CREATE TABLE IF NOT EXISTS public.images (
+        String primaryKeySQL = layout.isPartitioned()
+                ? "PRIMARY KEY(user_id, id)"
+                : "PRIMARY KEY(id)";
+
+        String idIndexSQL = layout.isPartitioned()
+                ? String.format("""
+                    CREATE INDEX IF NOT EXISTS ix_%1$s_id
+                      ON public.%1$s(id);
+                """, tableName)
+                : "";
+
+        return String.format("""
+            CREATE TABLE IF NOT EXISTS public.%1$s (
               id UUID NOT NULL DEFAULT uuid_generate_v4(),
               name VARCHAR(250) NOT NULL,
               user_id UUID NOT NULL,
@@ -40,32 +88,81 @@ public class ImageDAO
               is_private BOOLEAN NOT NULL,
               created_at TIMESTAMP NOT NULL,
               updated_at TIMESTAMP NOT NULL,
-              CONSTRAINT pk_images PRIMARY KEY(id),
-              CONSTRAINT fk_images_to_users FOREIGN KEY(user_id)
+              tag_names TEXT[],
+              CONSTRAINT pk_%1$s %2$s,
+              CONSTRAINT fk_%1$s_to_users FOREIGN KEY(user_id)
                 REFERENCES public.users(id)
                 ON DELETE CASCADE
-            );
+            ) %3$s;
 
-            CREATE INDEX IF NOT EXISTS ix_images_user_id
-              ON public.images(user_id);
+            %4$s
 
-            CREATE INDEX IF NOT EXISTS ix_images_user_id_id
-              ON public.images(user_id, id);
+            %5$s
 
-            CREATE INDEX IF NOT EXISTS ix_images_user_id_name
-              ON public.images(user_id, name);
+            CREATE INDEX IF NOT EXISTS ix_%1$s_user_id
+              ON public.%1$s(user_id);
 
-            CREATE INDEX IF NOT EXISTS ix_images_updated_at
-              ON public.images(updated_at DESC);
-        """;
+            CREATE INDEX IF NOT EXISTS ix_%1$s_user_id_id
+              ON public.%1$s(user_id, id);
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_user_id_name
+              ON public.%1$s(user_id, name);
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_updated_at_id
+              ON public.%1$s(updated_at, id);
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_user_id_updated_at_id
+              ON public.%1$s(user_id, updated_at, id);
 
-        queryExecutor.write(new SQLQuery(sql));
+            CREATE INDEX IF NOT EXISTS ix_%1$s_public_updated_at_id
+              ON public.%1$s(updated_at, id)
+              WHERE is_private = FALSE;
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_user_id_lower_name
+              ON public.%1$s(user_id, lower(name) text_pattern_ops);
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_public_lower_name
+              ON public.%1$s(lower(name) text_pattern_ops)
+              WHERE is_private = FALSE;
+
+            ALTER TABLE public.%1$s
+              ADD COLUMN IF NOT EXISTS tag_names TEXT[];
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_tag_names
+              ON public.%1$s USING GIN(tag_names);
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_tag_names_unfilled
+              ON public.%1$s(id)
+              WHERE tag_names IS NULL;
+
+            DROP INDEX IF EXISTS ix_%1$s_updated_at;
+        """,
+                tableName,
+                primaryKeySQL,
+                layout.getPartitionBySQL(),
+                layout.getCreatePartitionsSQL(tableName),
+                idIndexSQL);
     }
 
-    public void createTagsTable()
-            throws Exception
+    /**
+     * Creates the trigram index on lower-cased image names, which
+     * serves substring (LIKE '%x%') name searches. Unlike the
+     * text_pattern_ops indexes, which only serve prefixes, any
+     * part of a name can be looked up by its trigrams.
+     */
+    static String getCreateImageNameTrigramIndexSQL(String tableName)
     {
-        String sql = """
+        return String.format("""
+            CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_lower_name_trgm
+              ON public.%1$s USING GIN(lower(name) gin_trgm_ops);
+        """, tableName);
+    }
+
+    static String getCreateTagsTableSQL()
+    {
+        return """
             CREATE TABLE IF NOT EXISTS public.tags (
               id UUID NOT NULL,
               name VARCHAR(250) NOT NULL,
@@ -74,148 +171,564 @@ public class ImageDAO
 
             CREATE UNIQUE INDEX IF NOT EXISTS ux_tags_name
               ON public.tags(name);
-        """;
 
-        queryExecutor.write(new SQLQuery(sql));
+            CREATE INDEX IF NOT EXISTS ix_tags_lower_name
+              ON public.tags(lower(name) text_pattern_ops);
+        """;
     }
 
     /**
      * Creates junction table used to map many-to-many
      * relationship between images and tags, storing a
      * single image id associated to a tag id.
+     *
+     * <p>Links carry their image's user_id, so they can be
+     * co-partitioned with images. Links written before the
+     * column existed have a null user_id.
      */
-    public void createImageTagLinkTable()
-            throws Exception
+    static String getCreateImageTagLinkTableSQL(
+            String tableName,
+            String imagesTableName,
+            PartitionLayout layout)
     {
-        String sql = """
-            CREATE TABLE IF NOT EXISTS public.image_tags (
+        String keysSQL = layout.isPartitioned()
+                ? String.format("""
+                    CONSTRAINT pk_%1$s PRIMARY KEY(user_id, image_id, tag_id),
+                    CONSTRAINT fk_%1$s_to_%2$s FOREIGN KEY(user_id, image_id)
+                      REFERENCES public.%2$s(user_id, id)
+                      ON DELETE CASCADE,
+                """, tableName, imagesTableName)
+                : String.format("""
+                    CONSTRAINT pk_%1$s PRIMARY KEY(image_id, tag_id),
+                    CONSTRAINT fk_%1$s_to_%2$s FOREIGN KEY(image_id)
+                      REFERENCES public.%2$s(id)
+                      ON DELETE CASCADE,
+                """, tableName, imagesTableName);
+
+        String imageIndexSQL = layout.isPartitioned()
+                ? String.format("""
+                    CREATE INDEX IF NOT EXISTS ix_%1$s_image_id
+                      ON public.%1$s(image_id);
+                """, tableName)
+                : "";
+
+        return String.format("""
+            CREATE TABLE IF NOT EXISTS public.%1$s (
               image_id UUID NOT NULL,
               tag_id UUID NOT NULL,
+              user_id UUID %2$s,
               created_at TIMESTAMP NOT NULL,
               updated_at TIMESTAMP NOT NULL,
-              CONSTRAINT pk_image_tags PRIMARY KEY(image_id, tag_id),
-              CONSTRAINT fk_image_tags_to_images FOREIGN KEY(image_id)
-                REFERENCES public.images(id)
-                ON DELETE CASCADE,
-              CONSTRAINT fk_image_tags_to_tags FOREIGN KEY(tag_id)
+              %3$s
+              CONSTRAINT fk_%1$s_to_tags FOREIGN KEY(tag_id)
                 REFERENCES public.tags(id)
                 ON DELETE CASCADE
+            ) %4$s;
+
+            %5$s
+
+            ALTER TABLE public.%1$s
+              ADD COLUMN IF NOT EXISTS user_id UUID;
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_tag_id
+              ON public.%1$s(tag_id);
+
+            %6$s
+        """,
+                tableName,
+                layout.isPartitioned() ? "NOT NULL" : "",
+                keysSQL,
+                layout.getPartitionBySQL(),
+                layout.getCreatePartitionsSQL(tableName),
+                imageIndexSQL);
+    }
+
+    /**
+     * Creates table recording ids of tags that may have been
+     * orphaned (no longer linked to an image), to be reaped in
+     * batches by the orphan sweeper.
+     */
+    static String getCreateOrphanedTagCandidatesTableSQL()
+    {
+        return """
+            CREATE TABLE IF NOT EXISTS public.orphaned_tag_candidates (
+              tag_id UUID NOT NULL,
+              CONSTRAINT pk_orphaned_tag_candidates PRIMARY KEY(tag_id)
             );
         """;
+    }
+
+    /**
+     * Records when tags became orphan candidates, so the orphan
+     * sweeper leaves candidates younger than its grace period.
+     * Candidates recorded before the column existed are taken as
+     * recorded when it is added.
+     */
+    static String getAddOrphanedTagCandidatesRecordedAtSQL()
+    {
+        return """
+            ALTER TABLE public.orphaned_tag_candidates
+              ADD COLUMN IF NOT EXISTS recorded_at TIMESTAMPTZ NOT NULL DEFAULT now();
 
-        queryExecutor.write(new SQLQuery(sql));
+            CREATE INDEX IF NOT EXISTS ix_orphaned_tag_candidates_recorded_at
+              ON public.orphaned_tag_candidates(recorded_at);
+        """;
     }
 
     /**
-     * Creates a new function that will remove all tags that
-     * are not associated with an image (either because the
-     * image or user was deleted).
+     * Creates a new function that records the tag ids of
+     * deleted image_tags rows as orphan candidates. Only the
+     * deleted rows are read, so its cost is proportional to
+     * the size of the delete, not the tags table.
      */
-    public void createFunctionToDeleteOrphanedTags()
-            throws Exception
+    static String getCreateFunctionToRecordOrphanedTagCandidatesSQL()
     {
-        String sql = """
-            CREATE OR REPLACE FUNCTION delete_orhpaned_tags()
+        return """
+            CREATE OR REPLACE FUNCTION record_orphaned_tag_candidates()
             RETURNS TRIGGER LANGUAGE PLPGSQL
 
             AS $$
               BEGIN
-                DELETE FROM
-                  public.tags USING public.tags t
-                  LEFT JOIN public.image_tags it ON t.id = it.tag_id
-                WHERE
-                  tags.id = t.id
-                  AND it.tag_id IS NULL;
+                INSERT INTO public.orphaned_tag_candidates (tag_id)
+                SELECT DISTINCT
+                  tag_id
+                FROM
+                  deleted_image_tags
+                ON CONFLICT DO NOTHING;
 
                 RETURN NULL;
               END;
-            $$
+            $$;
         """;
-
-        queryExecutor.write(new SQLQuery(sql));
     }
 
     /**
-     * Creates trigger that executes function to delete
-     * all tags that aren't linked to an image after a
-     * user record or image record is deleted.
+     * Creates statement level trigger that records orphan
+     * candidates after image_tags rows are deleted, whether
+     * directly or cascaded from a deleted image or user.
      * <p>
-     * This is needed because the tags table has no foreign
-     * key reference to the images or users table, so deletes
-     * cannot be cascaded.
+     * Replaces the previous triggers on the users and images
+     * tables, which anti joined the entire tags table against
+     * image_tags on every delete.
      *
-     * @precondition SQL function "delete_orphaned_tags" must
-     * exist, by calling createFunctionToDeleteOrphanedTags().
+     * @precondition SQL function "record_orphaned_tag_candidates"
+     * must exist, created by
+     * getCreateFunctionToRecordOrphanedTagCandidatesSQL().
      */
-    public void createTriggerToDeleteOrphanedTags()
-            throws Exception
+    static String getCreateTriggerToRecordOrphanedTagCandidatesSQL()
     {
-        String sql = """
+        return """
             DROP TRIGGER IF EXISTS delete_orphaned_tags_after_user_deleted
               ON public.users;
 
             DROP TRIGGER IF EXISTS delete_orphaned_tags_after_images_deleted
               ON public.images;
 
-            CREATE TRIGGER delete_orphaned_tags_after_user_deleted
-            AFTER DELETE
-              ON public.users
-              EXECUTE PROCEDURE delete_orhpaned_tags();
+            DROP FUNCTION IF EXISTS delete_orhpaned_tags();
+
+            DROP TRIGGER IF EXISTS record_orphaned_tag_candidates_after_image_tags_deleted
+              ON public.image_tags;
 
-            CREATE TRIGGER delete_orphaned_tags_after_images_deleted
+            CREATE TRIGGER record_orphaned_tag_candidates_after_image_tags_deleted
             AFTER DELETE
-              ON public.images
-              EXECUTE PROCEDURE delete_orhpaned_tags();
+              ON public.image_tags
+              REFERENCING OLD TABLE AS deleted_image_tags
+              FOR EACH STATEMENT
+              EXECUTE PROCEDURE record_orphaned_tag_candidates();
+        """;
+    }
+
+    /**
+     * Deletes a bounded batch of orphan candidates recorded longer
+     * than the grace period ago, along with those candidate tags
+     * still not linked to any image. Candidates locked by a
+     * concurrent sweep are skipped.
+     * Deleted tags are evicted from the tag id cache.
+     *
+     * @return number of orphaned tags deleted.
+     */
+    public long deleteOrphanedTags(int batchSize, long graceMs)
+            throws Exception
+    {
+        String sql = """
+            WITH candidates AS (
+              DELETE FROM
+                public.orphaned_tag_candidates
+              WHERE
+                tag_id IN (
+                  SELECT
+                    tag_id
+                  FROM
+                    public.orphaned_tag_candidates
+                  WHERE
+                    recorded_at < now() - ? * INTERVAL '1 millisecond'
+                  LIMIT ?
+                  FOR UPDATE SKIP LOCKED
+                )
+              RETURNING tag_id
+            ),
+            deleted AS (
+              DELETE FROM
+                public.tags t
+              USING
+                candidates c
+              WHERE
+                t.id = c.tag_id AND
+                NOT EXISTS (
+                  SELECT
+                    1
+                  FROM
+                    public.image_tags it
+                  WHERE
+                    it.tag_id = t.id
+                )
+              RETURNING t.id, t.name
+            )
+            SELECT
+              id,
+              name
+            FROM
+              deleted;
+        """;
+
+        List<TagDTO> deletedTagDTOs = queryExecutor.writeReturning(
+                new SQLQuery(sql, List.of(graceMs, batchSize)),
+                new TagResultSetMapper());
+
+        tagIDCache.invalidateAll(deletedTagDTOs.stream()
+                .map(tagDTO -> tagDTO.name)
+                .collect(Collectors.toList()));
+
+        return deletedTagDTOs.size();
+    }
+
+    public long countOrphanedTagCandidates()
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              COUNT(*) AS count
+            FROM
+              public.orphaned_tag_candidates;
         """;
 
-        queryExecutor.write(new SQLQuery(sql));
+        return queryExecutor.read(
+                new SQLQuery(sql).onPrimary(),
+                new CountResultSetMapper()).get(0);
     }
 
     /**
      * Inserts a collection of images, and each
      * image's tags within a transaction.
+     *
+     * <p>Tag ids are resolved before the transaction, from the
+     * tag id cache, or by inserting the uncached tags in bulk.
+     * A cached id is stale if its tag was swept as an orphan by
+     * another application instance, failing the link's foreign
+     * key, in which case the batch's tags are evicted and the
+     * insert is retried once.
      */
     public void insertImages(List<ImageDTO> imageDTOs)
             throws Exception
+    {
+        try {
+            insertImages(imageDTOs, resolveTagIDs(imageDTOs));
+        }
+        catch (StorageObjectReferenceException e) {
+            tagIDCache.invalidateAll(getTagDTOsByName(imageDTOs).keySet());
+            insertImages(imageDTOs, resolveTagIDs(imageDTOs));
+        }
+    }
+
+    /**
+     * Queries are sent grouped by statement (upload counts,
+     * then all images, then all tag links, then all tag_names
+     * updates) so the transaction is committed in one batch per
+     * statement, rather than one round trip per row.
+     *
+     * <p>Owners' upload counts are incremented first, failing
+     * the transaction if an upload limit is exceeded, and
+     * locking the owners' rows so concurrent uploads by the same
+     * user are checked one after another.
+     */
+    private void insertImages(List<ImageDTO> imageDTOs, Map<String, UUID> tagIDsByName)
+            throws Exception
     {
         Transaction transaction = queryExecutor.newTransaction();
 
+        // images are uploaded in batches per user
+        if (!imageDTOs.isEmpty()) {
+            transaction.forSession(imageDTOs.get(0).user_id);
+        }
+
+        Map<UUID, Long> imageCountsByUserID = imageDTOs.stream()
+                .collect(Collectors.groupingBy(imageDTO -> imageDTO.user_id, Collectors.counting()));
+
+        imageCountsByUserID.forEach((userID, imageCount) -> transaction.send(new SQLQuery(
+                getIncrementImageUploadCountSQL(),
+                List.of(imageCount.intValue(), userID))));
+
         for (ImageDTO imageDTO : imageDTOs) {
             SQLQuery insertImageQuery = new SQLQuery(
                     getInsertImageSQL(),
                     getInsertImageParams(imageDTO));
 
             transaction.send(insertImageQuery);
-            insertImageTags(transaction, imageDTO.id, imageDTO.tag_dtos);
         }
 
+        insertImageTags(transaction, imageDTOs, tagIDsByName);
         queryExecutor.commit(transaction);
     }
 
     /**
-     * Inserts an image's tags as part of transaction
-     * when inserting an image.
+     * Adds to user's image upload count, failing with sql state
+     * "BI001" if the new count exceeds the user's upload limit.
+     */
+    private static String getIncrementImageUploadCountSQL()
+    {
+        return """
+            UPDATE
+              public.users
+            SET
+              image_upload_count = check_image_upload_limit(
+                image_upload_count + ?,
+                image_upload_limit
+              )
+            WHERE
+              id = ?;
+        """;
+    }
+
+    /**
+     * Inserts all images' tag links as part of transaction
+     * when inserting images, then copies each image's linked
+     * tag names into its tag_names column.
      *
+     * @precondition Image insert queries must be sent first.
      * @postcondition Transaction object must be committed.
      */
     private void insertImageTags(
             Transaction transaction,
-            UUID imageID,
-            List<TagDTO> tagDTOs)
+            List<ImageDTO> imageDTOs,
+            Map<String, UUID> tagIDsByName)
     {
-        for (TagDTO tagDTO : tagDTOs) {
-            SQLQuery insertTagQuery = new SQLQuery(
-                    getInsertTagSQL(),
-                    List.of(tagDTO.id, tagDTO.name));
+        for (ImageDTO imageDTO : imageDTOs) {
+            for (TagDTO tagDTO : imageDTO.tag_dtos) {
+                transaction.send(new SQLQuery(
+                        getInsertImageTagLinkSQL(),
+                        getInsertImageTagLinkParams(imageDTO, tagDTO, tagIDsByName.get(tagDTO.name))));
+            }
+        }
+
+        for (ImageDTO imageDTO : imageDTOs) {
+            transaction.send(new SQLQuery(
+                    getUpdateImageTagNamesSQL(),
+                    List.of(imageDTO.user_id, imageDTO.id)));
+        }
+    }
+
+    /**
+     * Gets ids of all tags of given images by name, inserting
+     * tags not found in the tag id cache. Tags found are added
+     * to the cache.
+     *
+     * <p>A tag inserted by a concurrent request after the insert
+     * statement started is neither inserted nor visible to it, so
+     * tags still unresolved are looked up by a second statement.
+     *
+     * @throws StorageObjectReferenceException if tags were
+     * deleted while being resolved.
+     */
+    private Map<String, UUID> resolveTagIDs(List<ImageDTO> imageDTOs)
+            throws Exception
+    {
+        Map<String, TagDTO> tagDTOsByName = getTagDTOsByName(imageDTOs);
+        Map<String, UUID> tagIDsByName = new HashMap<>(tagIDCache.getAll(tagDTOsByName.keySet()));
+
+        for (int attempt = 0; attempt < 2 && tagIDsByName.size() < tagDTOsByName.size(); attempt++) {
+            List<TagDTO> unresolvedTagDTOs = tagDTOsByName.values()
+                    .stream()
+                    .filter(tagDTO -> !tagIDsByName.containsKey(tagDTO.name))
+                    .collect(Collectors.toList());
+
+            Map<String, UUID> resolvedTagIDs = insertOrSelectTags(unresolvedTagDTOs)
+                    .stream()
+                    .collect(Collectors.toMap(tagDTO -> tagDTO.name, tagDTO -> tagDTO.id, (id, otherID) -> id));
+
+            tagIDCache.putAll(resolvedTagIDs);
+            tagIDsByName.putAll(resolvedTagIDs);
+        }
 
-            SQLQuery insertImageTagLinkQuery = new SQLQuery(
-                    getInsertImageTagLinkSQL(),
-                    getInsertImageTagLinkParams(imageID, tagDTO));
+        if (tagIDsByName.size() < tagDTOsByName.size()) {
+            throw new StorageObjectReferenceException();
+        }
+
+        return tagIDsByName;
+    }
 
-            transaction
-                    .send(insertTagQuery)
-                    .send(insertImageTagLinkQuery);
+    private static Map<String, TagDTO> getTagDTOsByName(List<ImageDTO> imageDTOs)
+    {
+        Map<String, TagDTO> tagDTOsByName = new LinkedHashMap<>();
+
+        for (ImageDTO imageDTO : imageDTOs) {
+            for (TagDTO tagDTO : imageDTO.tag_dtos) {
+                tagDTOsByName.putIfAbsent(tagDTO.name, tagDTO);
+            }
         }
+
+        return tagDTOsByName;
+    }
+
+    /**
+     * Inserts tags in bulk, returning the ids of both inserted
+     * and already existing tags.
+     *
+     * <p>Rows inserted by a statement are not visible to its own
+     * reads of the tags table, so ids of inserted tags are taken
+     * from the insert's returned rows. Inserted tags are recorded
+     * as orphan candidates, so tags never linked (ex. when the
+     * image insert fails) are swept, once past the sweeper's grace
+     * period.
+     *
+     * <p>The statement's text varies by number of tags, so it
+     * is not cached, which would evict hotter statements.
+     */
+    private List<TagDTO> insertOrSelectTags(List<TagDTO> tagDTOs)
+            throws Exception
+    {
+        String sql = String.format("""
+            WITH input (id, name) AS (
+              VALUES
+                %s
+            ),
+            inserted AS (
+              INSERT INTO public.tags (
+                id,
+                name
+              ) (
+                SELECT
+                  id, name
+                FROM
+                  input
+              ) ON CONFLICT DO NOTHING
+              RETURNING id, name
+            ),
+            candidates AS (
+              INSERT INTO public.orphaned_tag_candidates (
+                tag_id
+              ) (
+                SELECT
+                  id
+                FROM
+                  inserted
+              ) ON CONFLICT DO NOTHING
+            )
+            SELECT
+              id,
+              name
+            FROM
+              inserted
+            UNION ALL
+            SELECT
+              t.id,
+              t.name
+            FROM
+              public.tags t
+              INNER JOIN input i ON t.name = i.name;
+        """, String.join(", ", Collections.nCopies(tagDTOs.size(), "(?::uuid, ?)")));
+
+        List<Object> params = new ArrayList<>();
+
+        for (TagDTO tagDTO : tagDTOs) {
+            params.add(tagDTO.id);
+            params.add(tagDTO.name);
+        }
+
+        return queryExecutor.writeReturning(
+                new SQLQuery(sql, params).asUncached(),
+                new TagResultSetMapper());
+    }
+
+    /**
+     * Sets image's tag_names to its linked tags' lower-cased
+     * names (an empty array for images without tags).
+     */
+    private String getUpdateImageTagNamesSQL()
+    {
+        return String.format("""
+            UPDATE
+              public.images i
+            SET
+              tag_names = ARRAY(
+                SELECT
+                  lower(t.name)
+                FROM
+                  public.image_tags it
+                  INNER JOIN public.tags t ON it.tag_id = t.id
+                WHERE
+                  it.image_id = i.id
+                  %s
+                ORDER BY
+                  1
+              )
+            WHERE
+              i.user_id = ? AND
+              i.id = ?;
+        """, partitionLayout.getLinkUserPredicateSQL("it", "i"));
+    }
+
+    /**
+     * Fills tag_names for a bounded batch of images created
+     * before the column existed. Rows locked by a concurrent
+     * backfill are skipped.
+     *
+     * @return number of images filled, 0 once all are filled.
+     */
+    public long backfillImageTagNames(int batchSize)
+            throws Exception
+    {
+        String sql = String.format("""
+            WITH batch AS (
+              SELECT
+                id
+              FROM
+                public.images
+              WHERE
+                tag_names IS NULL
+              LIMIT ?
+              FOR UPDATE SKIP LOCKED
+            ),
+            filled AS (
+              UPDATE
+                public.images i
+              SET
+                tag_names = ARRAY(
+                  SELECT
+                    lower(t.name)
+                  FROM
+                    public.image_tags it
+                    INNER JOIN public.tags t ON it.tag_id = t.id
+                  WHERE
+                    it.image_id = i.id
+                    %s
+                  ORDER BY
+                    1
+                )
+              FROM
+                batch b
+              WHERE
+                i.id = b.id
+              RETURNING i.id
+            )
+            SELECT
+              COUNT(*) AS count
+            FROM
+              filled;
+        """, partitionLayout.getLinkUserPredicateSQL("it", "i"));
+
+        return queryExecutor.writeReturning(
+                new SQLQuery(sql, List.of(batchSize)),
+                new CountResultSetMapper()).get(0);
     }
 
     private static String getInsertImageSQL()
@@ -250,69 +763,46 @@ public class ImageDAO
                 imageDTO.updated_at);
     }
 
-    /**
-     * Query for inserting a generic tag record.
-     *
-     * <p>If the tag already exists by name, nothing should
-     * happen since this tag can be linked to images owned by
-     * different users.
-     */
-    private static String getInsertTagSQL()
-    {
-        return """
-            INSERT INTO public.tags (
-              id,
-              name
-            ) VALUES
-              (?, ?)
-            ON CONFLICT DO NOTHING;
-        """;
-    }
-
     /**
      * Query for inserting record that links an image
      * to a tag by ids.
      *
-     * <p>Because tags table is normalized, the tag id
-     * (linked to the image) is found for given the tag
-     * name. This reduces redundant tag records in tags
-     * table.
+     * <p>The link stores the image owner's id, which is
+     * the partition key when link tables are partitioned.
      */
     private static String getInsertImageTagLinkSQL()
     {
         return """
             INSERT INTO public.image_tags (
               image_id,
+              user_id,
               tag_id,
               created_at,
               updated_at
-            ) (
-              SELECT
-                ?, id, ?, ?
-              FROM
-                public.tags
-              WHERE
-              name = ?
-            ) ON CONFLICT DO NOTHING;
+            ) VALUES
+              (?, ?, ?, ?, ?)
+            ON CONFLICT DO NOTHING;
         """;
     }
 
-    public static List<Object> getInsertImageTagLinkParams(
-            UUID imageID,
-            TagDTO tagDTO)
+    private static List<Object> getInsertImageTagLinkParams(
+            ImageDTO imageDTO,
+            TagDTO tagDTO,
+            UUID tagID)
     {
         return List.of(
-                imageID,
+                imageDTO.id,
+                imageDTO.user_id,
+                tagID,
                 tagDTO.created_at,
-                tagDTO.updated_at,
-                tagDTO.name);
+                tagDTO.updated_at);
     }
 
     public ImageDTO selectImageByID(UUID userID, UUID imageID)
             throws Exception
     {
         List<ImageDTO> results = queryExecutor.read(
-                new SQLQuery(getSelectImageByIDSQL(), List.of(userID, imageID)),
+                new SQLQuery(getSelectImageByIDSQL(), List.of(userID, imageID)).forSession(userID),
                 new ImageExpandedViewResultSetMapper());
 
         if (results.isEmpty()) {
@@ -323,15 +813,18 @@ public class ImageDAO
     }
 
     /**
-     * Selects image row by id, with joined to link table for images to tags. A single image row's
-     * tags are projected into a json array to simplify mapping to application objects.
+     * Selects image row by id. A single image row's tags and
+     * content labels are each aggregated into a json array by an
+     * independent correlated subquery, rather than joining both
+     * link tables at once, so the work grows with tags + labels
+     * rather than their product.
      *
-     * <p>If an image has no tags, for the tags column, PostgreSQL returns [null], which is converted
-     * to an empty json list.
+     * <p>If an image has no tags (or labels), the subquery returns
+     * null, which is converted to an empty json list.
      */
-    private static String getSelectImageByIDSQL()
+    private String getSelectImageByIDSQL()
     {
-        return """
+        return String.format("""
             SELECT
               i.id AS id,
               i.name AS name,
@@ -339,66 +832,92 @@ public class ImageDAO
               i.is_private AS is_private,
               i.size_bytes AS size_bytes,
               i.file_format AS file_format,
-              REPLACE(i.hash_md5 :: text, '-', '') AS hash_md5,
+              i.updated_at AS updated_at,
+              i.hash_md5 AS hash_md5,
               COALESCE(
-                NULLIF(json_agg(DISTINCT t.*) :: text, '[null]'),
+                (
+                  SELECT
+                    json_agg(t.*)
+                  FROM
+                    public.image_tags it
+                    INNER JOIN public.tags t ON it.tag_id = t.id
+                  WHERE
+                    it.image_id = i.id
+                    %s
+                ),
                 '[]'
               ) AS tags,
               COALESCE(
-                NULLIF(json_agg(DISTINCT cl.*) :: text, '[null]'),
+                (
+                  SELECT
+                    json_agg(cl.*)
+                  FROM
+                    public.image_content_labels icl
+                    INNER JOIN public.content_labels cl ON icl.label_id = cl.id
+                  WHERE
+                    icl.image_id = i.id
+                    %s
+                ),
                 '[]'
               ) AS content_labels
             FROM
               public.images i
-              LEFT JOIN public.image_tags it ON i.id = it.image_id
-              LEFT JOIN public.tags t ON it.tag_id = t.id
-              LEFT JOIN public.image_content_labels icl ON i.id = icl.image_id
-              LEFT JOIN public.content_labels cl ON icl.label_id = cl.id
             WHERE
               (
                 i.user_id = ? OR
                 i.is_private = FALSE
               ) AND
-              i.id = ?
-            GROUP BY
-              i.id;
-        """;
+              i.id = ?;
+        """,
+                partitionLayout.getLinkUserPredicateSQL("it", "i"),
+                partitionLayout.getLinkUserPredicateSQL("icl", "i"));
     }
 
     /**
-     * Selects all publicly available images, limiting by the 100 latest updated images.
+     * Selects a page of publicly available images, ordered by the
+     * latest updated images.
+     *
+     * @param pageCursor key of the last image on the previous
+     * page, or null for the first page.
      */
-    public List<ImageDTO> selectAllPublicImages()
+    public List<ImageDTO> selectAllPublicImages(ImagePageCursorDTO pageCursor, int limit)
             throws Exception
     {
-        String sql = """
-            SELECT
-              id,
-              name,
-              user_id,
-              is_private,
-              size_bytes,
-              file_format,
-              REPLACE(hash_md5 :: text, '-', '') AS hash_md5
-            FROM
-              public.images
-            WHERE
-              is_private = FALSE
-            ORDER BY
-              updated_at DESC
-            LIMIT 100;
-            """;
+        return selectImagePage(
+                "i.is_private = FALSE",
+                List.of(),
+                pageCursor,
+                limit,
+                null);
+    }
 
-        return queryExecutor.read(
-                new SQLQuery(sql),
-                new ImageResultSetMapper());
+    /**
+     * Selects a page of user's images, utilizing the
+     * (user_id, updated_at, id) index to return results ordered
+     * by the most recently updated (or created) images.
+     *
+     * @param pageCursor key of the last image on the previous
+     * page, or null for the first page.
+     */
+    public List<ImageDTO> selectAllUserImages(UUID userID, ImagePageCursorDTO pageCursor, int limit)
+            throws Exception
+    {
+        return selectImagePage(
+                "i.user_id = ?",
+                List.of(userID),
+                pageCursor,
+                limit,
+                userID);
     }
 
     /**
-     * Selects all user's images, utilizing descending order index to quickly return all results
-     * ordered by the most recently updated (or created) images.
+     * Streams all user's images, ordered by the most recently
+     * updated images, fetching rows from a cursor as the stream
+     * is consumed.
+     *
+     * @postcondition Returned stream must be closed after.
      */
-    public List<ImageDTO> selectAllUserImages(UUID userID)
+    public Stream<ImageDTO> streamAllUserImages(UUID userID)
             throws Exception
     {
         String sql = """
@@ -409,181 +928,558 @@ public class ImageDAO
               is_private,
               size_bytes,
               file_format,
-              REPLACE(hash_md5 :: text, '-', '') AS hash_md5
+              updated_at,
+              hash_md5
             FROM
               public.images
             WHERE
               user_id = ?
             ORDER BY
-              updated_at DESC;
+              updated_at DESC,
+              id DESC;
         """;
 
-        return queryExecutor.read(
-                new SQLQuery(sql, List.of(userID)),
+        return queryExecutor.stream(
+                new SQLQuery(sql, List.of(userID)).forSession(userID),
                 new ImageResultSetMapper());
     }
 
     /**
-     * Selects and filters for all images that match by name. Returned images are either be public or
-     * owned by user.
+     * Selects and filters for a page of images that match by name
+     * prefix. Returned images are either be public or owned by
+     * user.
      *
-     * <p>Image name is compared case-insensitively.
+     * <p>Image name is compared case-insensitively, using the
+     * lower(name) text_pattern_ops indexes.
      */
-    public List<ImageDTO> selectImagesByName(UUID userID, String imageName)
+    public List<ImageDTO> selectImagesByName(
+            UUID userID,
+            String imageName,
+            ImagePageCursorDTO pageCursor,
+            int limit)
             throws Exception
     {
-        String sql = """
+        PrefixRange nameRange = PrefixRange.Of(imageName);
+
+        return selectVisibleImagePage(
+                userID,
+                nameRange.getMatchSQL("lower(i.name)"),
+                nameRange.getParams(),
+                pageCursor,
+                limit);
+    }
+
+    /**
+     * Selects and filters for a page of images whose name contains
+     * the given text. Returned images are either public or owned
+     * by user.
+     *
+     * <p>Image name is compared case-insensitively, using the
+     * lower(name) trigram index, which (unlike the
+     * text_pattern_ops indexes) also serves matches in the middle
+     * of names.
+     */
+    public List<ImageDTO> selectImagesByNameContaining(
+            UUID userID,
+            String imageNameText,
+            ImagePageCursorDTO pageCursor,
+            int limit)
+            throws Exception
+    {
+        String namePattern = "%" + escapeLikePattern(imageNameText.toLowerCase(Locale.ROOT)) + "%";
+
+        return selectVisibleImagePage(
+                userID,
+                "lower(i.name) LIKE ?",
+                List.of(namePattern),
+                pageCursor,
+                limit);
+    }
+
+    /**
+     * Escapes LIKE wildcards, so text is matched literally.
+     */
+    private static String escapeLikePattern(String text)
+    {
+        return text
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+
+    /**
+     * Selects and filters for a page of images that have an
+     * associated tag matching by name prefix. Returned images are
+     * either be public or owned by user.
+     *
+     * <p>Tag names are compared case-insensitively. Matching tag
+     * names are first looked up from the (small) tags table, then
+     * images are matched by overlap with their tag_names array,
+     * using its GIN index. Images not yet backfilled fall back to
+     * a semi join on their linked tags.
+     */
+    public List<ImageDTO> selectImagesByTag(
+            UUID userID,
+            String tagName,
+            ImagePageCursorDTO pageCursor,
+            int limit)
+            throws Exception
+    {
+        PrefixRange tagRange = PrefixRange.Of(tagName);
+
+        String matchSQL = String.format("""
+            (
+              i.tag_names && ARRAY(
+                SELECT
+                  lower(t.name)
+                FROM
+                  public.tags t
+                WHERE
+                  %2$s
+              ) OR (
+                i.tag_names IS NULL AND
+                EXISTS (
+                  SELECT
+                    1
+                  FROM
+                    public.image_tags it
+                    INNER JOIN public.tags t ON it.tag_id = t.id
+                  WHERE
+                    it.image_id = i.id
+                    %1$s AND
+                    %2$s
+                )
+              )
+            )
+        """,
+                partitionLayout.getLinkUserPredicateSQL("it", "i"),
+                tagRange.getMatchSQL("lower(t.name)"));
+
+        List<Object> matchParams = new ArrayList<>(tagRange.getParams());
+        matchParams.addAll(tagRange.getParams());
+
+        return selectVisibleImagePage(
+                userID,
+                matchSQL,
+                matchParams,
+                pageCursor,
+                limit);
+    }
+
+    public List<ImageDTO> selectImagesByContentLabel(
+            UUID userID,
+            String labelName,
+            ImagePageCursorDTO pageCursor,
+            int limit)
+            throws Exception
+    {
+        PrefixRange labelRange = PrefixRange.Of(labelName);
+
+        String matchSQL = String.format("""
+            EXISTS (
+              SELECT
+                1
+              FROM
+                public.image_content_labels icl
+                INNER JOIN public.content_labels cl ON icl.label_id = cl.id
+              WHERE
+                icl.image_id = i.id
+                %s AND
+                %s
+            )
+        """,
+                partitionLayout.getLinkUserPredicateSQL("icl", "i"),
+                labelRange.getMatchSQL("lower(cl.name)"));
+
+        return selectVisibleImagePage(
+                userID,
+                matchSQL,
+                labelRange.getParams(),
+                pageCursor,
+                limit);
+    }
+
+    /**
+     * Selects a page of matching images that are either owned by
+     * user or public.
+     *
+     * <p>Rather than filtering on
+     * (user_id = ? OR is_private = FALSE), which no single index
+     * supports, the owner's images and other users' public
+     * images are selected by separate branches, each able to use
+     * its own index. Each branch reads at most a page of rows,
+     * then the branches are merged into a single page.
+     *
+     * @param matchSQL where clause predicate, on images aliased as
+     * "i".
+     */
+    private List<ImageDTO> selectVisibleImagePage(
+            UUID userID,
+            String matchSQL,
+            List<Object> matchParams,
+            ImagePageCursorDTO pageCursor,
+            int limit)
+            throws Exception
+    {
+        String ownerFilterSQL = "i.user_id = ? AND " + matchSQL;
+        String publicFilterSQL = "i.is_private = FALSE AND i.user_id <> ? AND " + matchSQL;
+
+        String sql = String.format("""
             SELECT
-              id,
-              name,
-              user_id,
-              is_private,
-              size_bytes,
-              file_format,
-              REPLACE(hash_md5::text, '-', '') AS hash_md5
+              *
             FROM
-              public.images
-            WHERE
               (
-                user_id = ? OR
-                is_private = FALSE
-              ) AND
-              name ILIKE ?;
-        """;
+                (%s)
+                UNION ALL
+                (%s)
+              ) page
+            ORDER BY
+              page.updated_at DESC,
+              page.id DESC
+            LIMIT ?;
+        """,
+                getSelectImagePageSQL(ownerFilterSQL, pageCursor),
+                getSelectImagePageSQL(publicFilterSQL, pageCursor));
+
+        List<Object> branchParams = new ArrayList<>();
+        branchParams.add(userID);
+        branchParams.addAll(matchParams);
+        branchParams.addAll(getSelectImagePageParams(pageCursor, limit));
+
+        List<Object> params = new ArrayList<>(branchParams);
+        params.addAll(branchParams);
+        params.add(limit);
 
         return queryExecutor.read(
-                new SQLQuery(sql, List.of(userID, imageName + "%")),
+                new SQLQuery(sql, params).forSession(userID),
                 new ImageResultSetMapper());
     }
 
     /**
-     * Selects and filters for all user's images that have an associate matching tag name. Tag names
-     * are compared "fuzzily".
+     * Selects a page of images matching the given filter, ordered
+     * by the most recently updated images first.
      *
-     * <p>Tag names are compared case-insensitively.
+     * @param filterSQL where clause predicate, on images aliased
+     * as "i".
+     * @param sessionKey session whose writes must be visible, or
+     * null.
      */
-    public List<ImageDTO> selectImagesByTag(UUID userID, String tagName)
+    private List<ImageDTO> selectImagePage(
+            String filterSQL,
+            List<Object> filterParams,
+            ImagePageCursorDTO pageCursor,
+            int limit,
+            Object sessionKey)
             throws Exception
     {
-        String sql = """
-            SELECT
-              DISTINCT i.id AS id,
-              i.name AS name,
-              i.user_id AS user_id,
-              i.is_private AS is_private,
-              i.size_bytes AS size_bytes,
-              i.file_format AS file_format,
-              REPLACE(i.hash_md5::text, '-', '') AS hash_md5
-            FROM
-              public.images i
-              INNER JOIN public.image_tags it ON i.id = it.image_id
-              INNER JOIN public.tags t ON it.tag_id = t.id
-            WHERE
-              (
-                user_id = ? OR
-                is_private = FALSE
-              ) AND
-              t.name ILIKE ?;
-        """;
+        String sql = getSelectImagePageSQL(filterSQL, pageCursor) + ";";
+
+        List<Object> params = new ArrayList<>(filterParams);
+        params.addAll(getSelectImagePageParams(pageCursor, limit));
 
         return queryExecutor.read(
-                new SQLQuery(sql, List.of(userID, tagName + "%")),
+                new SQLQuery(sql, params).forSession(sessionKey),
                 new ImageResultSetMapper());
     }
 
-    public List<ImageDTO> selectImagesByContentLabel(UUID userID, String labelName)
-            throws Exception
+    /**
+     * Pages are found by seeking past the (updated_at, id) key of
+     * the previous page's last image (keyset pagination) rather
+     * than by offset, so a page costs the same to read no matter
+     * how deep it is. The id breaks ties between images updated at
+     * the same time.
+     */
+    private static String getSelectImagePageSQL(String filterSQL, ImagePageCursorDTO pageCursor)
     {
-        String sql = """
+        String keysetSQL = (pageCursor == null)
+                ? ""
+                : "AND (i.updated_at, i.id) < (?, ?)";
+
+        return String.format("""
             SELECT
-              DISTINCT i.id AS id,
+              i.id AS id,
               i.name AS name,
               i.user_id AS user_id,
               i.is_private AS is_private,
               i.size_bytes AS size_bytes,
               i.file_format AS file_format,
-              REPLACE(i.hash_md5 :: text, '-', '') AS hash_md5
+              i.updated_at AS updated_at,
+              i.hash_md5 AS hash_md5
             FROM
               public.images i
-              INNER JOIN public.image_content_labels icl ON i.id = icl.image_id
-              INNER JOIN public.content_labels cl ON icl.label_id = cl.id
             WHERE
-              (
-                user_id = ? OR
-                is_private = FALSE
-              ) AND
-              AND cl.name ILIKE ?;
-        """;
+              %s
+              %s
+            ORDER BY
+              i.updated_at DESC,
+              i.id DESC
+            LIMIT ?
+        """, filterSQL, keysetSQL);
+    }
 
-        return queryExecutor.read(
-                new SQLQuery(sql, List.of(userID, labelName + "%")),
-                new ImageResultSetMapper());
+    private static List<Object> getSelectImagePageParams(ImagePageCursorDTO pageCursor, int limit)
+    {
+        List<Object> params = new ArrayList<>();
+
+        if (pageCursor != null) {
+            params.add(pageCursor.updated_at);
+            params.add(pageCursor.id);
+        }
+
+        params.add(limit);
+
+        return params;
     }
 
     /**
-     * Deletes a user's images by image ids. Orphaned tags
-     * (which are not linked to an image) are also deleted.
+     * Deletes those of a user's images found by id, returning
+     * the ids of images actually deleted. Orphaned tags (which
+     * are not linked to an image) are reaped later by the
+     * orphan sweeper.
      * <p>
      * Only an image's owner can delete it.
      *
-     * <p>Images are deleted within a transaction that throws
-     * an exception when attempting to delete non existent
-     * images. Postgres JDBC driver does not allow prepared
-     * query parameters within explicit transactions, so ids
-     * (which are pre-validated) are injected.
-     *
-     * <p>This is done to enforce data integrity between rdbms
-     * and AWS S3, by preventing a request to delete a newly
-     * uploaded images files whose metadata has not yet been
-     * written to rdbms.
+     * <p>Ids are bound as a single array parameter, so the
+     * statement is prepared once and reused regardless of how
+     * many ids are given. The user's upload count is decremented
+     * by the same statement.
      */
-    public void deleteImagesByID(UUID userID, List<UUID> imageIDs)
+    public List<UUID> deleteImagesByID(UUID userID, List<UUID> imageIDs)
             throws Exception
     {
-        String imageIDsToDelete = uuidListToString(imageIDs);
         String sql = String.format("""
-            DO $$
-            BEGIN
+            WITH deleted AS (
               DELETE FROM
                 public.images
               WHERE
-                user_id = '%s' AND
-                id = ANY (string_to_array('%s', ',')::uuid[]);
-              IF NOT FOUND THEN
-                raise exception 'No rows affected (Given bad id)';
-              END IF;
-            END
-            $$;
-        """, userID.toString(), imageIDsToDelete);
+                user_id = ? AND
+                id = ANY (?::uuid[])
+              RETURNING id
+            ),
+            %s
+            SELECT
+              id
+            FROM
+              deleted;
+        """, getDecrementImageUploadCountSQL());
+
+        List<Object> params = List.of(
+                userID,
+                SQLArrays.ofUUIDs(imageIDs),
+                userID);
+
+        return queryExecutor.writeReturning(
+                new SQLQuery(sql, params).forSession(userID),
+                new UUIDResultSetMapper());
+    }
 
-        queryExecutor.write(new SQLQuery(sql));
+    /**
+     * Common table expression that subtracts the rows of the
+     * "deleted" expression from a user's upload count, clamped
+     * at 0 in case the count had drifted below the actual count.
+     */
+    private static String getDecrementImageUploadCountSQL()
+    {
+        return """
+            counted AS (
+              UPDATE
+                public.users
+              SET
+                image_upload_count = GREATEST(
+                  image_upload_count - (SELECT COUNT(*) FROM deleted),
+                  0
+                )
+              WHERE
+                id = ? AND
+                EXISTS (SELECT 1 FROM deleted)
+            )
+        """;
     }
 
     /**
-     * Converts list of UUIDs to comma delimited string of UUIDs.
+     * Deletes a user's images by id only if every image is
+     * found, otherwise nothing is deleted. Matched images are
+     * locked first, so they cannot be deleted concurrently
+     * between counting and deleting.
      *
-     * <p>This method is needed because the JDBC driver does
-     * not accept a Java UUID typed array or list as an argument.
+     * @precondition Image ids must be distinct.
+     * @return ids of deleted images, or an empty list if any
+     * image was not found.
      */
-    private static String uuidListToString(List<UUID> ids)
+    public List<UUID> deleteImagesByIDIfAllExist(UUID userID, List<UUID> imageIDs)
+            throws Exception
     {
-        List<String> uuidStrings = ids.stream()
-                .map(UUID::toString)
-                .collect(Collectors.toList());
+        String sql = String.format("""
+            WITH matched AS (
+              SELECT
+                id
+              FROM
+                public.images
+              WHERE
+                user_id = ? AND
+                id = ANY (?::uuid[])
+              FOR UPDATE
+            ),
+            deleted AS (
+              DELETE FROM
+                public.images i
+              USING
+                matched m
+              WHERE
+                i.user_id = ? AND
+                i.id = m.id AND
+                (SELECT COUNT(*) FROM matched) = ?
+              RETURNING i.id
+            ),
+            %s
+            SELECT
+              id
+            FROM
+              deleted;
+        """, getDecrementImageUploadCountSQL());
+
+        List<Object> params = List.of(
+                userID,
+                SQLArrays.ofUUIDs(imageIDs),
+                userID,
+                imageIDs.size(),
+                userID);
 
-        return String.join(",", uuidStrings);
+        return queryExecutor.writeReturning(
+                new SQLQuery(sql, params).forSession(userID),
+                new UUIDResultSetMapper());
     }
 
     public void deleteImagesByUserID(UUID userID)
             throws Exception
+    {
+        queryExecutor.write(getDeleteImagesByUserIDQuery(userID));
+    }
+
+    /**
+     * Deletes all user's images on a database thread, so the
+     * caller can do other work while the delete runs.
+     */
+    public CompletableFuture<Void> deleteImagesByUserIDAsync(UUID userID)
+    {
+        return asyncQueryExecutor.write(getDeleteImagesByUserIDQuery(userID));
+    }
+
+    /**
+     * The user's upload count is decremented by the same
+     * statement, if the user still exists.
+     */
+    private static SQLQuery getDeleteImagesByUserIDQuery(UUID userID)
     {
         String sql = """
-            DELETE FROM
-              public.images
+            WITH deleted AS (
+              DELETE FROM
+                public.images
+              WHERE
+                user_id = ?
+              RETURNING id
+            )
+            UPDATE
+              public.users
+            SET
+              image_upload_count = GREATEST(
+                image_upload_count - (SELECT COUNT(*) FROM deleted),
+                0
+              )
             WHERE
-              user_id = ?;
+              id = ? AND
+              EXISTS (SELECT 1 FROM deleted);
         """;
 
-        queryExecutor.write(new SQLQuery(sql, List.of(userID)));
+        return new SQLQuery(sql, List.of(userID, userID)).forSession(userID);
+    }
+
+    /**
+     * The [lower, upper) bounds of all strings starting with a
+     * lower-cased prefix, compared with the text_pattern_ops
+     * (byte-wise) operators ~>=~ and ~<~.
+     *
+     * <p>Unlike LIKE 'x%', a range predicate stays index-backed
+     * when the prepared statement is planned generically, without
+     * knowing the parameter's value.
+     */
+    static class PrefixRange
+    {
+        private final String lowerBound;
+        private final String upperBound;
+
+        private PrefixRange(String lowerBound, String upperBound)
+        {
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        /**
+         * UTF-8 strings compare byte-wise in code point order, so
+         * the upper bound is the prefix with its last code point
+         * incremented (skipping surrogates, which never appear in
+         * stored text). A last code point with no successor is
+         * dropped and the one before it incremented instead. If no
+         * code point has a successor (ex. an empty prefix), every
+         * string after the lower bound matches, so there is no
+         * upper bound.
+         *
+         * <p>A prefix ending in half of a surrogate pair matches
+         * names continuing with any pair, so the half is dropped.
+         */
+        static PrefixRange Of(String prefix)
+        {
+            String lowerBound = prefix.toLowerCase(Locale.ROOT);
+
+            if (!lowerBound.isEmpty() && Character.isHighSurrogate(lowerBound.charAt(lowerBound.length() - 1))) {
+                lowerBound = lowerBound.substring(0, lowerBound.length() - 1);
+            }
+
+            int end = lowerBound.length();
+
+            while (end > 0) {
+                int lastCodePoint = lowerBound.codePointBefore(end);
+                int start = end - Character.charCount(lastCodePoint);
+
+                if (lastCodePoint < Character.MAX_CODE_POINT) {
+                    int nextCodePoint = (lastCodePoint + 1 >= Character.MIN_SURROGATE
+                            && lastCodePoint + 1 <= Character.MAX_SURROGATE)
+                            ? Character.MAX_SURROGATE + 1
+                            : lastCodePoint + 1;
+
+                    String upperBound = new StringBuilder(start + 2)
+                            .append(lowerBound, 0, start)
+                            .appendCodePoint(nextCodePoint)
+                            .toString();
+
+                    return new PrefixRange(lowerBound, upperBound);
+                }
+
+                end = start;
+            }
+
+            return new PrefixRange(lowerBound, null);
+        }
+
+        /**
+         * @param columnSQL lower-cased column (or expression) to match.
+         */
+        String getMatchSQL(String columnSQL)
+        {
+            if (upperBound == null) {
+                return columnSQL + " ~>=~ ?";
+            }
+
+            return columnSQL + " ~>=~ ? AND " + columnSQL + " ~<~ ?";
+        }
+
+        List<Object> getParams()
+        {
+            if (upperBound == null) {
+                return List.of(lowerBound);
+            }
+
+            return List.of(lowerBound, upperBound);
+        }
     }
 }
@@ -1,25 +1,44 @@
 package bitimage.storage.postgres.dao;
 
+import bitimage.storage.cache.DictionaryCache;
 import bitimage.storage.dto.LabelDTO;
+import bitimage.storage.exceptions.StorageObjectReferenceException;
+import bitimage.storage.postgres.query.CopyQuery;
 import bitimage.storage.postgres.query.QueryExecutor;
 import bitimage.storage.postgres.query.SQLQuery;
 import bitimage.storage.postgres.query.Transaction;
+import bitimage.storage.postgres.resultset.CountResultSetMapper;
+import bitimage.storage.postgres.resultset.LabelResultSetMapper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 public class LabelDAO
 {
     private final QueryExecutor queryExecutor;
+    private final PartitionLayout partitionLayout;
+    private final DictionaryCache<LabelKey> labelIDCache;
 
-    public LabelDAO(QueryExecutor queryExecutor)
+    public LabelDAO(
+            QueryExecutor queryExecutor,
+            PartitionLayout partitionLayout,
+            DictionaryCache<LabelKey> labelIDCache)
     {
         this.queryExecutor = queryExecutor;
+        this.partitionLayout = partitionLayout;
+        this.labelIDCache = labelIDCache;
     }
 
-    public void createLabelsTable()
-            throws Exception
+    static String getCreateLabelsTableSQL()
     {
-        String sql = """
+        return """
             CREATE TABLE IF NOT EXISTS public.content_labels (
               id UUID NOT NULL,
               name VARCHAR(250) NOT NULL,
@@ -30,166 +49,586 @@ public class LabelDAO
 
             CREATE INDEX IF NOT EXISTS ux_content_labels_name_content_category
               ON public.content_labels(name, content_category);
-        """;
 
-        queryExecutor.write(new SQLQuery(sql));
+            CREATE INDEX IF NOT EXISTS ix_content_labels_lower_name
+              ON public.content_labels(lower(name) text_pattern_ops);
+        """;
     }
 
-    public void createImageLabelLinkTable()
-            throws Exception
+    /**
+     * Links carry their image's user_id, so they can be
+     * co-partitioned with images. Links written before the
+     * column existed have a null user_id.
+     */
+    static String getCreateImageLabelLinkTableSQL(
+            String tableName,
+            String imagesTableName,
+            PartitionLayout layout)
     {
-        String sql = """
-            CREATE TABLE IF NOT EXISTS public.image_content_labels (
+        String keysSQL = layout.isPartitioned()
+                ? String.format("""
+                    CONSTRAINT pk_%1$s PRIMARY KEY(user_id, image_id, label_id),
+                    CONSTRAINT fk_%1$s_to_%2$s FOREIGN KEY(user_id, image_id)
+                      REFERENCES public.%2$s(user_id, id)
+                      ON DELETE CASCADE,
+                """, tableName, imagesTableName)
+                : String.format("""
+                    CONSTRAINT pk_%1$s PRIMARY KEY(image_id, label_id),
+                    CONSTRAINT fk_%1$s_to_%2$s FOREIGN KEY(image_id)
+                      REFERENCES public.%2$s(id)
+                      ON DELETE CASCADE,
+                """, tableName, imagesTableName);
+
+        String imageIndexSQL = layout.isPartitioned()
+                ? String.format("""
+                    CREATE INDEX IF NOT EXISTS ix_%1$s_image_id
+                      ON public.%1$s(image_id);
+                """, tableName)
+                : "";
+
+        return String.format("""
+            CREATE TABLE IF NOT EXISTS public.%1$s (
               image_id UUID NOT NULL,
               label_id UUID NOT NULL,
+              user_id UUID %2$s,
               label_confidence_score DOUBLE PRECISION NOT NULL,
               created_at TIMESTAMP WITHOUT TIME ZONE,
               updated_at TIMESTAMP WITHOUT TIME ZONE,
-              CONSTRAINT pk_image_content_labels PRIMARY KEY(image_id, label_id),
-              CONSTRAINT fk_image_content_labels_to_images FOREIGN KEY(image_id)
-                REFERENCES public.images(id)
-                ON DELETE CASCADE,
-              CONSTRAINT fk_image_content_labels_to_content_labels FOREIGN KEY(label_id)
+              %3$s
+              CONSTRAINT fk_%1$s_to_content_labels FOREIGN KEY(label_id)
                 REFERENCES public.content_labels(id)
                 ON DELETE CASCADE
+            ) %4$s;
+
+            %5$s
+
+            ALTER TABLE public.%1$s
+              ADD COLUMN IF NOT EXISTS user_id UUID;
+
+            CREATE INDEX IF NOT EXISTS ix_%1$s_label_id
+              ON public.%1$s(label_id);
+
+            %6$s
+        """,
+                tableName,
+                layout.isPartitioned() ? "NOT NULL" : "",
+                keysSQL,
+                layout.getPartitionBySQL(),
+                layout.getCreatePartitionsSQL(tableName),
+                imageIndexSQL);
+    }
+
+    /**
+     * Creates unlogged table that bulk copied labels are staged
+     * in before being merged into the labels and link tables.
+     * Rows are tagged with a batch id, so concurrent batches do
+     * not see each other's rows.
+     */
+    static String getCreateLabelStagingTableSQL()
+    {
+        return """
+            CREATE UNLOGGED TABLE IF NOT EXISTS public.staged_content_labels (
+              batch_id UUID NOT NULL,
+              image_id UUID NOT NULL,
+              label_id UUID NOT NULL,
+              name VARCHAR(250) NOT NULL,
+              content_category VARCHAR(250) NOT NULL,
+              label_confidence_score DOUBLE PRECISION NOT NULL,
+              created_at TIMESTAMP WITHOUT TIME ZONE,
+              updated_at TIMESTAMP WITHOUT TIME ZONE
+            );
+
+            CREATE INDEX IF NOT EXISTS ix_staged_content_labels_batch_id
+              ON public.staged_content_labels(batch_id);
+        """;
+    }
+
+    /**
+     * Creates table recording ids of labels that may have been
+     * orphaned (no longer linked to an image), to be reaped in
+     * batches by the orphan sweeper.
+     */
+    static String getCreateOrphanedLabelCandidatesTableSQL()
+    {
+        return """
+            CREATE TABLE IF NOT EXISTS public.orphaned_content_label_candidates (
+              label_id UUID NOT NULL,
+              CONSTRAINT pk_orphaned_content_label_candidates PRIMARY KEY(label_id)
             );
         """;
+    }
+
+    /**
+     * Records when labels became orphan candidates, so the orphan
+     * sweeper leaves candidates younger than its grace period.
+     */
+    static String getAddOrphanedLabelCandidatesRecordedAtSQL()
+    {
+        return """
+            ALTER TABLE public.orphaned_content_label_candidates
+              ADD COLUMN IF NOT EXISTS recorded_at TIMESTAMPTZ NOT NULL DEFAULT now();
 
-        queryExecutor.write(new SQLQuery(sql));
+            CREATE INDEX IF NOT EXISTS ix_orphaned_content_label_candidates_recorded_at
+              ON public.orphaned_content_label_candidates(recorded_at);
+        """;
     }
 
-    public void createFunctionToDeleteOrphanedLabels()
-            throws Exception
+    /**
+     * Creates a new function that records the label ids of
+     * deleted image_content_labels rows as orphan candidates. Only the
+     * deleted rows are read, so its cost is proportional to
+     * the size of the delete, not the content_labels table.
+     */
+    static String getCreateFunctionToRecordOrphanedLabelCandidatesSQL()
     {
-        String sql = """
-            CREATE OR REPLACE FUNCTION delete_orhpaned_content_labels()
+        return """
+            CREATE OR REPLACE FUNCTION record_orphaned_content_label_candidates()
             RETURNS TRIGGER LANGUAGE PLPGSQL
 
             AS $$
-            BEGIN
-              DELETE FROM
-                public.content_labels
-              USING
-                public.content_labels cl
-                LEFT JOIN public.image_content_labels icl ON cl.id = icl.label_id
-              WHERE
-                content_labels.id = cl.id AND
-                icl.label_id IS NULL;
+              BEGIN
+                INSERT INTO public.orphaned_content_label_candidates (label_id)
+                SELECT DISTINCT
+                  label_id
+                FROM
+                  deleted_image_content_labels
+                ON CONFLICT DO NOTHING;
 
-              RETURN NULL;
-            END;
-            $$
+                RETURN NULL;
+              END;
+            $$;
         """;
-
-        queryExecutor.write(new SQLQuery(sql));
     }
 
     /**
-     * Creates trigger that executes function to delete all
-     * labels that aren't linked to an image after a user
-     * record or image record is deleted.
+     * Creates statement level trigger that records orphan
+     * candidates after image_content_labels rows are deleted, whether
+     * directly or cascaded from a deleted image or user.
+     * <p>
+     * Replaces the previous triggers on the users and images
+     * tables, which anti joined the entire content_labels table against
+     * image_content_labels on every delete.
      *
-     * <p>This is needed because the labels table has no foreign
-     * key reference to the images or users table, so deletes
-     * cannot be cascaded.
-     *
-     * @precondition SQL function "delete_orphaned_content_labels"
-     * must exist, by calling createFunctionToDeleteOrphanedTags().
+     * @precondition SQL function "record_orphaned_content_label_candidates" must
+     * exist, created by getCreateFunctionToRecordOrphanedLabelCandidatesSQL().
      */
-    public void createTriggerToDeleteOrphanedLabels()
-            throws Exception
+    static String getCreateTriggerToRecordOrphanedLabelCandidatesSQL()
     {
-        String sql = """
+        return """
             DROP TRIGGER IF EXISTS delete_orphaned_content_labels_after_user_deleted
               ON public.users;
 
             DROP TRIGGER IF EXISTS delete_orphaned_content_labels_after_images_deleted
               ON public.images;
 
-            CREATE TRIGGER delete_orphaned_content_labels_after_user_deleted
-              AFTER DELETE ON public.users
-              EXECUTE PROCEDURE delete_orhpaned_content_labels();
+            DROP FUNCTION IF EXISTS delete_orhpaned_content_labels();
+
+            DROP TRIGGER IF EXISTS record_orphaned_content_label_candidates_after_image_content_labels_deleted
+              ON public.image_content_labels;
 
-            CREATE TRIGGER delete_orphaned_content_labels_after_images_deleted
-              AFTER DELETE ON public.images
-              EXECUTE PROCEDURE delete_orhpaned_content_labels();
+            CREATE TRIGGER record_orphaned_content_label_candidates_after_image_content_labels_deleted
+            AFTER DELETE
+              ON public.image_content_labels
+              REFERENCING OLD TABLE AS deleted_image_content_labels
+              FOR EACH STATEMENT
+              EXECUTE PROCEDURE record_orphaned_content_label_candidates();
         """;
+    }
 
-        queryExecutor.write(new SQLQuery(sql));
+    /**
+     * Deletes a bounded batch of orphan candidates recorded longer
+     * than the grace period ago, along with those candidate labels
+     * still not linked to any image. Candidates locked by a
+     * concurrent sweep are skipped.
+     * Deleted labels are evicted from the label id cache.
+     *
+     * @return number of orphaned labels deleted.
+     */
+    public long deleteOrphanedLabels(int batchSize, long graceMs)
+            throws Exception
+    {
+        String sql = """
+            WITH candidates AS (
+              DELETE FROM
+                public.orphaned_content_label_candidates
+              WHERE
+                label_id IN (
+                  SELECT
+                    label_id
+                  FROM
+                    public.orphaned_content_label_candidates
+                  WHERE
+                    recorded_at < now() - ? * INTERVAL '1 millisecond'
+                  LIMIT ?
+                  FOR UPDATE SKIP LOCKED
+                )
+              RETURNING label_id
+            ),
+            deleted AS (
+              DELETE FROM
+                public.content_labels cl
+              USING
+                candidates c
+              WHERE
+                cl.id = c.label_id AND
+                NOT EXISTS (
+                  SELECT
+                    1
+                  FROM
+                    public.image_content_labels icl
+                  WHERE
+                    icl.label_id = cl.id
+                )
+              RETURNING cl.id, cl.name, cl.content_category
+            )
+            SELECT
+              id,
+              name,
+              content_category
+            FROM
+              deleted;
+        """;
+
+        List<LabelDTO> deletedLabelDTOs = queryExecutor.writeReturning(
+                new SQLQuery(sql, List.of(graceMs, batchSize)),
+                new LabelResultSetMapper());
+
+        labelIDCache.invalidateAll(deletedLabelDTOs.stream()
+                .map(LabelKey::CreateNew)
+                .collect(Collectors.toList()));
+
+        return deletedLabelDTOs.size();
     }
 
+    public long countOrphanedLabelCandidates()
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              COUNT(*) AS count
+            FROM
+              public.orphaned_content_label_candidates;
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql).onPrimary(),
+                new CountResultSetMapper()).get(0);
+    }
+
+    /**
+     * Links labels to their images within a transaction, sent
+     * as a single batch.
+     *
+     * <p>Label ids are resolved before the transaction, from the
+     * label id cache, or by inserting the uncached labels in bulk.
+     * A cached id is stale if its label was swept as an orphan by
+     * another application instance, failing the link's foreign
+     * key, in which case the batch's labels are evicted and the
+     * insert is retried once.
+     */
     public void insertLabels(List<LabelDTO> labelDTOs)
             throws Exception
+    {
+        try {
+            insertLabels(labelDTOs, resolveLabelIDs(labelDTOs));
+        }
+        catch (StorageObjectReferenceException e) {
+            labelIDCache.invalidateAll(getLabelDTOsByKey(labelDTOs).keySet());
+            insertLabels(labelDTOs, resolveLabelIDs(labelDTOs));
+        }
+    }
+
+    private void insertLabels(List<LabelDTO> labelDTOs, Map<LabelKey, UUID> labelIDsByKey)
+            throws Exception
     {
         Transaction transaction = queryExecutor.newTransaction();
 
         for (LabelDTO labelDTO : labelDTOs) {
-            SQLQuery insertLabelQuery = new SQLQuery(
-                    getInsertLabelSQL(),
-                    getInsertLabelParams(labelDTO));
-
-            SQLQuery insertImageLabelLinkQuery = new SQLQuery(
+            transaction.send(new SQLQuery(
                     getInsertImageLabelLinkSQL(),
-                    getInsertImageLabelLinkParams(labelDTO));
-
-            transaction
-                    .send(insertLabelQuery)
-                    .send(insertImageLabelLinkQuery);
+                    getInsertImageLabelLinkParams(labelDTO, labelIDsByKey.get(LabelKey.CreateNew(labelDTO)))));
         }
 
         queryExecutor.commit(transaction);
     }
 
-    private static String getInsertLabelSQL()
+    /**
+     * Gets ids of given labels by name and content category,
+     * inserting labels not found in the label id cache. Labels
+     * found are added to the cache.
+     *
+     * <p>A label inserted by a concurrent request after the insert
+     * statement started is neither inserted nor visible to it, so
+     * labels still unresolved are looked up by a second statement.
+     *
+     * @throws StorageObjectReferenceException if labels were
+     * deleted while being resolved.
+     */
+    private Map<LabelKey, UUID> resolveLabelIDs(List<LabelDTO> labelDTOs)
+            throws Exception
     {
-        return """
-            INSERT INTO public.content_labels (
+        Map<LabelKey, LabelDTO> labelDTOsByKey = getLabelDTOsByKey(labelDTOs);
+        Map<LabelKey, UUID> labelIDsByKey = new HashMap<>(labelIDCache.getAll(labelDTOsByKey.keySet()));
+
+        for (int attempt = 0; attempt < 2 && labelIDsByKey.size() < labelDTOsByKey.size(); attempt++) {
+            List<LabelDTO> unresolvedLabelDTOs = labelDTOsByKey.entrySet()
+                    .stream()
+                    .filter(entry -> !labelIDsByKey.containsKey(entry.getKey()))
+                    .map(Map.Entry::getValue)
+                    .collect(Collectors.toList());
+
+            Map<LabelKey, UUID> resolvedLabelIDs = insertOrSelectLabels(unresolvedLabelDTOs)
+                    .stream()
+                    .collect(Collectors.toMap(LabelKey::CreateNew, labelDTO -> labelDTO.id, (id, otherID) -> id));
+
+            labelIDCache.putAll(resolvedLabelIDs);
+            labelIDsByKey.putAll(resolvedLabelIDs);
+        }
+
+        if (labelIDsByKey.size() < labelDTOsByKey.size()) {
+            throw new StorageObjectReferenceException();
+        }
+
+        return labelIDsByKey;
+    }
+
+    private static Map<LabelKey, LabelDTO> getLabelDTOsByKey(List<LabelDTO> labelDTOs)
+    {
+        Map<LabelKey, LabelDTO> labelDTOsByKey = new LinkedHashMap<>();
+
+        for (LabelDTO labelDTO : labelDTOs) {
+            labelDTOsByKey.putIfAbsent(LabelKey.CreateNew(labelDTO), labelDTO);
+        }
+
+        return labelDTOsByKey;
+    }
+
+    /**
+     * Inserts labels in bulk, returning the ids of both inserted
+     * and already existing labels. Inserted labels are recorded
+     * as orphan candidates, so labels never linked are swept, once
+     * past the sweeper's grace period.
+     *
+     * <p>The statement's text varies by number of labels, so it
+     * is not cached, which would evict hotter statements.
+     */
+    private List<LabelDTO> insertOrSelectLabels(List<LabelDTO> labelDTOs)
+            throws Exception
+    {
+        String sql = String.format("""
+            WITH input (id, name, content_category) AS (
+              VALUES
+                %s
+            ),
+            inserted AS (
+              INSERT INTO public.content_labels (
+                id,
+                name,
+                content_category
+              ) (
+                SELECT
+                  id, name, content_category
+                FROM
+                  input
+              ) ON CONFLICT DO NOTHING
+              RETURNING id, name, content_category
+            ),
+            candidates AS (
+              INSERT INTO public.orphaned_content_label_candidates (
+                label_id
+              ) (
+                SELECT
+                  id
+                FROM
+                  inserted
+              ) ON CONFLICT DO NOTHING
+            )
+            SELECT
               id,
               name,
               content_category
-            ) VALUES
-              (?, ?, ?)
-            ON CONFLICT DO NOTHING;
-        """;
-    }
+            FROM
+              inserted
+            UNION ALL
+            SELECT
+              cl.id,
+              cl.name,
+              cl.content_category
+            FROM
+              public.content_labels cl
+              INNER JOIN input i ON
+                cl.name = i.name AND
+                cl.content_category = i.content_category;
+        """, String.join(", ", Collections.nCopies(labelDTOs.size(), "(?::uuid, ?, ?)")));
 
-    private static List<Object> getInsertLabelParams(LabelDTO labelDTO)
-    {
-        return List.of(
-                labelDTO.id,
-                labelDTO.name,
-                labelDTO.content_category);
+        List<Object> params = new ArrayList<>();
+
+        for (LabelDTO labelDTO : labelDTOs) {
+            params.add(labelDTO.id);
+            params.add(labelDTO.name);
+            params.add(labelDTO.content_category);
+        }
+
+        return queryExecutor.writeReturning(
+                new SQLQuery(sql, params).asUncached(),
+                new LabelResultSetMapper());
     }
 
+    /**
+     * Labels are produced by image analysis, which only knows
+     * the image's id, so the link's user_id (the partition key
+     * when link tables are partitioned) is taken from the image.
+     */
     private static String getInsertImageLabelLinkSQL()
     {
         return """
             INSERT INTO public.image_content_labels (
               image_id,
+              user_id,
               label_id,
               label_confidence_score,
               created_at,
-                updated_at
+              updated_at
             ) (
               SELECT
-                ?, id, ?, ?, ?
+                i.id, i.user_id, ?, ?, ?, ?
               FROM
-                public.content_labels
+                public.images i
               WHERE
-                name = ? AND
-                content_category = ?
+                i.id = ?
             ) ON CONFLICT DO NOTHING;
         """;
     }
 
-    private static List<Object> getInsertImageLabelLinkParams(LabelDTO labelDTO)
+    private static List<Object> getInsertImageLabelLinkParams(LabelDTO labelDTO, UUID labelID)
     {
         return List.of(
-                labelDTO.image_id,
+                labelID,
                 labelDTO.label_confidence_score,
                 labelDTO.created_at,
                 labelDTO.updated_at,
+                labelDTO.image_id);
+    }
+
+    /**
+     * Bulk inserts labels by streaming them into the staging
+     * table with COPY, then merging the batch into the labels
+     * and link tables with a single set based statement.
+     *
+     * <p>Produces the same rows as insertLabels(), in two
+     * round trips regardless of how many labels are given.
+     */
+    public void copyLabels(List<LabelDTO> labelDTOs)
+            throws Exception
+    {
+        UUID batchID = UUID.randomUUID();
+
+        List<List<Object>> stagedRows = labelDTOs.stream()
+                .map(labelDTO -> getStagedLabelRow(batchID, labelDTO))
+                .collect(Collectors.toList());
+
+        CopyQuery copyLabelsQuery = new CopyQuery(getCopyStagedLabelsSQL(), stagedRows);
+
+        Transaction transaction = queryExecutor.newTransaction()
+                .send(new SQLQuery(getMergeStagedLabelsSQL(), List.of(batchID)));
+
+        queryExecutor.commit(copyLabelsQuery, transaction);
+    }
+
+    private static String getCopyStagedLabelsSQL()
+    {
+        return """
+            COPY public.staged_content_labels (
+              batch_id,
+              image_id,
+              label_id,
+              name,
+              content_category,
+              label_confidence_score,
+              created_at,
+              updated_at
+            ) FROM STDIN WITH (FORMAT csv)
+        """;
+    }
+
+    private static List<Object> getStagedLabelRow(UUID batchID, LabelDTO labelDTO)
+    {
+        return Arrays.asList(
+                batchID,
+                labelDTO.image_id,
+                labelDTO.id,
                 labelDTO.name,
-                labelDTO.content_category);
+                labelDTO.content_category,
+                labelDTO.label_confidence_score,
+                labelDTO.created_at,
+                labelDTO.updated_at);
+    }
+
+    /**
+     * Query that removes a batch from the staging table, and
+     * inserts its labels and image links.
+     *
+     * <p>Labels inserted within the statement are not visible to
+     * the statement's own reads of the labels table, so their ids
+     * are taken from the insert's returned rows, and ids of labels
+     * that already existed are looked up by name and category.
+     */
+    private static String getMergeStagedLabelsSQL()
+    {
+        return """
+            WITH staged AS (
+              DELETE FROM
+                public.staged_content_labels
+              WHERE
+                batch_id = ?
+              RETURNING *
+            ),
+            inserted_labels AS (
+              INSERT INTO public.content_labels (
+                id,
+                name,
+                content_category
+              ) (
+                SELECT
+                  DISTINCT ON (name, content_category)
+                  label_id, name, content_category
+                FROM
+                  staged
+              ) ON CONFLICT DO NOTHING
+              RETURNING id, name, content_category
+            ),
+            labels AS (
+              SELECT
+                id, name, content_category
+              FROM
+                inserted_labels
+              UNION
+              SELECT
+                cl.id, cl.name, cl.content_category
+              FROM
+                public.content_labels cl
+                INNER JOIN staged s ON
+                  cl.name = s.name AND
+                  cl.content_category = s.content_category
+            )
+            INSERT INTO public.image_content_labels (
+              image_id,
+              user_id,
+              label_id,
+              label_confidence_score,
+              created_at,
+              updated_at
+            ) (
+              SELECT
+                DISTINCT ON (s.image_id, l.id)
+                s.image_id, i.user_id, l.id, s.label_confidence_score, s.created_at, s.updated_at
+              FROM
+                staged s
+                INNER JOIN public.images i ON i.id = s.image_id
+                INNER JOIN labels l ON
+                  l.name = s.name AND
+                  l.content_category = s.content_category
+            ) ON CONFLICT DO NOTHING;
+        """;
     }
 }
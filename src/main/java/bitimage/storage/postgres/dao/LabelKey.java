@@ -0,0 +1,45 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.dto.LabelDTO;
+
+import java.util.Objects;
+
+/**
+ * Natural key of a content label, which is unique by name
+ * within its content category.
+ */
+public final class LabelKey
+{
+    private final String name;
+    private final String contentCategory;
+
+    private LabelKey(String name, String contentCategory)
+    {
+        this.name = name;
+        this.contentCategory = contentCategory;
+    }
+
+    public static LabelKey CreateNew(LabelDTO labelDTO)
+    {
+        return new LabelKey(labelDTO.name, labelDTO.content_category);
+    }
+
+    public boolean equals(Object other)
+    {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof LabelKey)) {
+            return false;
+        }
+
+        LabelKey otherKey = (LabelKey) other;
+
+        return name.equals(otherKey.name) && contentCategory.equals(otherKey.contentCategory);
+    }
+
+    public int hashCode()
+    {
+        return Objects.hash(name, contentCategory);
+    }
+}
@@ -0,0 +1,94 @@
+package bitimage.storage.postgres.dao;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Physical layout of the images table and its link tables,
+ * either single heap tables or hash partitioned by user_id.
+ *
+ * <p>Link tables are co-partitioned with images: they carry
+ * the owning image's user_id, and link queries correlate on
+ * it, so a user scoped query only touches the one partition of
+ * each table that holds the user's rows.
+ *
+ * <p>Under the partitioned layout, queries prune as follows:
+ * <ul>
+ * <li>Queries filtered by user_id (a user's images, the owner
+ * branch of searches, deletes, upload counts) read a single
+ * partition.</li>
+ * <li>Tag and label link lookups correlated with an image
+ * prune at run time to the image's partition.</li>
+ * <li>Public feed, the public branch of searches, and lookups
+ * of a single image by id (which may be another user's public
+ * image) cannot know the owner, so scan every partition's
+ * index.</li>
+ * </ul>
+ */
+public class PartitionLayout
+{
+    private final int partitionCount;
+
+    /**
+     * @param partitionCount number of hash partitions, or 0 for
+     * unpartitioned tables.
+     */
+    public PartitionLayout(int partitionCount)
+    {
+        this.partitionCount = partitionCount;
+    }
+
+    public static PartitionLayout Unpartitioned()
+    {
+        return new PartitionLayout(0);
+    }
+
+    public boolean isPartitioned()
+    {
+        return partitionCount > 0;
+    }
+
+    public int getPartitionCount()
+    {
+        return partitionCount;
+    }
+
+    /**
+     * Clause ending a CREATE TABLE statement.
+     */
+    public String getPartitionBySQL()
+    {
+        return isPartitioned() ? "PARTITION BY HASH(user_id)" : "";
+    }
+
+    /**
+     * Creates each hash partition of the given table, named by
+     * remainder (ex. images_p0, images_p1, ...).
+     */
+    public String getCreatePartitionsSQL(String tableName)
+    {
+        return IntStream.range(0, partitionCount)
+                .mapToObj(remainder -> String.format("""
+                    CREATE TABLE IF NOT EXISTS public.%1$s_p%2$d
+                      PARTITION OF public.%1$s
+                      FOR VALUES WITH (MODULUS %3$d, REMAINDER %2$d);
+                """, tableName, remainder, partitionCount))
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Predicate correlating a link table row to its image's
+     * user_id, letting the planner prune link partitions. Link
+     * rows written before link tables carried user_id may have
+     * none, so it is only applied to partitioned tables (whose
+     * link rows always have one).
+     */
+    public String getLinkUserPredicateSQL(String linkAlias, String imageAlias)
+    {
+        if (!isPartitioned()) {
+            return "";
+        }
+
+        return String.format("AND %s.user_id = %s.user_id", linkAlias, imageAlias);
+    }
+}
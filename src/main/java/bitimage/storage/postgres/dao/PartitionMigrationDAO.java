@@ -0,0 +1,602 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.postgres.query.QueryExecutor;
+import bitimage.storage.postgres.query.SQLQuery;
+import bitimage.storage.postgres.query.Transaction;
+import bitimage.storage.postgres.resultset.ExistsResultSetMapper;
+import bitimage.storage.postgres.resultset.UUIDResultSetMapper;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves images and their link tables from unpartitioned
+ * tables into hash partitioned copies while the application
+ * keeps serving traffic, then swaps the copies in.
+ *
+ * <p>Migration runs in steps:
+ * <ol>
+ * <li>Partitioned copies of the tables are created, named with
+ * a "_partitioned" suffix.</li>
+ * <li>Row triggers on the old tables mirror every write into
+ * the copies, so rows written after this point are kept in
+ * sync.</li>
+ * <li>Existing rows are copied in short batches, ordered by
+ * image id.</li>
+ * <li>The tables are swapped in a single transaction, keeping
+ * the old tables with an "_unpartitioned" suffix.</li>
+ * </ol>
+ *
+ * <p>Every step can be re-run, so an interrupted migration
+ * resumes by starting over from the first step.
+ */
+public class PartitionMigrationDAO
+{
+    private static final String IMAGE_COLUMNS = """
+        id,
+        name,
+        user_id,
+        hash_md5,
+        size_bytes,
+        file_format,
+        is_private,
+        created_at,
+        updated_at,
+        tag_names
+    """;
+
+    private final QueryExecutor queryExecutor;
+    private final PartitionLayout partitionLayout;
+
+    /**
+     * @param partitionLayout target layout of migrated tables.
+     */
+    public PartitionMigrationDAO(QueryExecutor queryExecutor, PartitionLayout partitionLayout)
+    {
+        this.queryExecutor = queryExecutor;
+        this.partitionLayout = partitionLayout;
+    }
+
+    public boolean doesImagesTableExist()
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              to_regclass('public.images') IS NOT NULL AS exists;
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql).onPrimary(),
+                new ExistsResultSetMapper()).get(0);
+    }
+
+    public boolean isImagesTablePartitioned()
+            throws Exception
+    {
+        String sql = """
+            SELECT EXISTS (
+              SELECT
+                1
+              FROM
+                pg_catalog.pg_partitioned_table pt
+              WHERE
+                pt.partrelid = to_regclass('public.images')
+            ) AS exists;
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql).onPrimary(),
+                new ExistsResultSetMapper()).get(0);
+    }
+
+    /**
+     * Creates partitioned copies of the images and link tables.
+     * Constraint and index names carry the "_partitioned" suffix,
+     * which is dropped when the tables are swapped.
+     */
+    public void createPartitionedTables()
+            throws Exception
+    {
+        String sql = String.join(
+                "\n",
+                ImageDAO.getCreateImagesTableSQL(
+                        "images_partitioned",
+                        partitionLayout),
+                ImageDAO.getCreateImageNameTrigramIndexSQL("images_partitioned"),
+                ImageDAO.getCreateImageTagLinkTableSQL(
+                        "image_tags_partitioned",
+                        "images_partitioned",
+                        partitionLayout),
+                LabelDAO.getCreateImageLabelLinkTableSQL(
+                        "image_content_labels_partitioned",
+                        "images_partitioned",
+                        partitionLayout));
+
+        queryExecutor.write(new SQLQuery(sql).asUncached());
+    }
+
+    /**
+     * Creates row triggers on the old tables that mirror inserts,
+     * updates and deletes into the partitioned copies.
+     *
+     * <p>A link's image may not have been copied yet, so it is
+     * copied along with the link. Links take their user_id from
+     * the image, since old link rows may not have one.
+     *
+     * @precondition Partitioned tables must exist, by calling
+     * createPartitionedTables().
+     */
+    public void createSyncTriggers()
+            throws Exception
+    {
+        String sql = String.format("""
+            CREATE OR REPLACE FUNCTION sync_partitioned_images()
+            RETURNS TRIGGER LANGUAGE PLPGSQL
+
+            AS $$
+              BEGIN
+                IF TG_OP = 'DELETE' THEN
+                  DELETE FROM
+                    public.images_partitioned
+                  WHERE
+                    user_id = OLD.user_id AND
+                    id = OLD.id;
+
+                  RETURN NULL;
+                END IF;
+
+                INSERT INTO public.images_partitioned (
+                  %1$s
+                ) VALUES (
+                  NEW.id,
+                  NEW.name,
+                  NEW.user_id,
+                  NEW.hash_md5,
+                  NEW.size_bytes,
+                  NEW.file_format,
+                  NEW.is_private,
+                  NEW.created_at,
+                  NEW.updated_at,
+                  NEW.tag_names
+                ) ON CONFLICT (user_id, id) DO UPDATE SET
+                  name = EXCLUDED.name,
+                  hash_md5 = EXCLUDED.hash_md5,
+                  size_bytes = EXCLUDED.size_bytes,
+                  file_format = EXCLUDED.file_format,
+                  is_private = EXCLUDED.is_private,
+                  created_at = EXCLUDED.created_at,
+                  updated_at = EXCLUDED.updated_at,
+                  tag_names = EXCLUDED.tag_names;
+
+                RETURN NULL;
+              END;
+            $$;
+
+            CREATE OR REPLACE FUNCTION sync_partitioned_image_tags()
+            RETURNS TRIGGER LANGUAGE PLPGSQL
+
+            AS $$
+              BEGIN
+                IF TG_OP = 'DELETE' THEN
+                  DELETE FROM
+                    public.image_tags_partitioned
+                  WHERE
+                    image_id = OLD.image_id AND
+                    tag_id = OLD.tag_id;
+
+                  RETURN NULL;
+                END IF;
+
+                INSERT INTO public.images_partitioned (
+                  %1$s
+                ) (
+                  SELECT
+                    %1$s
+                  FROM
+                    public.images
+                  WHERE
+                    id = NEW.image_id
+                ) ON CONFLICT DO NOTHING;
+
+                INSERT INTO public.image_tags_partitioned (
+                  image_id,
+                  user_id,
+                  tag_id,
+                  created_at,
+                  updated_at
+                ) (
+                  SELECT
+                    NEW.image_id, i.user_id, NEW.tag_id, NEW.created_at, NEW.updated_at
+                  FROM
+                    public.images i
+                  WHERE
+                    i.id = NEW.image_id
+                ) ON CONFLICT DO NOTHING;
+
+                RETURN NULL;
+              END;
+            $$;
+
+            CREATE OR REPLACE FUNCTION sync_partitioned_image_content_labels()
+            RETURNS TRIGGER LANGUAGE PLPGSQL
+
+            AS $$
+              BEGIN
+                IF TG_OP = 'DELETE' THEN
+                  DELETE FROM
+                    public.image_content_labels_partitioned
+                  WHERE
+                    image_id = OLD.image_id AND
+                    label_id = OLD.label_id;
+
+                  RETURN NULL;
+                END IF;
+
+                INSERT INTO public.images_partitioned (
+                  %1$s
+                ) (
+                  SELECT
+                    %1$s
+                  FROM
+                    public.images
+                  WHERE
+                    id = NEW.image_id
+                ) ON CONFLICT DO NOTHING;
+
+                INSERT INTO public.image_content_labels_partitioned (
+                  image_id,
+                  user_id,
+                  label_id,
+                  label_confidence_score,
+                  created_at,
+                  updated_at
+                ) (
+                  SELECT
+                    NEW.image_id, i.user_id, NEW.label_id, NEW.label_confidence_score, NEW.created_at, NEW.updated_at
+                  FROM
+                    public.images i
+                  WHERE
+                    i.id = NEW.image_id
+                ) ON CONFLICT DO NOTHING;
+
+                RETURN NULL;
+              END;
+            $$;
+
+            DROP TRIGGER IF EXISTS sync_partitioned_images_after_write
+              ON public.images;
+
+            CREATE TRIGGER sync_partitioned_images_after_write
+            AFTER INSERT OR UPDATE OR DELETE
+              ON public.images
+              FOR EACH ROW
+              EXECUTE PROCEDURE sync_partitioned_images();
+
+            DROP TRIGGER IF EXISTS sync_partitioned_image_tags_after_write
+              ON public.image_tags;
+
+            CREATE TRIGGER sync_partitioned_image_tags_after_write
+            AFTER INSERT OR UPDATE OR DELETE
+              ON public.image_tags
+              FOR EACH ROW
+              EXECUTE PROCEDURE sync_partitioned_image_tags();
+
+            DROP TRIGGER IF EXISTS sync_partitioned_image_content_labels_after_write
+              ON public.image_content_labels;
+
+            CREATE TRIGGER sync_partitioned_image_content_labels_after_write
+            AFTER INSERT OR UPDATE OR DELETE
+              ON public.image_content_labels
+              FOR EACH ROW
+              EXECUTE PROCEDURE sync_partitioned_image_content_labels();
+        """, IMAGE_COLUMNS);
+
+        queryExecutor.write(new SQLQuery(sql).asUncached());
+    }
+
+    /**
+     * Copies the next batch of images (by id order) and all of
+     * their tag and label links into the partitioned tables.
+     * Rows already copied (ex. by the sync triggers) are left
+     * as they are.
+     *
+     * @param afterID id of the last image copied by the previous
+     * batch, or null for the first batch.
+     * @return id of the last image copied, or null once all
+     * images have been copied.
+     */
+    public UUID copyImagesBatch(UUID afterID, int batchSize)
+            throws Exception
+    {
+        String sql = String.format("""
+            WITH batch AS (
+              SELECT
+                %1$s
+              FROM
+                public.images
+              WHERE
+                id > ?
+              ORDER BY
+                id
+              LIMIT ?
+            ),
+            copied_images AS (
+              INSERT INTO public.images_partitioned (
+                %1$s
+              ) (
+                SELECT
+                  %1$s
+                FROM
+                  batch
+              ) ON CONFLICT DO NOTHING
+            ),
+            copied_tags AS (
+              INSERT INTO public.image_tags_partitioned (
+                image_id,
+                user_id,
+                tag_id,
+                created_at,
+                updated_at
+              ) (
+                SELECT
+                  it.image_id, b.user_id, it.tag_id, it.created_at, it.updated_at
+                FROM
+                  batch b
+                  INNER JOIN public.image_tags it ON it.image_id = b.id
+              ) ON CONFLICT DO NOTHING
+            ),
+            copied_labels AS (
+              INSERT INTO public.image_content_labels_partitioned (
+                image_id,
+                user_id,
+                label_id,
+                label_confidence_score,
+                created_at,
+                updated_at
+              ) (
+                SELECT
+                  icl.image_id, b.user_id, icl.label_id, icl.label_confidence_score, icl.created_at, icl.updated_at
+                FROM
+                  batch b
+                  INNER JOIN public.image_content_labels icl ON icl.image_id = b.id
+              ) ON CONFLICT DO NOTHING
+            )
+            SELECT
+              id
+            FROM
+              batch
+            ORDER BY
+              id DESC
+            LIMIT 1;
+        """, IMAGE_COLUMNS);
+
+        UUID fromID = afterID != null ? afterID : new UUID(0, 0);
+
+        List<UUID> results = queryExecutor.writeReturning(
+                new SQLQuery(sql, List.of(fromID, batchSize)),
+                new UUIDResultSetMapper());
+
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Swaps the partitioned copies in for the old tables within
+     * a single transaction. Writes are blocked only while the
+     * swap runs, which is bounded by removing rows the copy may
+     * have raced with a concurrent delete.
+     *
+     * <p>Old tables are kept (renamed with an "_unpartitioned"
+     * suffix) and can be dropped once the migration is verified.
+     *
+     * @precondition All images must be copied, by calling
+     * copyImagesBatch() until it returns null.
+     */
+    public void swapTables()
+            throws Exception
+    {
+        Transaction transaction = queryExecutor.newTransaction()
+                .send(new SQLQuery(getRemoveStaleCopiesSQL()).asUncached())
+                .send(new SQLQuery(getDropSyncTriggersSQL()).asUncached())
+                .send(new SQLQuery(getRenameTablesSQL()).asUncached())
+                .send(new SQLQuery(ImageDAO.getCreateTriggerToRecordOrphanedTagCandidatesSQL()).asUncached())
+                .send(new SQLQuery(LabelDAO.getCreateTriggerToRecordOrphanedLabelCandidatesSQL()).asUncached());
+
+        queryExecutor.commit(transaction);
+    }
+
+    /**
+     * Locks the old tables against writes until the swap commits,
+     * then removes copied rows whose originals were deleted while
+     * their batch was being copied.
+     */
+    private static String getRemoveStaleCopiesSQL()
+    {
+        return """
+            LOCK TABLE
+              public.images,
+              public.image_tags,
+              public.image_content_labels
+            IN SHARE ROW EXCLUSIVE MODE;
+
+            DELETE FROM
+              public.image_content_labels_partitioned p
+            WHERE
+              NOT EXISTS (
+                SELECT
+                  1
+                FROM
+                  public.image_content_labels icl
+                WHERE
+                  icl.image_id = p.image_id AND
+                  icl.label_id = p.label_id
+              );
+
+            DELETE FROM
+              public.image_tags_partitioned p
+            WHERE
+              NOT EXISTS (
+                SELECT
+                  1
+                FROM
+                  public.image_tags it
+                WHERE
+                  it.image_id = p.image_id AND
+                  it.tag_id = p.tag_id
+              );
+
+            DELETE FROM
+              public.images_partitioned p
+            WHERE
+              NOT EXISTS (
+                SELECT
+                  1
+                FROM
+                  public.images i
+                WHERE
+                  i.id = p.id
+              );
+        """;
+    }
+
+    private static String getDropSyncTriggersSQL()
+    {
+        return """
+            DROP TRIGGER IF EXISTS sync_partitioned_images_after_write
+              ON public.images;
+
+            DROP TRIGGER IF EXISTS sync_partitioned_image_tags_after_write
+              ON public.image_tags;
+
+            DROP TRIGGER IF EXISTS sync_partitioned_image_content_labels_after_write
+              ON public.image_content_labels;
+
+            DROP TRIGGER IF EXISTS record_orphaned_tag_candidates_after_image_tags_deleted
+              ON public.image_tags;
+
+            DROP TRIGGER IF EXISTS record_orphaned_content_label_candidates_after_image_content_labels_deleted
+              ON public.image_content_labels;
+
+            DROP FUNCTION IF EXISTS sync_partitioned_images();
+            DROP FUNCTION IF EXISTS sync_partitioned_image_tags();
+            DROP FUNCTION IF EXISTS sync_partitioned_image_content_labels();
+        """;
+    }
+
+    /**
+     * Renames old tables (and their constraints and indexes) with
+     * an "_unpartitioned" suffix, then drops the "_partitioned"
+     * suffix from the copies, their constraints, indexes and
+     * partitions. Old tables are renamed first, freeing up the
+     * names taken by the copies.
+     *
+     * <p>Renaming a primary key also renames its index, so only
+     * indexes not backing a constraint are renamed directly.
+     * Constraints cloned onto partitions keep their names.
+     */
+    private static String getRenameTablesSQL()
+    {
+        return """
+            DO $$
+              DECLARE
+                r RECORD;
+              BEGIN
+                CREATE TEMPORARY TABLE migrated_tables (
+                  from_name TEXT NOT NULL,
+                  to_name TEXT NOT NULL,
+                  is_copy BOOLEAN NOT NULL
+                ) ON COMMIT DROP;
+
+                INSERT INTO migrated_tables VALUES
+                  ('images', 'images_unpartitioned', FALSE),
+                  ('image_tags', 'image_tags_unpartitioned', FALSE),
+                  ('image_content_labels', 'image_content_labels_unpartitioned', FALSE),
+                  ('images_partitioned', 'images', TRUE),
+                  ('image_tags_partitioned', 'image_tags', TRUE),
+                  ('image_content_labels_partitioned', 'image_content_labels', TRUE);
+
+                FOR r IN
+                  SELECT
+                    t.oid::regclass AS table_name,
+                    c.conname AS from_name,
+                    CASE
+                      WHEN mt.is_copy THEN replace(c.conname, '_partitioned', '')
+                      ELSE c.conname || '_unpartitioned'
+                    END AS to_name
+                  FROM
+                    migrated_tables mt
+                    INNER JOIN pg_catalog.pg_class t ON
+                      t.relname = mt.from_name AND
+                      t.relnamespace = 'public'::regnamespace
+                    INNER JOIN pg_catalog.pg_constraint c ON c.conrelid = t.oid
+                  WHERE
+                    c.conparentid = 0 AND
+                    c.contype IN ('p', 'f', 'u')
+                  ORDER BY
+                    mt.is_copy
+                LOOP
+                  EXECUTE format('ALTER TABLE %s RENAME CONSTRAINT %I TO %I', r.table_name, r.from_name, r.to_name);
+                END LOOP;
+
+                FOR r IN
+                  SELECT
+                    ix.oid::regclass AS index_name,
+                    CASE
+                      WHEN mt.is_copy THEN replace(ix.relname, '_partitioned', '')
+                      ELSE ix.relname || '_unpartitioned'
+                    END AS to_name
+                  FROM
+                    migrated_tables mt
+                    INNER JOIN pg_catalog.pg_class t ON
+                      t.relname = mt.from_name AND
+                      t.relnamespace = 'public'::regnamespace
+                    INNER JOIN pg_catalog.pg_index i ON i.indrelid = t.oid
+                    INNER JOIN pg_catalog.pg_class ix ON ix.oid = i.indexrelid
+                  WHERE
+                    NOT EXISTS (
+                      SELECT
+                        1
+                      FROM
+                        pg_catalog.pg_constraint c
+                      WHERE
+                        c.conindid = i.indexrelid AND
+                        c.conrelid = t.oid
+                    )
+                  ORDER BY
+                    mt.is_copy
+                LOOP
+                  EXECUTE format('ALTER INDEX %s RENAME TO %I', r.index_name, r.to_name);
+                END LOOP;
+
+                FOR r IN
+                  SELECT
+                    p.oid::regclass AS partition_name,
+                    replace(p.relname, '_partitioned', '') AS to_name
+                  FROM
+                    migrated_tables mt
+                    INNER JOIN pg_catalog.pg_class t ON
+                      t.relname = mt.from_name AND
+                      t.relnamespace = 'public'::regnamespace
+                    INNER JOIN pg_catalog.pg_inherits inh ON inh.inhparent = t.oid
+                    INNER JOIN pg_catalog.pg_class p ON p.oid = inh.inhrelid
+                  WHERE
+                    mt.is_copy
+                LOOP
+                  EXECUTE format('ALTER TABLE %s RENAME TO %I', r.partition_name, r.to_name);
+                END LOOP;
+
+                FOR r IN
+                  SELECT
+                    from_name,
+                    to_name
+                  FROM
+                    migrated_tables
+                  ORDER BY
+                    is_copy
+                LOOP
+                  EXECUTE format('ALTER TABLE public.%I RENAME TO %I', r.from_name, r.to_name);
+                END LOOP;
+              END;
+            $$;
+        """;
+    }
+}
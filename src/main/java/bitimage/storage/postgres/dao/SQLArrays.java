@@ -0,0 +1,27 @@
+package bitimage.storage.postgres.dao;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Converts lists into array parameters, since the JDBC
+ * driver does not bind UUID arrays directly.
+ */
+final class SQLArrays
+{
+    private SQLArrays()
+    {
+    }
+
+    /**
+     * Converts list of UUIDs to a postgres array literal (ex.
+     * "{id1,id2}"), bound as text and cast to uuid[] in sql.
+     */
+    static String ofUUIDs(List<UUID> ids)
+    {
+        return ids.stream()
+                .map(UUID::toString)
+                .collect(Collectors.joining(",", "{", "}"));
+    }
+}
@@ -0,0 +1,71 @@
+package bitimage.storage.postgres.dao;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Function;
+
+/**
+ * A single versioned change to the database schema.
+ *
+ * <p>Migration sql may depend on the partition layout of the
+ * images tables. Checksums are taken over the unpartitioned
+ * variant of the sql, so moving to the partitioned layout (see
+ * PartitionMigration) does not invalidate applied migrations.
+ */
+public class SchemaMigration
+{
+    private final int version;
+    private final String description;
+    private final Function<PartitionLayout, String> sqlBuilder;
+
+    /**
+     * @param version position of the migration, applied in
+     * ascending order.
+     * @param sqlBuilder builds the migration's ddl for the given
+     * partition layout.
+     */
+    public SchemaMigration(
+            int version,
+            String description,
+            Function<PartitionLayout, String> sqlBuilder)
+    {
+        this.version = version;
+        this.description = description;
+        this.sqlBuilder = sqlBuilder;
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public String getSQL(PartitionLayout layout)
+    {
+        return sqlBuilder.apply(layout);
+    }
+
+    /**
+     * Gets hex encoded sha-256 digest of the migration's sql,
+     * used to detect migrations edited after being applied.
+     */
+    public String getChecksum()
+    {
+        try {
+            byte[] digest = MessageDigest
+                    .getInstance("SHA-256")
+                    .digest(getSQL(PartitionLayout.Unpartitioned()).getBytes(StandardCharsets.UTF_8));
+
+            return String.format("%064x", new BigInteger(1, digest));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
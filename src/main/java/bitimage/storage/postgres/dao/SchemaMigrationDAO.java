@@ -0,0 +1,94 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.dto.SchemaMigrationDTO;
+import bitimage.storage.postgres.query.QueryExecutor;
+import bitimage.storage.postgres.query.SQLQuery;
+import bitimage.storage.postgres.query.Transaction;
+import bitimage.storage.postgres.resultset.SchemaMigrationResultSetMapper;
+
+import java.util.List;
+
+public class SchemaMigrationDAO
+{
+    private final QueryExecutor queryExecutor;
+
+    public SchemaMigrationDAO(QueryExecutor queryExecutor)
+    {
+        this.queryExecutor = queryExecutor;
+    }
+
+    /**
+     * Creates table recording applied schema migrations. Only
+     * the catalog is checked once the table exists, so no locks
+     * are taken on application tables.
+     */
+    public void createSchemaMigrationsTable()
+            throws Exception
+    {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS public.schema_migrations (
+              version INTEGER NOT NULL,
+              description VARCHAR(250) NOT NULL,
+              checksum CHAR(64) NOT NULL,
+              applied_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+                DEFAULT (current_timestamp AT TIME ZONE 'UTC'),
+              CONSTRAINT pk_schema_migrations PRIMARY KEY(version)
+            );
+        """;
+
+        queryExecutor.write(new SQLQuery(sql).asUncached());
+    }
+
+    public List<SchemaMigrationDTO> selectAppliedMigrations()
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              version,
+              description,
+              checksum,
+              applied_at
+            FROM
+              public.schema_migrations
+            ORDER BY
+              version;
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql).onPrimary(),
+                new SchemaMigrationResultSetMapper());
+    }
+
+    /**
+     * Records migration as applied, then runs its sql, within a
+     * single transaction.
+     *
+     * <p>The version is recorded first, so instances starting
+     * at the same time are serialized on its primary key: others
+     * wait for the first to commit, then fail with a unique
+     * violation without having run the migration's sql.
+     */
+    public void applyMigration(SchemaMigration migration, PartitionLayout layout)
+            throws Exception
+    {
+        String recordMigrationSQL = """
+            INSERT INTO public.schema_migrations (
+              version,
+              description,
+              checksum
+            ) VALUES
+              (?, ?, ?);
+        """;
+
+        List<Object> recordMigrationParams = List.of(
+                migration.getVersion(),
+                migration.getDescription(),
+                migration.getChecksum());
+
+        Transaction transaction = queryExecutor.newTransaction()
+                .send(new SQLQuery(recordMigrationSQL, recordMigrationParams).asUncached())
+                .send(new SQLQuery(migration.getSQL(layout)).asUncached());
+
+        queryExecutor.commit(transaction);
+    }
+}
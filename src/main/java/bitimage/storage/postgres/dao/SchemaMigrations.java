@@ -0,0 +1,81 @@
+package bitimage.storage.postgres.dao;
+
+import java.util.List;
+
+/**
+ * Ordered list of all schema migrations.
+ *
+ * <p>Applied migrations must not be edited, since their
+ * checksums would no longer match. Schema changes are added as
+ * a new migration with the next version.
+ */
+public class SchemaMigrations
+{
+    public static List<SchemaMigration> All()
+    {
+        return List.of(
+                new SchemaMigration(1, "Baseline schema", SchemaMigrations::getBaselineSQL),
+                new SchemaMigration(2, "Maintain image upload counts", SchemaMigrations::getImageUploadCountsSQL),
+                new SchemaMigration(3, "Record orphan candidate times", SchemaMigrations::getOrphanCandidateTimesSQL),
+                new SchemaMigration(4, "Index image names for substring search", SchemaMigrations::getImageNameTrigramsSQL));
+    }
+
+    /**
+     * Creates every table, index, function and trigger, as run
+     * at each startup before schema versioning. Statements are
+     * idempotent, so databases created by any earlier release
+     * are brought up to date.
+     */
+    private static String getBaselineSQL(PartitionLayout layout)
+    {
+        return String.join(
+                "\n",
+                UserDAO.getCreateUsersTableSQL(),
+                ImageDAO.getCreateImagesTableSQL("images", layout),
+                ImageDAO.getCreateTagsTableSQL(),
+                ImageDAO.getCreateImageTagLinkTableSQL("image_tags", "images", layout),
+                ImageDAO.getCreateOrphanedTagCandidatesTableSQL(),
+                ImageDAO.getCreateFunctionToRecordOrphanedTagCandidatesSQL(),
+                ImageDAO.getCreateTriggerToRecordOrphanedTagCandidatesSQL(),
+                LabelDAO.getCreateLabelsTableSQL(),
+                LabelDAO.getCreateImageLabelLinkTableSQL("image_content_labels", "images", layout),
+                LabelDAO.getCreateLabelStagingTableSQL(),
+                LabelDAO.getCreateOrphanedLabelCandidatesTableSQL(),
+                LabelDAO.getCreateFunctionToRecordOrphanedLabelCandidatesSQL(),
+                LabelDAO.getCreateTriggerToRecordOrphanedLabelCandidatesSQL());
+    }
+
+    /**
+     * Backfills upload counts, which are maintained by image
+     * inserts and deletes from this version on, and creates the
+     * function checking them against upload limits.
+     */
+    private static String getImageUploadCountsSQL(PartitionLayout layout)
+    {
+        return String.join(
+                "\n",
+                UserDAO.getBackfillImageUploadCountsSQL(),
+                UserDAO.getCreateFunctionToCheckImageUploadLimitSQL());
+    }
+
+    /**
+     * Adds the time candidates were recorded at, which the orphan
+     * sweeper checks against its grace period.
+     */
+    private static String getOrphanCandidateTimesSQL(PartitionLayout layout)
+    {
+        return String.join(
+                "\n",
+                ImageDAO.getAddOrphanedTagCandidatesRecordedAtSQL(),
+                LabelDAO.getAddOrphanedLabelCandidatesRecordedAtSQL());
+    }
+
+    /**
+     * Adds the pg_trgm extension, and the trigram index on image
+     * names that serves substring searches.
+     */
+    private static String getImageNameTrigramsSQL(PartitionLayout layout)
+    {
+        return ImageDAO.getCreateImageNameTrigramIndexSQL("images");
+    }
+}
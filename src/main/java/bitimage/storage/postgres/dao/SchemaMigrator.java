@@ -0,0 +1,88 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.exceptions.StorageObjectAlreadyExistsException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Brings the database schema up to the latest version, by
+ * applying migrations not yet recorded in the schema_migrations
+ * table, in version order.
+ *
+ * <p>When the schema is current, migrating only reads the
+ * applied versions, so no ddl is run (and no locks are taken on
+ * application tables) on startup.
+ */
+public class SchemaMigrator
+{
+    private final SchemaMigrationDAO migrationDAO;
+    private final List<SchemaMigration> migrations;
+    private final PartitionLayout partitionLayout;
+    private final Logger logger;
+
+    public SchemaMigrator(
+            SchemaMigrationDAO migrationDAO,
+            List<SchemaMigration> migrations,
+            PartitionLayout partitionLayout)
+    {
+        this.migrationDAO = migrationDAO;
+        this.migrations = migrations;
+        this.partitionLayout = partitionLayout;
+        this.logger = Logger.getLogger("Schema migrator logger");
+    }
+
+    /**
+     * Applies pending migrations. Versions applied by a newer
+     * release (ex. during a rolling deploy) are left alone.
+     *
+     * @throws IllegalStateException if an applied migration was
+     * edited since being applied.
+     */
+    public void migrate()
+            throws Exception
+    {
+        migrationDAO.createSchemaMigrationsTable();
+
+        Map<Integer, String> appliedChecksums = migrationDAO.selectAppliedMigrations()
+                .stream()
+                .collect(Collectors.toMap(
+                        migrationDTO -> migrationDTO.version,
+                        migrationDTO -> migrationDTO.checksum));
+
+        for (SchemaMigration migration : migrations) {
+            String appliedChecksum = appliedChecksums.get(migration.getVersion());
+
+            if (appliedChecksum == null) {
+                applyMigration(migration);
+            }
+            else if (!appliedChecksum.equals(migration.getChecksum())) {
+                throw new IllegalStateException(String.format(
+                        "Schema migration %d (%s) was changed after being applied",
+                        migration.getVersion(),
+                        migration.getDescription()));
+            }
+        }
+    }
+
+    private void applyMigration(SchemaMigration migration)
+            throws Exception
+    {
+        try {
+            migrationDAO.applyMigration(migration, partitionLayout);
+
+            logger.log(Level.INFO, String.format(
+                    "Applied schema migration %d (%s)",
+                    migration.getVersion(),
+                    migration.getDescription()));
+        }
+        catch (StorageObjectAlreadyExistsException e) {
+            logger.log(Level.INFO, String.format(
+                    "Schema migration %d was applied by another instance",
+                    migration.getVersion()));
+        }
+    }
+}
@@ -1,26 +1,33 @@
 package bitimage.storage.postgres.dao;
 
 import bitimage.storage.dto.UserDTO;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
 import bitimage.storage.postgres.query.QueryExecutor;
 import bitimage.storage.postgres.query.SQLQuery;
+import bitimage.storage.postgres.query.Transaction;
+import bitimage.storage.postgres.resultset.CountResultSetMapper;
 import bitimage.storage.postgres.resultset.ExistsResultSetMapper;
+import bitimage.storage.postgres.resultset.UUIDResultSetMapper;
+import bitimage.storage.postgres.resultset.UserResultSetMapper;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class UserDAO
 {
     private final QueryExecutor queryExecutor;
+    private final AsyncQueryExecutor asyncQueryExecutor;
 
-    public UserDAO(QueryExecutor queryExecutor)
+    public UserDAO(QueryExecutor queryExecutor, AsyncQueryExecutor asyncQueryExecutor)
     {
         this.queryExecutor = queryExecutor;
+        this.asyncQueryExecutor = asyncQueryExecutor;
     }
 
-    public void createUsersTable()
-            throws Exception
+    static String getCreateUsersTableSQL()
     {
-        String sql = """
+        return """
             CREATE TABLE IF NOT EXISTS public.users (
               id UUID NOT NULL,
               created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
@@ -32,8 +39,63 @@ public class UserDAO
               CONSTRAINT pk_users PRIMARY KEY(id)
             );
         """;
+    }
+
+    /**
+     * Creates a new function that returns a user's new image
+     * upload count, or fails with sql state "BI001" if the count
+     * exceeds the user's upload limit. A null limit is treated
+     * as unlimited.
+     *
+     * <p>The limit is checked within the statement that updates
+     * the count, so the check needs no separate count query, and
+     * concurrent uploads are checked against each other's counts.
+     */
+    static String getCreateFunctionToCheckImageUploadLimitSQL()
+    {
+        return """
+            CREATE OR REPLACE FUNCTION check_image_upload_limit(
+              upload_count INTEGER,
+              upload_limit INTEGER
+            )
+            RETURNS INTEGER LANGUAGE PLPGSQL
+
+            AS $$
+              BEGIN
+                IF upload_count > upload_limit THEN
+                  RAISE EXCEPTION 'Image upload limit of % exceeded', upload_limit
+                    USING ERRCODE = 'BI001';
+                END IF;
 
-        queryExecutor.write(new SQLQuery(sql));
+                RETURN upload_count;
+              END;
+            $$;
+        """;
+    }
+
+    /**
+     * Sets image upload counts, which were never maintained,
+     * to each user's actual number of images.
+     */
+    static String getBackfillImageUploadCountsSQL()
+    {
+        return """
+            UPDATE
+              public.users u
+            SET
+              image_upload_count = (
+                SELECT
+                  COUNT(*)
+                FROM
+                  public.images i
+                WHERE
+                  i.user_id = u.id
+              );
+
+            ALTER TABLE public.users
+              ALTER COLUMN image_upload_count SET DEFAULT 0,
+              ALTER COLUMN image_upload_count SET NOT NULL;
+        """;
     }
 
     public void insertUser(UserDTO userDTO)
@@ -52,7 +114,7 @@ public class UserDAO
 
         queryExecutor.write(new SQLQuery(
                 sql,
-                getInsertUserParams(userDTO)));
+                getInsertUserParams(userDTO)).forSession(userDTO.id));
     }
 
     private static List<Object> getInsertUserParams(UserDTO userDTO)
@@ -75,11 +137,182 @@ public class UserDAO
               id = ?;
         """;
 
-        queryExecutor.write(new SQLQuery(sql, List.of(userID)));
+        queryExecutor.write(new SQLQuery(sql, List.of(userID)).forSession(userID));
+    }
+
+    public UserDTO selectUserByID(UUID userID)
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              id,
+              created_at,
+              updated_at,
+              image_upload_limit,
+              image_upload_count
+            FROM
+              public.users
+            WHERE
+              id = ?;
+        """;
+
+        List<UserDTO> results = queryExecutor.read(
+                new SQLQuery(sql, List.of(userID)).forSession(userID),
+                new UserResultSetMapper());
+
+        if (results.isEmpty()) {
+            return new UserDTO().asNull();
+        }
+
+        return results.get(0);
+    }
+
+    /**
+     * Counts all users, to size structures holding every user
+     * id before walking all users.
+     */
+    public long countUsers()
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              COUNT(*) AS count
+            FROM
+              public.users;
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql, List.of()).onPrimary(),
+                new CountResultSetMapper()).get(0);
+    }
+
+    /**
+     * Selects a page of user ids ordered by id, starting
+     * after the given id (or from the first user if null).
+     */
+    public List<UUID> selectUserIDs(UUID afterUserID, int limit)
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              id
+            FROM
+              public.users
+            WHERE
+              id > ?
+            ORDER BY
+              id
+            LIMIT ?;
+        """;
+
+        UUID fromUserID = afterUserID != null ? afterUserID : new UUID(0, 0);
+
+        return queryExecutor.read(
+                new SQLQuery(sql, List.of(fromUserID, limit)).onPrimary(),
+                new UUIDResultSetMapper());
+    }
+
+    /**
+     * Selects those of given users whose upload count differs
+     * from their actual number of images. Counts are read
+     * without locking, so a user with an upload or delete in
+     * progress may be selected too.
+     */
+    public List<UUID> selectUserIDsWithDriftedUploadCount(List<UUID> userIDs)
+            throws Exception
+    {
+        String sql = """
+            SELECT
+              u.id
+            FROM
+              public.users u
+            WHERE
+              u.id = ANY (?::uuid[]) AND
+              u.image_upload_count <> (
+                SELECT
+                  COUNT(*)
+                FROM
+                  public.images i
+                WHERE
+                  i.user_id = u.id
+              );
+        """;
+
+        return queryExecutor.read(
+                new SQLQuery(sql, List.of(SQLArrays.ofUUIDs(userIDs))).onPrimary(),
+                new UUIDResultSetMapper());
+    }
+
+    /**
+     * Sets users' upload counts to their actual number of
+     * images.
+     *
+     * <p>Users' rows are locked by the first statement, waiting
+     * for uploads and deletes in progress to commit, and holding
+     * back new ones. Images are then counted by a second statement,
+     * whose snapshot includes every committed change.
+     */
+    public void repairImageUploadCounts(List<UUID> userIDs)
+            throws Exception
+    {
+        String lockUsersSQL = """
+            SELECT
+              id
+            FROM
+              public.users
+            WHERE
+              id = ANY (?::uuid[])
+            ORDER BY
+              id
+            FOR UPDATE;
+        """;
+
+        String repairCountsSQL = """
+            UPDATE
+              public.users u
+            SET
+              image_upload_count = (
+                SELECT
+                  COUNT(*)
+                FROM
+                  public.images i
+                WHERE
+                  i.user_id = u.id
+              )
+            WHERE
+              u.id = ANY (?::uuid[]);
+        """;
+
+        String userIDsParam = SQLArrays.ofUUIDs(userIDs);
+
+        Transaction transaction = queryExecutor.newTransaction()
+                .send(new SQLQuery(lockUsersSQL, List.of(userIDsParam)))
+                .send(new SQLQuery(repairCountsSQL, List.of(userIDsParam)));
+
+        queryExecutor.commit(transaction);
     }
 
     public boolean doesUserExist(UUID userID)
             throws Exception
+    {
+        return queryExecutor.read(
+                getSelectUserExistsQuery(userID),
+                new ExistsResultSetMapper())
+                .get(0);
+    }
+
+    /**
+     * Checks user existence on a database thread, so the caller
+     * can do other work while the query runs.
+     */
+    public CompletableFuture<Boolean> doesUserExistAsync(UUID userID)
+    {
+        return asyncQueryExecutor
+                .read(getSelectUserExistsQuery(userID), new ExistsResultSetMapper())
+                .thenApply(results -> results.get(0));
+    }
+
+    private static SQLQuery getSelectUserExistsQuery(UUID userID)
     {
         String sql = """
             SELECT EXISTS(
@@ -92,9 +325,6 @@ public class UserDAO
             );
         """;
 
-        return queryExecutor.read(
-                new SQLQuery(sql, List.of(userID)),
-                new ExistsResultSetMapper())
-                .get(0);
+        return new SQLQuery(sql, List.of(userID)).forSession(userID);
     }
 }
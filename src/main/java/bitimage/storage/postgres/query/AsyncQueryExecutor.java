@@ -0,0 +1,158 @@
+package bitimage.storage.postgres.query;
+
+import bitimage.storage.postgres.resultset.ResultSetMapper;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous variant of the query executor, with the same
+ * query and result set mapper contracts. Queries run on a
+ * dedicated, bounded pool of database threads, so callers can
+ * run independent queries concurrently (or overlap them with
+ * other I/O) without blocking a request thread per query.
+ *
+ * <p>JDBC is blocking, so each running query still holds a
+ * database thread. The pool is sized to the connection pool,
+ * and its queue is bounded, so a query backlog fails fast
+ * rather than growing without bound.
+ */
+public class AsyncQueryExecutor
+{
+    private static final String THREAD_NAME = "bitimage-postgres-async-%d";
+
+    private final QueryExecutor queryExecutor;
+    private final ExecutorService dbExecutor;
+
+    public AsyncQueryExecutor(QueryExecutor queryExecutor, ExecutorService dbExecutor)
+    {
+        this.queryExecutor = queryExecutor;
+        this.dbExecutor = dbExecutor;
+    }
+
+    /**
+     * Creates executor over a bounded pool of daemon threads.
+     * Queries submitted while all threads are busy and the queue
+     * is full complete exceptionally with a
+     * RejectedExecutionException.
+     */
+    public static AsyncQueryExecutor CreateNew(
+            QueryExecutor queryExecutor,
+            int threadCount,
+            int queueSize)
+    {
+        ExecutorService dbExecutor = new ThreadPoolExecutor(
+                threadCount,
+                threadCount,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                newDaemonThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        return new AsyncQueryExecutor(queryExecutor, dbExecutor);
+    }
+
+    public <T> CompletableFuture<List<T>> read(SQLQuery query, ResultSetMapper<T> mapper)
+    {
+        return submit(() -> queryExecutor.read(query, mapper));
+    }
+
+    public CompletableFuture<Void> write(SQLQuery query)
+    {
+        return submit(() -> {
+            queryExecutor.write(query);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> commit(Transaction transaction)
+    {
+        return submit(() -> {
+            queryExecutor.commit(transaction);
+            return null;
+        });
+    }
+
+    /**
+     * Exceptions thrown by the task (ex. translated storage
+     * exceptions) complete the future exceptionally, and are
+     * rethrown wrapped in a CompletionException on join(). Errors
+     * complete the future too, so its callers never wait forever,
+     * and are then rethrown on the database thread.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> task)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            dbExecutor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                }
+                catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Waits for query result, rethrowing the exception the
+     * query failed with (rather than the CompletionException
+     * wrapping it), so callers can handle storage exceptions as
+     * with blocking queries.
+     */
+    public static <T> T await(CompletableFuture<T> future)
+            throws Exception
+    {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private static ThreadFactory newDaemonThreadFactory()
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, String.format(THREAD_NAME, threadCount.getAndIncrement()));
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    public void shutdown()
+    {
+        dbExecutor.shutdown();
+    }
+}
@@ -0,0 +1,95 @@
+package bitimage.storage.postgres.query;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Encapsulates a bulk load of rows through the PostgreSQL
+ * COPY protocol, streaming rows as csv rather than sending
+ * one insert statement per row.
+ */
+public class CopyQuery
+{
+    private final String sql;
+    private final List<List<Object>> rows;
+    private final String name;
+
+    /**
+     * @param sql COPY statement reading csv from stdin
+     * (ex. "COPY t (a, b) FROM STDIN WITH (FORMAT csv)").
+     * @param rows values to copy, ordered by statement columns.
+     */
+    public CopyQuery(String sql, List<List<Object>> rows)
+    {
+        this.sql = sql;
+        this.rows = List.copyOf(rows);
+        this.name = QueryNames.ofCaller();
+    }
+
+    public String getSQL()
+    {
+        return sql;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @precondition Connection object must be opened.
+     * @postcondition Connection object must be closed after.
+     * @return number of rows copied.
+     */
+    public long executeCopy(Connection conn)
+            throws SQLException
+    {
+        CopyIn copyIn = conn.unwrap(PGConnection.class)
+                .getCopyAPI()
+                .copyIn(sql);
+
+        try {
+            for (List<Object> row : rows) {
+                byte[] csvRow = toCsvRow(row).getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(csvRow, 0, csvRow.length);
+            }
+
+            return copyIn.endCopy();
+        }
+        finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Null values are written unquoted, which COPY reads as
+     * NULL. All other values are quoted, escaping any quotes.
+     */
+    private static String toCsvRow(List<Object> row)
+    {
+        StringBuilder csvRow = new StringBuilder();
+
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                csvRow.append(',');
+            }
+
+            Object value = row.get(i);
+
+            if (value != null) {
+                csvRow.append('"')
+                        .append(value.toString().replace("\"", "\"\""))
+                        .append('"');
+            }
+        }
+
+        return csvRow.append('\n').toString();
+    }
+}
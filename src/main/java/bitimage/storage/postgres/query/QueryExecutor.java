@@ -1,48 +1,173 @@
 package bitimage.storage.postgres.query;
 
 import bitimage.storage.postgres.connection.ConnectionHandler;
+import bitimage.storage.postgres.connection.ReadRouter;
 import bitimage.storage.postgres.resultset.ResultSetMapper;
+import org.postgresql.PGStatement;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 public class QueryExecutor
 {
     private final ConnectionHandler connectionHandler;
+    private final ReadRouter readRouter;
     private final SQLExceptionTranslator exceptionTranslator;
+    private final QueryMetrics queryMetrics;
+    private final int fetchSize;
 
     public QueryExecutor(
             ConnectionHandler connectionHandler,
-            SQLExceptionTranslator exceptionTranslator)
+            ReadRouter readRouter,
+            SQLExceptionTranslator exceptionTranslator,
+            QueryMetrics queryMetrics,
+            int fetchSize)
     {
         this.connectionHandler = connectionHandler;
+        this.readRouter = readRouter;
         this.exceptionTranslator = exceptionTranslator;
+        this.queryMetrics = queryMetrics;
+        this.fetchSize = fetchSize;
     }
 
+    /**
+     * Reads from a read replica when one is available, unless
+     * the query must run on the primary.
+     */
     public <T> List<T> read(SQLQuery query, ResultSetMapper<T> mapper)
             throws Exception
     {
-        try (Connection conn = connectionHandler.getConnection()) {
-            ResultSet results = query.executeRead(conn);
-            List<T> dtos = mapper.mapToDTOs(results);
+        try (Connection conn = getConnection(getReadConnectionHandler(query), query.getName())) {
+            long startNanos = System.nanoTime();
+            PreparedStatement statement = prepareStatement(conn, query);
 
-            return dtos;
+            try (ResultSet results = query.executeRead(statement)) {
+                List<T> dtos = mapper.mapToDTOs(results);
+                recordExecution(query, startNanos, dtos.size());
+
+                return dtos;
+            }
+            finally {
+                closeStatement(statement);
+            }
+        }
+        catch (SQLException e) {
+            throw translate(query.getName(), e);
+        }
+    }
+
+    /**
+     * Streams query results, backed by a server side cursor
+     * that fetches a bounded number of rows per round trip, so
+     * memory used does not grow with the size of the result.
+     *
+     * <p>The driver only uses cursors outside of auto commit
+     * mode, so the stream holds an open read transaction (and
+     * its connection) until closed.
+     *
+     * @postcondition Returned stream must be closed after (ex.
+     * with try-with-resources), releasing its connection.
+     *
+     * <p>Stream execution time is recorded up to opening the
+     * cursor, since the rest depends on how fast the caller
+     * consumes rows. Rows are counted as they are consumed.
+     */
+    public <T> Stream<T> stream(SQLQuery query, ResultSetMapper<T> mapper)
+            throws Exception
+    {
+        Connection conn = getConnection(getReadConnectionHandler(query), query.getName());
+        PreparedStatement statement = null;
+
+        try {
+            long startNanos = System.nanoTime();
+            conn.setAutoCommit(false);
+
+            statement = prepareStatement(conn, query);
+            statement.setFetchSize(fetchSize);
+
+            ResultSet results = query.executeRead(statement);
+            PreparedStatement openStatement = statement;
+
+            long openNanos = System.nanoTime() - startNanos;
+            AtomicLong rowCount = new AtomicLong();
+
+            return mapper.mapToDTOStream(results)
+                    .peek(dto -> rowCount.incrementAndGet())
+                    .onClose(() -> {
+                        queryMetrics.recordExecution(query.getName(), query.getParamShape(), openNanos, rowCount.get());
+                        closeStream(conn, query, openStatement, results);
+                    });
+        }
+        catch (SQLException e) {
+            if (statement != null) {
+                statement.close();
+            }
+
+            conn.rollback();
+            connectionHandler.closeResource(conn);
+
+            throw translate(query.getName(), e);
+        }
+    }
+
+    private void closeStream(
+            Connection conn,
+            SQLQuery query,
+            PreparedStatement statement,
+            ResultSet results)
+    {
+        try (conn; statement; results) {
+            conn.commit();
         }
         catch (SQLException e) {
-            throw exceptionTranslator.translate(e);
+            throw new RuntimeException(translate(query.getName(), e));
         }
     }
 
     public void write(SQLQuery query)
             throws Exception
     {
-        try (Connection conn = connectionHandler.getConnection()) {
-            query.executeWrite(conn);
+        try (Connection conn = getConnection(connectionHandler, query.getName())) {
+            executeWrite(conn, query);
+            readRouter.recordWrite(query.getSessionKey(), conn);
+        }
+        catch (SQLException e) {
+            throw translate(query.getName(), e);
+        }
+    }
+
+    /**
+     * Runs a write returning rows (ex. DELETE ... RETURNING) on
+     * the primary, and maps the returned rows. The write is
+     * recorded for the query's session, like any other write, so
+     * the session's later reads observe it.
+     */
+    public <T> List<T> writeReturning(SQLQuery query, ResultSetMapper<T> mapper)
+            throws Exception
+    {
+        try (Connection conn = getConnection(connectionHandler, query.getName())) {
+            long startNanos = System.nanoTime();
+            PreparedStatement statement = prepareStatement(conn, query);
+            List<T> dtos;
+
+            try (ResultSet results = query.executeRead(statement)) {
+                dtos = mapper.mapToDTOs(results);
+                recordExecution(query, startNanos, dtos.size());
+            }
+            finally {
+                closeStatement(statement);
+            }
+
+            readRouter.recordWrite(query.getSessionKey(), conn);
+            return dtos;
         }
         catch (SQLException e) {
-            throw exceptionTranslator.translate(e);
+            throw translate(query.getName(), e);
         }
     }
 
@@ -53,25 +178,178 @@ public class QueryExecutor
 
     public void commit(Transaction transaction)
             throws Exception
+    {
+        commit(null, transaction);
+    }
+
+    /**
+     * Streams rows with COPY, then runs the transaction's
+     * queries (ex. merging the copied rows into other tables),
+     * all within a single database transaction.
+     */
+    public void commit(CopyQuery copyQuery, Transaction transaction)
+            throws Exception
     {
         Connection conn = null;
 
         try {
-            conn = connectionHandler.getConnection();
+            conn = getConnection(connectionHandler, transaction.getName());
             conn.setAutoCommit(false);
 
-            for (SQLQuery query : transaction.getQueries()) {
-                query.executeWrite(conn);
+            if (copyQuery != null) {
+                long startNanos = System.nanoTime();
+                long rows = copyQuery.executeCopy(conn);
+
+                queryMetrics.recordExecution(copyQuery.getName(), "(copy)", System.nanoTime() - startNanos, rows);
+            }
+
+            for (List<SQLQuery> batch : transaction.getBatches()) {
+                executeBatch(conn, batch);
             }
 
             conn.commit();
+            readRouter.recordWrite(transaction.getSessionKey(), conn);
         }
         catch (SQLException e) {
-            conn.rollback();
-            throw exceptionTranslator.translate(e);
+            if (conn != null) {
+                conn.rollback();
+            }
+
+            throw translate(transaction.getName(), e);
         }
         finally {
             connectionHandler.closeResource(conn);
         }
     }
+
+    /**
+     * Borrows a connection, recording how long the query waited
+     * for it.
+     */
+    private Connection getConnection(ConnectionHandler handler, String queryName)
+            throws SQLException
+    {
+        long startNanos = System.nanoTime();
+        Connection conn = handler.getConnection();
+
+        queryMetrics.recordAcquire(queryName, System.nanoTime() - startNanos);
+        return conn;
+    }
+
+    private void recordExecution(SQLQuery query, long startNanos, long rows)
+    {
+        queryMetrics.recordExecution(
+                query.getName(),
+                query.getParamShape(),
+                System.nanoTime() - startNanos,
+                rows);
+    }
+
+    private Exception translate(String queryName, SQLException e)
+    {
+        Exception translated = exceptionTranslator.translate(e);
+        queryMetrics.recordError(queryName, translated);
+
+        return translated;
+    }
+
+    private ConnectionHandler getReadConnectionHandler(SQLQuery query)
+    {
+        if (query.isPrimaryOnly()) {
+            return connectionHandler;
+        }
+
+        return readRouter.routeRead(query.getSessionKey());
+    }
+
+    private void executeWrite(Connection conn, SQLQuery query)
+            throws SQLException
+    {
+        long startNanos = System.nanoTime();
+        PreparedStatement statement = prepareStatement(conn, query);
+
+        try {
+            long rows = query.executeWrite(statement);
+            recordExecution(query, startNanos, rows);
+        }
+        finally {
+            closeStatement(statement);
+        }
+    }
+
+    /**
+     * Sends a group of queries sharing the same sql in a single
+     * round trip. Single query groups skip batching overhead.
+     *
+     * @precondition All queries in batch must share the same sql.
+     */
+    private void executeBatch(Connection conn, List<SQLQuery> batch)
+            throws SQLException
+    {
+        if (batch.size() == 1) {
+            executeWrite(conn, batch.get(0));
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        SQLQuery firstQuery = batch.get(0);
+        PreparedStatement statement = prepareStatement(conn, firstQuery);
+
+        try {
+            for (SQLQuery query : batch) {
+                query.addToBatch(statement);
+            }
+
+            long rows = 0;
+
+            for (int updateCount : statement.executeBatch()) {
+                rows += Math.max(updateCount, 0);
+            }
+
+            recordExecution(firstQuery, startNanos, rows);
+        }
+        finally {
+            closeStatement(statement);
+        }
+    }
+
+    /**
+     * Statements are reused by the driver, which caches them per
+     * physical connection by sql text, and switches them to
+     * server side prepared statements once executed often enough.
+     * Cached statements are dropped along with their connection.
+     *
+     * <p>Uncached queries are never prepared server side, as
+     * their sql varies or runs once.
+     *
+     * <p>Both paths are counted in the query metrics, cached
+     * statements as hits once run server prepared.
+     */
+    private PreparedStatement prepareStatement(Connection conn, SQLQuery query)
+            throws SQLException
+    {
+        PreparedStatement statement = conn.prepareStatement(query.getSQL());
+        PGStatement pgStatement = statement.unwrap(PGStatement.class);
+
+        if (query.isCacheable()) {
+            queryMetrics.recordCachedStatement(pgStatement.isUseServerPrepare());
+        }
+        else {
+            pgStatement.setPrepareThreshold(0);
+            queryMetrics.recordUncachedStatement();
+        }
+
+        return statement;
+    }
+
+    private void closeStatement(PreparedStatement statement)
+            throws SQLException
+    {
+        statement.close();
+    }
+
+    public QueryMetrics getQueryMetrics()
+    {
+        return queryMetrics;
+    }
 }
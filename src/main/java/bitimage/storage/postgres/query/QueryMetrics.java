@@ -0,0 +1,115 @@
+package bitimage.storage.postgres.query;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per query execution metrics, keyed by query name (the DAO
+ * method that built the query), shared by all query executors.
+ *
+ * <p>Queries slower than the configured threshold are logged
+ * along with the types of their bound parameters, but never
+ * their values, which may hold user data.
+ *
+ * <p>Statements are cached by the driver, which does not
+ * expose its cache stats, so a prepared cacheable statement
+ * counts as a hit once the driver runs it server prepared
+ * (past its prepare threshold), and as a miss before.
+ */
+public class QueryMetrics
+{
+    private final Map<String, QueryStats> statsByQueryName;
+    private final long slowQueryThresholdNanos;
+    private final Logger logger;
+
+    private final AtomicLong statementCacheHitCount;
+    private final AtomicLong statementCacheMissCount;
+    private final AtomicLong uncachedStatementCount;
+
+    /**
+     * @param slowQueryThresholdMs minimum execution time of logged
+     * queries, or 0 to disable slow query logging.
+     */
+    public QueryMetrics(long slowQueryThresholdMs)
+    {
+        this.statsByQueryName = new ConcurrentHashMap<>();
+        this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMs);
+        this.logger = Logger.getLogger("Slow query logger");
+        this.statementCacheHitCount = new AtomicLong();
+        this.statementCacheMissCount = new AtomicLong();
+        this.uncachedStatementCount = new AtomicLong();
+    }
+
+    public void recordExecution(String queryName, String paramShape, long durationNanos, long rows)
+    {
+        getStats(queryName).recordExecution(durationNanos, rows);
+
+        if (slowQueryThresholdNanos > 0 && durationNanos >= slowQueryThresholdNanos) {
+            logger.log(Level.WARNING, String.format(
+                    "Slow query %s took %d ms for %d rows, params %s",
+                    queryName,
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                    rows,
+                    paramShape));
+        }
+    }
+
+    public void recordAcquire(String queryName, long durationNanos)
+    {
+        getStats(queryName).recordAcquire(durationNanos);
+    }
+
+    public void recordError(String queryName, Exception e)
+    {
+        getStats(queryName).recordError(e.getClass().getSimpleName());
+    }
+
+    public void recordCachedStatement(boolean isServerPrepared)
+    {
+        if (isServerPrepared) {
+            statementCacheHitCount.incrementAndGet();
+        }
+        else {
+            statementCacheMissCount.incrementAndGet();
+        }
+    }
+
+    public void recordUncachedStatement()
+    {
+        uncachedStatementCount.incrementAndGet();
+    }
+
+    private QueryStats getStats(String queryName)
+    {
+        return statsByQueryName.computeIfAbsent(queryName, name -> new QueryStats());
+    }
+
+    /**
+     * Gets live stats of every query executed so far, ordered
+     * by query name.
+     */
+    public Map<String, QueryStats> getStatsByQueryName()
+    {
+        return new TreeMap<>(statsByQueryName);
+    }
+
+    public long getStatementCacheHitCount()
+    {
+        return statementCacheHitCount.get();
+    }
+
+    public long getStatementCacheMissCount()
+    {
+        return statementCacheMissCount.get();
+    }
+
+    public long getUncachedStatementCount()
+    {
+        return uncachedStatementCount.get();
+    }
+}
@@ -0,0 +1,81 @@
+package bitimage.storage.postgres.query;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Names queries after the DAO method that built them (ex.
+ * "ImageDAO.selectImageByID"), so their metrics can be told
+ * apart without tagging every query by hand.
+ */
+final class QueryNames
+{
+    private static final String UNKNOWN_QUERY_NAME = "unknown";
+    private static final int MAX_CALLER_FRAMES = 16;
+
+    private static final StackWalker STACK_WALKER =
+            StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private static final Map<String, Boolean> IS_HELPER_BY_METHOD = new ConcurrentHashMap<>();
+
+    private QueryNames()
+    {
+    }
+
+    /**
+     * Gets the name of the first non private method of the
+     * calling class (the first class on the calling thread's
+     * stack outside of this package), so queries built by
+     * private helpers (or lambdas) shared across DAO methods are
+     * named after the DAO method calling them. Only the top few
+     * frames are walked, so this costs a few microseconds per
+     * query.
+     */
+    static String ofCaller()
+    {
+        List<StackWalker.StackFrame> callerFrames = STACK_WALKER.walk(frames -> frames
+                .dropWhile(frame -> frame.getDeclaringClass().getPackage() == QueryNames.class.getPackage())
+                .limit(MAX_CALLER_FRAMES)
+                .collect(Collectors.toList()));
+
+        if (callerFrames.isEmpty()) {
+            return UNKNOWN_QUERY_NAME;
+        }
+
+        Class<?> callerClass = callerFrames.get(0).getDeclaringClass();
+
+        StackWalker.StackFrame namingFrame = callerFrames.stream()
+                .filter(frame -> frame.getDeclaringClass() == callerClass && !isHelper(frame))
+                .findFirst()
+                .orElse(callerFrames.get(0));
+
+        return callerClass.getSimpleName() + "." + namingFrame.getMethodName();
+    }
+
+    /**
+     * Whether frame's method is private or synthetic (ex. a
+     * lambda body), looked up once per method.
+     */
+    private static boolean isHelper(StackWalker.StackFrame frame)
+    {
+        String methodKey = frame.getClassName() + "." + frame.getMethodName() + frame.getDescriptor();
+
+        return IS_HELPER_BY_METHOD.computeIfAbsent(methodKey, key -> {
+            try {
+                Method method = frame.getDeclaringClass().getDeclaredMethod(
+                        frame.getMethodName(),
+                        frame.getMethodType().parameterArray());
+
+                return Modifier.isPrivate(method.getModifiers()) || method.isSynthetic();
+            }
+            catch (NoSuchMethodException e) {
+                // constructors and static initializers are not methods
+                return false;
+            }
+        });
+    }
+}
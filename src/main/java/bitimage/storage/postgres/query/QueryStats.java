@@ -0,0 +1,82 @@
+package bitimage.storage.postgres.query;
+
+import bitimage.metrics.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals for a single named query. Recording is lock
+ * free, so stats can be updated by every query executing
+ * thread.
+ */
+public class QueryStats
+{
+    private final LatencyHistogram executionTimeHistogram;
+    private final LatencyHistogram acquireTimeHistogram;
+    private final LongAdder rowCount;
+    private final Map<String, LongAdder> errorCounts;
+
+    public QueryStats()
+    {
+        this.executionTimeHistogram = new LatencyHistogram();
+        this.acquireTimeHistogram = new LatencyHistogram();
+        this.rowCount = new LongAdder();
+        this.errorCounts = new ConcurrentHashMap<>();
+    }
+
+    void recordExecution(long durationNanos, long rows)
+    {
+        executionTimeHistogram.record(durationNanos);
+        rowCount.add(rows);
+    }
+
+    void recordAcquire(long durationNanos)
+    {
+        acquireTimeHistogram.record(durationNanos);
+    }
+
+    void recordError(String errorType)
+    {
+        errorCounts.computeIfAbsent(errorType, type -> new LongAdder()).increment();
+    }
+
+    /**
+     * Time from sending the query to having mapped its results
+     * (or for writes, to the database acknowledging it).
+     */
+    public LatencyHistogram getExecutionTimeHistogram()
+    {
+        return executionTimeHistogram;
+    }
+
+    /**
+     * Time spent waiting to borrow a connection for the query.
+     */
+    public LatencyHistogram getAcquireTimeHistogram()
+    {
+        return acquireTimeHistogram;
+    }
+
+    /**
+     * Total rows returned by reads, or affected by writes.
+     */
+    public long getRowCount()
+    {
+        return rowCount.sum();
+    }
+
+    /**
+     * Failed executions, keyed by the translated exception's
+     * type (ex. "StorageObjectAlreadyExistsException").
+     */
+    public Map<String, Long> getErrorCounts()
+    {
+        Map<String, Long> counts = new TreeMap<>();
+        errorCounts.forEach((errorType, count) -> counts.put(errorType, count.sum()));
+
+        return counts;
+    }
+}
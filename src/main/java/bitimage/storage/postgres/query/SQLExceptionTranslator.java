@@ -2,9 +2,10 @@ package bitimage.storage.postgres.query;
 
 import bitimage.storage.exceptions.ExceptionTranslator;
 import bitimage.storage.exceptions.StorageObjectAlreadyExistsException;
-import bitimage.storage.exceptions.StorageObjectNotFoundException;
 import bitimage.storage.exceptions.StorageObjectReferenceException;
+import bitimage.storage.exceptions.StorageQuotaExceededException;
 
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
 
 /**
@@ -16,10 +17,15 @@ public class SQLExceptionTranslator
 {
     private static final String UNIQUE_VIOLATION = "23505";
     private static final String FOREIGN_KEY_VIOLATION = "23503";
-    private static final String NO_ROWS_AFFECTED_ON_DELETE = "P0001";
+    private static final String IMAGE_UPLOAD_LIMIT_EXCEEDED = "BI001";
 
     public Exception translate(SQLException e)
     {
+        // batch failures wrap the statement error that caused them
+        if (e instanceof BatchUpdateException && e.getNextException() != null) {
+            return translate(e.getNextException());
+        }
+
         String sqlErrorCode = e.getSQLState();
 
         if (sqlErrorCode.equals(UNIQUE_VIOLATION)) {
@@ -28,8 +34,8 @@ public class SQLExceptionTranslator
         if (sqlErrorCode.equals(FOREIGN_KEY_VIOLATION)) {
             return new StorageObjectReferenceException();
         }
-        if (sqlErrorCode.equals(NO_ROWS_AFFECTED_ON_DELETE)) {
-            return new StorageObjectNotFoundException();
+        if (sqlErrorCode.equals(IMAGE_UPLOAD_LIMIT_EXCEEDED)) {
+            return new StorageQuotaExceededException();
         }
 
         return e;
@@ -1,16 +1,20 @@
 package bitimage.storage.postgres.query;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class SQLQuery
 {
     private final String sql;
     private final List<Object> params;
+    private final String name;
+    private boolean isCacheable;
+    private boolean isPrimaryOnly;
+    private Object sessionKey;
 
     /**
      * Constructor to instantiate sql queries containing
@@ -21,6 +25,8 @@ public class SQLQuery
     {
         this.sql = sql;
         this.params = List.copyOf(params);
+        this.name = QueryNames.ofCaller();
+        this.isCacheable = true;
     }
 
     /**
@@ -30,6 +36,60 @@ public class SQLQuery
     {
         this.sql = sql;
         this.params = Collections.emptyList();
+        this.name = QueryNames.ofCaller();
+        this.isCacheable = true;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Marks query as one-off (ex. DDL or dynamically built
+     * sql), so its statement is never prepared server side.
+     */
+    public SQLQuery asUncached()
+    {
+        isCacheable = false;
+        return this;
+    }
+
+    public boolean isCacheable()
+    {
+        return isCacheable;
+    }
+
+    /**
+     * Marks read as one that must run on the primary (ex. a
+     * data modifying statement returning rows, or a read that
+     * must not lag behind writes made by other sessions).
+     */
+    public SQLQuery onPrimary()
+    {
+        isPrimaryOnly = true;
+        return this;
+    }
+
+    public boolean isPrimaryOnly()
+    {
+        return isPrimaryOnly;
+    }
+
+    /**
+     * Ties query to a session (ex. the requesting user), so
+     * reads in the session observe the session's own committed
+     * writes, even when routed to a read replica.
+     */
+    public SQLQuery forSession(Object sessionKey)
+    {
+        this.sessionKey = sessionKey;
+        return this;
+    }
+
+    public Object getSessionKey()
+    {
+        return sessionKey;
     }
 
     public String getSQL()
@@ -43,28 +103,54 @@ public class SQLQuery
     }
 
     /**
-     * @precondition Connection object must be opened.
-     * @postcondition Connection object must be closed after.
+     * Describes bound parameters by type only (ex. "(UUID,
+     * String, null)"), so queries can be logged without leaking
+     * parameter values.
+     */
+    public String getParamShape()
+    {
+        return params.stream()
+                .map(param -> param == null ? "null" : param.getClass().getSimpleName())
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+
+    /**
+     * @precondition Statement must be prepared from this query's sql.
+     * @postcondition Statement must be released or closed after.
+     * @return number of rows affected, or 0 for statements
+     * that do not report one (ex. DDL).
      */
-    public void executeWrite(Connection conn)
+    public long executeWrite(PreparedStatement statement)
             throws SQLException
     {
-        PreparedStatement statement = conn.prepareStatement(sql);
         injectParamsIntoStatement(params, statement);
-
         statement.execute();
+
+        return Math.max(statement.getUpdateCount(), 0);
     }
 
     /**
-     * @precondition Connection object must be opened.
-     * @postcondition Connection object must be closed after.
+     * Queues query into statement's batch, to be sent along
+     * with other queries sharing the same sql.
+     *
+     * @precondition Statement must be prepared from this query's sql.
+     * @postcondition Statement batch must be executed after.
      */
-    public ResultSet executeRead(Connection conn)
+    public void addToBatch(PreparedStatement statement)
             throws SQLException
     {
-        PreparedStatement statement = conn.prepareStatement(sql);
         injectParamsIntoStatement(params, statement);
+        statement.addBatch();
+    }
 
+    /**
+     * @precondition Statement must be prepared from this query's sql.
+     * @postcondition Returned result set must be closed after.
+     */
+    public ResultSet executeRead(PreparedStatement statement)
+            throws SQLException
+    {
+        injectParamsIntoStatement(params, statement);
         return statement.executeQuery();
     }
 
@@ -9,10 +9,36 @@ import java.util.List;
 public class Transaction
 {
     private final List<SQLQuery> queries;
+    private final String name;
+    private Object sessionKey;
 
     public Transaction()
     {
         this.queries = new ArrayList<>();
+        this.name = QueryNames.ofCaller();
+    }
+
+    /**
+     * Name of the DAO method that began the transaction.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Ties transaction to a session (ex. the requesting user),
+     * so the session's later reads observe its writes.
+     */
+    public Transaction forSession(Object sessionKey)
+    {
+        this.sessionKey = sessionKey;
+        return this;
+    }
+
+    public Object getSessionKey()
+    {
+        return sessionKey;
     }
 
     public Transaction send(SQLQuery query)
@@ -25,4 +51,39 @@ public class Transaction
     {
         return List.copyOf(queries);
     }
+
+    /**
+     * Groups consecutive queries that share the same sql, so
+     * each group can be sent to the database as a single batch
+     * (one round trip per group, rather than per query).
+     *
+     * <p>Query order is preserved, so queries relying on rows
+     * written by earlier queries still see them.
+     */
+    public List<List<SQLQuery>> getBatches()
+    {
+        List<List<SQLQuery>> batches = new ArrayList<>();
+        List<SQLQuery> currBatch = new ArrayList<>();
+
+        for (SQLQuery query : queries) {
+            if (!currBatch.isEmpty() && !isSameStatement(currBatch.get(0), query)) {
+                batches.add(currBatch);
+                currBatch = new ArrayList<>();
+            }
+
+            currBatch.add(query);
+        }
+
+        if (!currBatch.isEmpty()) {
+            batches.add(currBatch);
+        }
+
+        return batches;
+    }
+
+    private static boolean isSameStatement(SQLQuery query, SQLQuery otherQuery)
+    {
+        return query.isCacheable() == otherQuery.isCacheable()
+                && query.getSQL().equals(otherQuery.getSQL());
+    }
 }
@@ -0,0 +1,14 @@
+package bitimage.storage.postgres.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class CountResultSetMapper
+        extends ResultSetMapper<Long>
+{
+    public Long mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        return results.getLong("count");
+    }
+}
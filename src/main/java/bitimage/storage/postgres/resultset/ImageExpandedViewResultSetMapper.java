@@ -4,11 +4,11 @@ import bitimage.storage.dto.ImageDTO;
 import bitimage.storage.dto.LabelDTO;
 import bitimage.storage.dto.TagDTO;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 
 public class ImageExpandedViewResultSetMapper
@@ -16,23 +16,37 @@ public class ImageExpandedViewResultSetMapper
 {
     private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 
+    // readers are immutable and thread safe, so are built once rather than per row
+    private static final ObjectReader TAGS_READER = JSON_MAPPER
+            .readerFor(new TypeReference<List<TagDTO>>() {});
+    private static final ObjectReader LABELS_READER = JSON_MAPPER
+            .readerFor(new TypeReference<List<LabelDTO>>() {});
+
+    private int tagsColumn;
+    private int contentLabelsColumn;
+
     public ImageExpandedViewResultSetMapper()
     {
         super();
     }
 
+    protected void resolveColumns(ResultSet results)
+            throws SQLException
+    {
+        super.resolveColumns(results);
+
+        tagsColumn = results.findColumn("tags");
+        contentLabelsColumn = results.findColumn("content_labels");
+    }
+
     public ImageDTO mapRowToDTO(ResultSet results)
             throws Exception
     {
         ImageDTO imageDTO = super.mapRowToDTO(results);
 
-        JsonNode tagsJson = JSON_MAPPER.readTree(results.getString("tags"));
-        ObjectReader tagsReader = JSON_MAPPER.readerFor(new TypeReference<List<TagDTO>>() {});
-        List<TagDTO> tagDTOs = tagsReader.readValue(tagsJson);
-
-        JsonNode labelsJson = JSON_MAPPER.readTree(results.getString("content_labels"));
-        ObjectReader labelsReader = JSON_MAPPER.readerFor(new TypeReference<List<LabelDTO>>() {});
-        List<LabelDTO> labelDTOs = labelsReader.readValue(labelsJson);
+        // json is bound straight to dtos in one streaming pass, without building a tree first
+        List<TagDTO> tagDTOs = TAGS_READER.readValue(results.getString(tagsColumn));
+        List<LabelDTO> labelDTOs = LABELS_READER.readValue(results.getString(contentLabelsColumn));
 
         imageDTO.tag_dtos = tagDTOs;
         imageDTO.label_dtos = labelDTOs;
@@ -3,23 +3,52 @@ package bitimage.storage.postgres.resultset;
 import bitimage.storage.dto.ImageDTO;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.UUID;
 
+/**
+ * Maps image rows by column position. Uuid columns are decoded
+ * by the driver directly into UUIDs, and the md5 hash (stored
+ * as a uuid) is formatted as hex here rather than in sql.
+ */
 public class ImageResultSetMapper
         extends ResultSetMapper<ImageDTO>
 {
+    private int idColumn;
+    private int nameColumn;
+    private int userIDColumn;
+    private int hashMd5Column;
+    private int sizeBytesColumn;
+    private int fileFormatColumn;
+    private int isPrivateColumn;
+    private int updatedAtColumn;
+
+    protected void resolveColumns(ResultSet results)
+            throws SQLException
+    {
+        idColumn = results.findColumn("id");
+        nameColumn = results.findColumn("name");
+        userIDColumn = results.findColumn("user_id");
+        hashMd5Column = results.findColumn("hash_md5");
+        sizeBytesColumn = results.findColumn("size_bytes");
+        fileFormatColumn = results.findColumn("file_format");
+        isPrivateColumn = results.findColumn("is_private");
+        updatedAtColumn = results.findColumn("updated_at");
+    }
+
     public ImageDTO mapRowToDTO(ResultSet results)
             throws Exception
     {
         ImageDTO imageDTO = new ImageDTO();
 
-        imageDTO.id = (UUID) results.getObject("id");
-        imageDTO.name = results.getString("name");
-        imageDTO.user_id = (UUID) results.getObject("user_id");
-        imageDTO.hash_md5 = results.getString("hash_md5");
-        imageDTO.size_bytes = results.getFloat("size_bytes");
-        imageDTO.file_format = results.getString("file_format");
-        imageDTO.is_private = results.getBoolean("is_private");
+        imageDTO.id = results.getObject(idColumn, UUID.class);
+        imageDTO.name = results.getString(nameColumn);
+        imageDTO.user_id = results.getObject(userIDColumn, UUID.class);
+        imageDTO.hash_md5 = UUIDHexEncoder.encode(results.getObject(hashMd5Column, UUID.class));
+        imageDTO.size_bytes = results.getLong(sizeBytesColumn);
+        imageDTO.file_format = results.getString(fileFormatColumn);
+        imageDTO.is_private = results.getBoolean(isPrivateColumn);
+        imageDTO.updated_at = results.getTimestamp(updatedAtColumn);
 
         return imageDTO;
     }
@@ -0,0 +1,23 @@
+package bitimage.storage.postgres.resultset;
+
+import bitimage.storage.dto.LabelDTO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+public class LabelResultSetMapper
+        extends ResultSetMapper<LabelDTO>
+{
+    public LabelDTO mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        LabelDTO labelDTO = new LabelDTO();
+
+        labelDTO.id = results.getObject("id", UUID.class);
+        labelDTO.name = results.getString("name");
+        labelDTO.content_category = results.getString("content_category");
+
+        return labelDTO;
+    }
+}
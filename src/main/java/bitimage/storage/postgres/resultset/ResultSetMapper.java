@@ -1,8 +1,14 @@
 package bitimage.storage.postgres.resultset;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class ResultSetMapper<T>
 {
@@ -10,6 +16,7 @@ public abstract class ResultSetMapper<T>
             throws Exception
     {
         List<T> dtos = new ArrayList<>();
+        resolveColumns(results);
 
         while (results.next()) {
             T dto = mapRowToDTO(results);
@@ -19,6 +26,58 @@ public abstract class ResultSetMapper<T>
         return dtos;
     }
 
+    /**
+     * Lazily maps rows as the stream is consumed, so only the
+     * rows fetched so far are held in memory.
+     *
+     * @postcondition Result set must be closed after, by the
+     * stream's close handler.
+     */
+    public Stream<T> mapToDTOStream(ResultSet results)
+            throws SQLException
+    {
+        resolveColumns(results);
+
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(
+                Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+
+            public boolean tryAdvance(Consumer<? super T> action)
+            {
+                try {
+                    if (!results.next()) {
+                        return false;
+                    }
+
+                    action.accept(mapRowToDTO(results));
+                    return true;
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(rows, false);
+    }
+
+    /**
+     * Resolves column positions once per result set, before any
+     * rows are mapped, so rows can be read by index rather than
+     * looking each column up by name on every row.
+     */
+    protected void resolveColumns(ResultSet results)
+            throws SQLException
+    {
+    }
+
+    /**
+     * @precondition Columns must be resolved for result set, by
+     * calling resolveColumns().
+     */
     public abstract T mapRowToDTO(ResultSet results)
             throws Exception;
 }
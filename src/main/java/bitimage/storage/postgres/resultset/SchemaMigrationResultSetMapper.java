@@ -0,0 +1,23 @@
+package bitimage.storage.postgres.resultset;
+
+import bitimage.storage.dto.SchemaMigrationDTO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class SchemaMigrationResultSetMapper
+        extends ResultSetMapper<SchemaMigrationDTO>
+{
+    public SchemaMigrationDTO mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        SchemaMigrationDTO migrationDTO = new SchemaMigrationDTO();
+
+        migrationDTO.version = results.getInt("version");
+        migrationDTO.description = results.getString("description");
+        migrationDTO.checksum = results.getString("checksum");
+        migrationDTO.applied_at = results.getTimestamp("applied_at");
+
+        return migrationDTO;
+    }
+}
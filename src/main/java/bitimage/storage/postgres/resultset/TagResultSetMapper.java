@@ -0,0 +1,22 @@
+package bitimage.storage.postgres.resultset;
+
+import bitimage.storage.dto.TagDTO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+public class TagResultSetMapper
+        extends ResultSetMapper<TagDTO>
+{
+    public TagDTO mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        TagDTO tagDTO = new TagDTO();
+
+        tagDTO.id = results.getObject("id", UUID.class);
+        tagDTO.name = results.getString("name");
+
+        return tagDTO;
+    }
+}
@@ -0,0 +1,42 @@
+package bitimage.storage.postgres.resultset;
+
+import java.util.UUID;
+
+/**
+ * Formats UUIDs as 32 character lowercase hex strings (no
+ * dashes), as used for md5 hashes stored in uuid columns.
+ */
+public final class UUIDHexEncoder
+{
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private UUIDHexEncoder()
+    {
+    }
+
+    /**
+     * Writes hex digits straight from the uuid's two longs,
+     * allocating only the resulting string.
+     */
+    public static String encode(UUID uuid)
+    {
+        if (uuid == null) {
+            return null;
+        }
+
+        char[] hex = new char[32];
+
+        writeHex(uuid.getMostSignificantBits(), hex, 0);
+        writeHex(uuid.getLeastSignificantBits(), hex, 16);
+
+        return new String(hex);
+    }
+
+    private static void writeHex(long bits, char[] hex, int offset)
+    {
+        for (int i = 15; i >= 0; i--) {
+            hex[offset + i] = HEX_DIGITS[(int) (bits & 0xF)];
+            bits >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package bitimage.storage.postgres.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+public class UUIDResultSetMapper
+        extends ResultSetMapper<UUID>
+{
+    public UUID mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        return results.getObject("id", UUID.class);
+    }
+}
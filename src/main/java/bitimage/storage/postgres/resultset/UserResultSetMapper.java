@@ -0,0 +1,28 @@
+package bitimage.storage.postgres.resultset;
+
+import bitimage.storage.dto.UserDTO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+public class UserResultSetMapper
+        extends ResultSetMapper<UserDTO>
+{
+    public UserDTO mapRowToDTO(ResultSet results)
+            throws SQLException
+    {
+        UserDTO userDTO = new UserDTO();
+
+        userDTO.id = results.getObject("id", UUID.class);
+        userDTO.created_at = results.getTimestamp("created_at");
+        userDTO.updated_at = results.getTimestamp("updated_at");
+        userDTO.image_upload_count = results.getInt("image_upload_count");
+
+        // a null upload limit is unlimited, as checked by the database
+        Integer uploadLimit = results.getObject("image_upload_limit", Integer.class);
+        userDTO.image_upload_limit = uploadLimit != null ? uploadLimit : Integer.MAX_VALUE;
+
+        return userDTO;
+    }
+}
@@ -7,4 +7,8 @@ public interface AwsEnv
     String getAwsAccessKey();
 
     String getAwsRegion();
+
+    long getAwsViewUrlMinValidityMs();
+
+    int getAwsViewUrlCacheSize();
 }
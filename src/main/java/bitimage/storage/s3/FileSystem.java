@@ -13,6 +13,16 @@ public interface FileSystem
 
     String generateFileUploadUrl(String fileID, String folderName);
 
+    /**
+     * @return view urls, in the same order as given file ids.
+     */
+    List<String> generateFileViewUrls(List<String> fileIDs, String folderName);
+
+    /**
+     * @return upload urls, in the same order as given file ids.
+     */
+    List<String> generateFileUploadUrls(List<String> fileIDs, String folderName);
+
     FileMetadataDTO getFileMetadata(String fileID, String folderName);
 
     void deleteFilesFromFolder(List<String> fileIDs, String folderName);
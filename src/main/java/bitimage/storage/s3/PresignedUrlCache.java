@@ -0,0 +1,189 @@
+package bitimage.storage.s3;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Cache of presigned view urls, shared by all file systems,
+ * so repeated listings of the same images skip signing.
+ *
+ * <p>Urls are signed with an expiration time aligned to the
+ * url ttl, rather than relative to the signing time, so every
+ * request within the same time bucket gets the same url for a
+ * file. A url is valid for at least the minimum validity, and
+ * at most the ttl plus the minimum validity: once less than the
+ * minimum validity remains, urls are signed for the next bucket.
+ *
+ * <p>Only the current bucket's urls are held, and are dropped
+ * wholesale when the bucket changes, so expired urls are never
+ * served or kept. Once the bucket holds the maximum number of
+ * urls, further urls are signed without being cached.
+ */
+public class PresignedUrlCache
+{
+    private final long urlTtlMs;
+    private final long minValidityMs;
+    private final int maxSize;
+    private final AtomicReference<Bucket> currBucket;
+
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+
+    /**
+     * @param minValidityMs minimum time a returned url stays
+     * valid for, which must be less than the url ttl.
+     */
+    public PresignedUrlCache(long urlTtlMs, long minValidityMs, int maxSize)
+    {
+        this.urlTtlMs = urlTtlMs;
+        this.minValidityMs = minValidityMs;
+        this.maxSize = maxSize;
+        this.currBucket = new AtomicReference<>(new Bucket(0));
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+    }
+
+    /**
+     * Gets the cached url of a file, or signs a new url on a
+     * miss, expiring at the current bucket's expiration time.
+     */
+    public String getOrSign(String folderName, String fileID, Function<Date, String> urlSigner)
+    {
+        long expirationMs = getBucketExpirationMs(System.currentTimeMillis());
+        Bucket bucket = getBucket(expirationMs);
+        String key = folderName + "/" + fileID;
+
+        String url = bucket.urls.get(key);
+
+        if (url != null) {
+            hitCount.increment();
+            return url;
+        }
+
+        missCount.increment();
+        url = urlSigner.apply(new Date(expirationMs));
+
+        if (bucket.expirationMs == expirationMs && bucket.urls.size() < maxSize) {
+            bucket.urls.putIfAbsent(key, url);
+        }
+
+        return url;
+    }
+
+    /**
+     * Gets the cached urls of many files, signing all missed
+     * urls with a single call to the signer.
+     *
+     * @param urlsSigner signs urls of the missed file ids, in
+     * the same order, expiring at the given time.
+     * @return urls, in the same order as given file ids.
+     */
+    public List<String> getOrSignAll(
+            String folderName,
+            List<String> fileIDs,
+            BiFunction<List<String>, Date, List<String>> urlsSigner)
+    {
+        long expirationMs = getBucketExpirationMs(System.currentTimeMillis());
+        Bucket bucket = getBucket(expirationMs);
+
+        List<String> urls = new ArrayList<>(fileIDs.size());
+        List<Integer> missedIndexes = new ArrayList<>();
+        List<String> missedFileIDs = new ArrayList<>();
+
+        for (String fileID : fileIDs) {
+            String url = bucket.urls.get(folderName + "/" + fileID);
+
+            if (url == null) {
+                missedIndexes.add(urls.size());
+                missedFileIDs.add(fileID);
+            }
+
+            urls.add(url);
+        }
+
+        hitCount.add(fileIDs.size() - missedFileIDs.size());
+        missCount.add(missedFileIDs.size());
+
+        if (missedFileIDs.isEmpty()) {
+            return urls;
+        }
+
+        List<String> signedUrls = urlsSigner.apply(missedFileIDs, new Date(expirationMs));
+        boolean isCacheable = bucket.expirationMs == expirationMs;
+
+        for (int i = 0; i < signedUrls.size(); i++) {
+            String url = signedUrls.get(i);
+            urls.set(missedIndexes.get(i), url);
+
+            if (isCacheable && bucket.urls.size() < maxSize) {
+                bucket.urls.putIfAbsent(folderName + "/" + missedFileIDs.get(i), url);
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * Gets the end of the earliest bucket that leaves at least
+     * the minimum validity.
+     */
+    private long getBucketExpirationMs(long nowMs)
+    {
+        return ((nowMs + minValidityMs) / urlTtlMs + 1) * urlTtlMs;
+    }
+
+    /**
+     * Replaces the current bucket once its expiration time has
+     * passed. Of threads racing to replace it, one succeeds, and
+     * the others use the winner's bucket.
+     */
+    private Bucket getBucket(long expirationMs)
+    {
+        Bucket bucket = currBucket.get();
+
+        if (bucket.expirationMs >= expirationMs) {
+            return bucket;
+        }
+
+        Bucket newBucket = new Bucket(expirationMs);
+
+        return currBucket.compareAndSet(bucket, newBucket) ? newBucket : currBucket.get();
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of urls cached for the current bucket.
+     */
+    public int getSize()
+    {
+        return currBucket.get().urls.size();
+    }
+
+    private static class Bucket
+    {
+        private final long expirationMs;
+        private final Map<String, String> urls;
+
+        private Bucket(long expirationMs)
+        {
+            this.expirationMs = expirationMs;
+            this.urls = new ConcurrentHashMap<>();
+        }
+    }
+}
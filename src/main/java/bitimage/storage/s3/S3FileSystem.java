@@ -5,7 +5,7 @@ import bitimage.storage.dto.FileMetadataDTO;
 import bitimage.storage.exceptions.ExceptionTranslator;
 import bitimage.storage.exceptions.StorageObjectAlreadyExistsException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.HttpMethod;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
@@ -15,7 +15,6 @@ import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
-import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -26,7 +25,7 @@ import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.model.CopyResult;
 import com.google.common.util.concurrent.Striped;
 
-import java.util.Date;
+import java.time.Clock;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
@@ -41,40 +40,55 @@ public class S3FileSystem
     private final TransferManager s3TransferManager;
     private final ExceptionTranslator<AmazonServiceException, RuntimeException>
             exceptionTranslator;
+    private final S3UrlPresigner urlPresigner;
+    private final PresignedUrlCache viewUrlCache;
 
     Striped<Lock> resourceLocks = Striped.lazyWeakLock(RESOURCE_LOCK_STRIPE_COUNT);
 
-    private static final Integer URL_TTL_MS = 120000;
+    public static final long URL_TTL_MS = 120000;
     private static final int RESOURCE_LOCK_STRIPE_COUNT = 10;
 
     private S3FileSystem(
             AmazonS3 s3Client,
             TransferManager s3TransferManager,
-            ExceptionTranslator<AmazonServiceException, RuntimeException> exceptionTranslator)
+            ExceptionTranslator<AmazonServiceException, RuntimeException> exceptionTranslator,
+            S3UrlPresigner urlPresigner,
+            PresignedUrlCache viewUrlCache)
     {
         this.s3Client = s3Client;
         this.s3TransferManager = s3TransferManager;
         this.exceptionTranslator = exceptionTranslator;
+        this.urlPresigner = urlPresigner;
+        this.viewUrlCache = viewUrlCache;
     }
 
     public static S3FileSystem CreateNew(
             AwsEnv env,
-            ExceptionTranslator<AmazonServiceException, RuntimeException> exceptionTranslator)
+            ExceptionTranslator<AmazonServiceException, RuntimeException> exceptionTranslator,
+            PresignedUrlCache viewUrlCache)
     {
         BasicAWSCredentials awsCredentials = new BasicAWSCredentials(
                 env.getAwsAccessID(),
                 env.getAwsAccessKey());
 
+        AWSCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(awsCredentials);
+
         AmazonS3 s3Client = AmazonS3ClientBuilder.standard()
                 .withRegion(env.getAwsRegion())
-                .withCredentials(new AWSStaticCredentialsProvider(awsCredentials))
+                .withCredentials(credentialsProvider)
                 .build();
 
         TransferManager s3TransferManager = TransferManagerBuilder.standard()
                 .withS3Client(s3Client)
                 .build();
 
-        return new S3FileSystem(s3Client, s3TransferManager, exceptionTranslator);
+        S3UrlPresigner urlPresigner = new S3UrlPresigner(
+                credentialsProvider,
+                env.getAwsRegion(),
+                s3Client::getUrl,
+                Clock.systemUTC());
+
+        return new S3FileSystem(s3Client, s3TransferManager, exceptionTranslator, urlPresigner, viewUrlCache);
     }
 
     public void createFolder(String folderName)
@@ -159,31 +173,38 @@ public class S3FileSystem
 
     public String generateFileUploadUrl(String fileID, String folderName)
     {
-        GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(folderName, fileID)
-                .withMethod(HttpMethod.PUT)
-                .withExpiration(getHourExpirationTime());
+        return urlPresigner.presignUpload(folderName, fileID, getUploadExpirationTimeMs());
+    }
 
-        return s3Client.generatePresignedUrl(request).toString();
+    public List<String> generateFileUploadUrls(List<String> fileIDs, String folderName)
+    {
+        return urlPresigner.presignUploads(folderName, fileIDs, getUploadExpirationTimeMs());
     }
 
+    /**
+     * View urls are taken from the view url cache, and only
+     * signed on a miss, so their expiration time is set by the
+     * cache's time bucket.
+     */
     public String generateFileViewUrl(String fileID, String folderName)
     {
-        GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(folderName, fileID)
-                .withMethod(HttpMethod.GET)
-                .withExpiration(getHourExpirationTime());
-
-        return s3Client.generatePresignedUrl(request).toString();
+        return viewUrlCache.getOrSign(folderName, fileID, expirationTime ->
+                urlPresigner.presignView(folderName, fileID, expirationTime.getTime()));
     }
 
-    private static Date getHourExpirationTime()
+    /**
+     * Urls missed by the view url cache are signed together, in
+     * a single call to the presigner.
+     */
+    public List<String> generateFileViewUrls(List<String> fileIDs, String folderName)
     {
-        long currTimeMs = System.currentTimeMillis();
-        long expTimeMs = currTimeMs + S3FileSystem.URL_TTL_MS;
-
-        Date expirationTime = new java.util.Date();
-        expirationTime.setTime(expTimeMs);
+        return viewUrlCache.getOrSignAll(folderName, fileIDs, (missedFileIDs, expirationTime) ->
+                urlPresigner.presignViews(folderName, missedFileIDs, expirationTime.getTime()));
+    }
 
-        return expirationTime;
+    private static long getUploadExpirationTimeMs()
+    {
+        return System.currentTimeMillis() + S3FileSystem.URL_TTL_MS;
     }
 
     public FileMetadataDTO getFileMetadata(String fileID, String folderName)
@@ -0,0 +1,457 @@
+package bitimage.storage.s3;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs presigned S3 urls (AWS signature version 4, with the
+ * signature in the query string) without going through the
+ * S3 client, which builds a request object, resolves
+ * credentials and derives a new signing key for every url.
+ *
+ * <p>The signing key is derived once per day (the lifetime of
+ * its credential scope) and shared by all threads. Each thread
+ * keeps its own Mac, digest and string builder, so signing a
+ * url allocates little more than the url itself.
+ *
+ * <p>Credentials are taken from the provider once per batch
+ * of urls, so rotated (ex. session) credentials are picked up,
+ * and session tokens are signed into the url as the S3 client
+ * does. Bucket endpoints are resolved once per bucket by the
+ * S3 client, so urls address the same protocol, host and port
+ * as it does.
+ */
+public class S3UrlPresigner
+{
+    private static final String SIGNING_ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String SERVICE_NAME = "s3";
+    private static final String TERMINATOR = "aws4_request";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final long MAX_EXPIRES_SECONDS = 604800;
+
+    private static final DateTimeFormatter AMZ_DATE_FORMAT = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final AWSCredentialsProvider credentialsProvider;
+    private final String region;
+    private final Clock clock;
+    private final Function<String, Endpoint> endpointResolver;
+    private final Map<String, Endpoint> endpointsByBucket;
+
+    private final AtomicReference<SigningTime> currSigningTime;
+    private final AtomicReference<SigningKey> currSigningKey;
+    private final ThreadLocal<Signer> signers;
+
+    /**
+     * @param urlResolver resolves a bucket name and object key
+     * into the object's unsigned url (ex. by the S3 client).
+     * @param clock sets the signing time of urls.
+     */
+    public S3UrlPresigner(
+            AWSCredentialsProvider credentialsProvider,
+            String region,
+            UrlResolver urlResolver,
+            Clock clock)
+    {
+        this.credentialsProvider = credentialsProvider;
+        this.region = region;
+        this.clock = clock;
+        this.endpointResolver = bucketName -> Endpoint.Resolve(urlResolver, bucketName);
+        this.endpointsByBucket = new ConcurrentHashMap<>();
+        this.currSigningTime = new AtomicReference<>(new SigningTime(Long.MIN_VALUE));
+        this.currSigningKey = new AtomicReference<>(new SigningKey("", "", "", new byte[0], "", ""));
+        this.signers = ThreadLocal.withInitial(Signer::new);
+    }
+
+    public String presignUpload(String bucketName, String objectKey, long expirationTimeMs)
+    {
+        return presign("PUT", bucketName, objectKey, expirationTimeMs);
+    }
+
+    public String presignView(String bucketName, String objectKey, long expirationTimeMs)
+    {
+        return presign("GET", bucketName, objectKey, expirationTimeMs);
+    }
+
+    /**
+     * Signs urls for many objects of the same bucket. Signing
+     * time, credentials, key and endpoint are looked up once for
+     * all urls.
+     */
+    public List<String> presignUploads(String bucketName, List<String> objectKeys, long expirationTimeMs)
+    {
+        return presignAll("PUT", bucketName, objectKeys, expirationTimeMs);
+    }
+
+    public List<String> presignViews(String bucketName, List<String> objectKeys, long expirationTimeMs)
+    {
+        return presignAll("GET", bucketName, objectKeys, expirationTimeMs);
+    }
+
+    private String presign(String method, String bucketName, String objectKey, long expirationTimeMs)
+    {
+        return presignAll(method, bucketName, List.of(objectKey), expirationTimeMs).get(0);
+    }
+
+    private List<String> presignAll(
+            String method,
+            String bucketName,
+            List<String> objectKeys,
+            long expirationTimeMs)
+    {
+        long nowMs = clock.millis();
+
+        AWSCredentials credentials = credentialsProvider.getCredentials();
+        SigningTime signingTime = getSigningTime(nowMs);
+        SigningKey signingKey = getSigningKey(credentials, signingTime.dateStamp);
+        Endpoint endpoint = endpointsByBucket.computeIfAbsent(bucketName, endpointResolver);
+        Signer signer = signers.get();
+
+        // as the S3 client does, urls never outlive the given expiration time
+        long expiresSeconds = Math.min(
+                MAX_EXPIRES_SECONDS,
+                Math.max(1, (expirationTimeMs - nowMs) / 1000));
+
+        // query parameters are kept in the sorted order signing requires
+        String canonicalQueryPrefix = "X-Amz-Algorithm=" + SIGNING_ALGORITHM
+                + "&X-Amz-Credential=" + signingKey.encodedCredential
+                + "&X-Amz-Date=" + signingTime.amzDate
+                + "&X-Amz-Expires=" + expiresSeconds
+                + getSecurityTokenParam(credentials)
+                + "&X-Amz-SignedHeaders=host";
+
+        List<String> urls = new ArrayList<>(objectKeys.size());
+
+        for (String objectKey : objectKeys) {
+            urls.add(signer.sign(method, endpoint, objectKey, canonicalQueryPrefix, signingTime, signingKey));
+        }
+
+        return urls;
+    }
+
+    /**
+     * Signing time only changes once per second, so its
+     * formatted strings are shared until then.
+     */
+    private SigningTime getSigningTime(long nowMs)
+    {
+        long epochSecond = nowMs / 1000;
+        SigningTime signingTime = currSigningTime.get();
+
+        if (signingTime.epochSecond != epochSecond) {
+            signingTime = new SigningTime(epochSecond);
+            currSigningTime.set(signingTime);
+        }
+
+        return signingTime;
+    }
+
+    /**
+     * Derives the signing key for the given credentials and
+     * date, or reuses the key derived for the current ones.
+     * Credentials are trimmed, as the S3 client does.
+     */
+    private SigningKey getSigningKey(AWSCredentials credentials, String dateStamp)
+    {
+        String accessKeyID = credentials.getAWSAccessKeyId().trim();
+        String secretAccessKey = credentials.getAWSSecretKey().trim();
+        SigningKey signingKey = currSigningKey.get();
+
+        if (signingKey.dateStamp.equals(dateStamp)
+                && signingKey.accessKeyID.equals(accessKeyID)
+                && signingKey.secretAccessKey.equals(secretAccessKey)) {
+            return signingKey;
+        }
+
+        Mac mac = newMac();
+        byte[] secretKey = ("AWS4" + secretAccessKey).getBytes(StandardCharsets.UTF_8);
+        byte[] dateKey = hmac(mac, secretKey, dateStamp);
+        byte[] regionKey = hmac(mac, dateKey, region);
+        byte[] serviceKey = hmac(mac, regionKey, SERVICE_NAME);
+        byte[] key = hmac(mac, serviceKey, TERMINATOR);
+
+        String credentialScope = dateStamp + "/" + region + "/" + SERVICE_NAME + "/" + TERMINATOR;
+        String encodedCredential = uriEncode(accessKeyID + "/" + credentialScope, true);
+
+        signingKey = new SigningKey(accessKeyID, secretAccessKey, dateStamp, key, credentialScope, encodedCredential);
+        currSigningKey.set(signingKey);
+
+        return signingKey;
+    }
+
+    private static String getSecurityTokenParam(AWSCredentials credentials)
+    {
+        if (!(credentials instanceof AWSSessionCredentials)) {
+            return "";
+        }
+
+        String sessionToken = ((AWSSessionCredentials) credentials).getSessionToken().trim();
+
+        return "&X-Amz-Security-Token=" + uriEncode(sessionToken, true);
+    }
+
+    private static byte[] hmac(Mac mac, byte[] key, String data)
+    {
+        try {
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Mac newMac()
+    {
+        try {
+            return Mac.getInstance(HMAC_ALGORITHM);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String uriEncode(String value, boolean encodeSlash)
+    {
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        appendUriEncoded(builder, value, encodeSlash);
+
+        return builder.toString();
+    }
+
+    /**
+     * Percent encodes all but unreserved characters, as
+     * required by signature version 4. Object keys keep their
+     * slashes, which S3 treats as part of the path.
+     */
+    private static void appendUriEncoded(StringBuilder builder, String value, boolean encodeSlash)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                builder.append(c);
+                continue;
+            }
+
+            int end = i + 1;
+
+            if (Character.isHighSurrogate(c) && end < value.length()) {
+                end++;
+            }
+
+            for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                builder.append('%')
+                        .append(Character.toUpperCase(HEX_DIGITS[(b >> 4) & 0xf]))
+                        .append(Character.toUpperCase(HEX_DIGITS[b & 0xf]));
+            }
+
+            i = end - 1;
+        }
+    }
+
+    private static void appendHex(StringBuilder builder, byte[] bytes)
+    {
+        for (byte b : bytes) {
+            builder.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+    }
+
+    /**
+     * Resolves a bucket's object url, from which its protocol,
+     * host and path prefix (for path style urls) are taken.
+     */
+    public interface UrlResolver
+    {
+        URL resolve(String bucketName, String objectKey);
+    }
+
+    private static class Endpoint
+    {
+        private static final String PROBE_KEY = "key";
+
+        private final String origin;
+        private final String host;
+        private final String pathPrefix;
+
+        private Endpoint(String origin, String host, String pathPrefix)
+        {
+            this.origin = origin;
+            this.host = host;
+            this.pathPrefix = pathPrefix;
+        }
+
+        /**
+         * The signed host header only carries the port when it is
+         * not the protocol's default port.
+         */
+        private static Endpoint Resolve(UrlResolver urlResolver, String bucketName)
+        {
+            URL url = urlResolver.resolve(bucketName, PROBE_KEY);
+            String path = url.getPath();
+            int port = url.getPort();
+
+            String host = port == -1 || port == url.getDefaultPort()
+                    ? url.getHost()
+                    : url.getHost() + ":" + port;
+
+            return new Endpoint(
+                    url.getProtocol() + "://" + host,
+                    host,
+                    path.substring(0, path.length() - PROBE_KEY.length()));
+        }
+    }
+
+    private static class SigningTime
+    {
+        private final long epochSecond;
+        private final String amzDate;
+        private final String dateStamp;
+
+        private SigningTime(long epochSecond)
+        {
+            this.epochSecond = epochSecond;
+            this.amzDate = epochSecond == Long.MIN_VALUE
+                    ? ""
+                    : AMZ_DATE_FORMAT.format(Instant.ofEpochSecond(epochSecond));
+            this.dateStamp = amzDate.isEmpty() ? "" : amzDate.substring(0, 8);
+        }
+    }
+
+    private static class SigningKey
+    {
+        private final String accessKeyID;
+        private final String secretAccessKey;
+        private final String dateStamp;
+        private final byte[] key;
+        private final String credentialScope;
+        private final String encodedCredential;
+
+        private SigningKey(
+                String accessKeyID,
+                String secretAccessKey,
+                String dateStamp,
+                byte[] key,
+                String credentialScope,
+                String encodedCredential)
+        {
+            this.accessKeyID = accessKeyID;
+            this.secretAccessKey = secretAccessKey;
+            this.dateStamp = dateStamp;
+            this.key = key;
+            this.credentialScope = credentialScope;
+            this.encodedCredential = encodedCredential;
+        }
+    }
+
+    /**
+     * Per thread signing state. The Mac is only re-initialized
+     * when the signing key changes (once per day).
+     */
+    private static class Signer
+    {
+        private final Mac mac;
+        private final MessageDigest digest;
+        private final StringBuilder builder;
+        private byte[] macKey;
+
+        private Signer()
+        {
+            try {
+                this.mac = Mac.getInstance(HMAC_ALGORITHM);
+                this.digest = MessageDigest.getInstance("SHA-256");
+                this.builder = new StringBuilder(1024);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private String sign(
+                String method,
+                Endpoint endpoint,
+                String objectKey,
+                String canonicalQueryPrefix,
+                SigningTime signingTime,
+                SigningKey signingKey)
+        {
+            StringBuilder builder = this.builder;
+
+            // canonical uri
+            builder.setLength(0);
+            builder.append(endpoint.pathPrefix);
+            appendUriEncoded(builder, objectKey, false);
+            String canonicalUri = builder.toString();
+
+            // canonical request
+            builder.setLength(0);
+            builder.append(method).append('\n')
+                    .append(canonicalUri).append('\n')
+                    .append(canonicalQueryPrefix).append('\n')
+                    .append("host:").append(endpoint.host).append('\n')
+                    .append('\n')
+                    .append("host").append('\n')
+                    .append(UNSIGNED_PAYLOAD);
+
+            byte[] canonicalRequestHash = digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8));
+
+            // string to sign
+            builder.setLength(0);
+            builder.append(SIGNING_ALGORITHM).append('\n')
+                    .append(signingTime.amzDate).append('\n')
+                    .append(signingKey.credentialScope).append('\n');
+            appendHex(builder, canonicalRequestHash);
+
+            byte[] signature = mac(signingKey).doFinal(builder.toString().getBytes(StandardCharsets.UTF_8));
+
+            // url
+            builder.setLength(0);
+            builder.append(endpoint.origin)
+                    .append(canonicalUri)
+                    .append('?').append(canonicalQueryPrefix)
+                    .append("&X-Amz-Signature=");
+            appendHex(builder, signature);
+
+            return builder.toString();
+        }
+
+        private Mac mac(SigningKey signingKey)
+        {
+            if (macKey != signingKey.key) {
+                try {
+                    mac.init(new SecretKeySpec(signingKey.key, HMAC_ALGORITHM));
+                }
+                catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                macKey = signingKey.key;
+            }
+
+            return mac;
+        }
+    }
+}
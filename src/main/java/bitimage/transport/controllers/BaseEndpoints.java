@@ -4,4 +4,5 @@ public class BaseEndpoints
 {
     public static final String IMAGES = "api/v1/images";
     public static final String USERS = "api/v1/users";
+    public static final String METRICS = "api/v1/metrics";
 }
@@ -3,16 +3,19 @@ package bitimage.transport.controllers;
 import bitimage.shared.entities.Image;
 import bitimage.uploading.commands.CreateImageCmd;
 import bitimage.uploading.entities.FileUrl;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.services.ImageUploadService;
 import bitimage.regexp.RegexPatterns;
 import bitimage.transport.dto.ImageDTO;
 import bitimage.transport.dto.ImageUploadUrlsDTO;
 import bitimage.transport.dto.ImagesDTO;
+import bitimage.transport.dto.PageRequestDTO;
 import bitimage.transport.dto.SearchImageDTO;
 import bitimage.transport.mappers.ImageControllerMapper;
 import bitimage.transport.middleware.TokenChecker;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Delete;
@@ -20,6 +23,8 @@ import io.micronaut.http.annotation.Get;
 import io.micronaut.http.annotation.Post;
 import io.micronaut.http.annotation.QueryValue;
 import io.micronaut.validation.Validated;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
 
 import javax.inject.Inject;
 import javax.validation.Valid;
@@ -31,12 +36,15 @@ import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Validated
 @Controller(BaseEndpoints.IMAGES)
 public class ImageController
         extends BaseController
 {
+    private static final int STREAM_CHUNK_SIZE_BYTES = 8192;
+
     private final ImageUploadService imageUploadService;
     private final ImageControllerMapper mapper;
 
@@ -101,53 +109,98 @@ public class ImageController
         });
     }
 
-    @Get("/public/summary")
-    public HttpResponse<Object> getAllPublicImages()
+    @Get("/public/summary{?request*}")
+    public HttpResponse<Object> getAllPublicImages(@Valid PageRequestDTO request)
     {
         return super.handleRequest(() -> {
-            List<Image> images = imageUploadService.getAllPublicImages();
-            ImagesDTO imagesDTO = mapper.mapToListViewImagesDTO(images);
+            ImagePage imagePage = imageUploadService.getAllPublicImages(
+                    request.getPageCursor(),
+                    request.getPageSize());
+
+            ImagesDTO imagesDTO = mapper.mapToListViewImagesDTO(imagePage);
 
             return HttpResponse.ok(imagesDTO);
         });
     }
 
+    /**
+     * Listing all of a user's images without page parameters
+     * returns every image (streamed), otherwise results are
+     * returned a page at a time.
+     */
     @Get("/private/summary{?request*}")
     public HttpResponse<Object> searchImages(HttpHeaders headers, @Valid SearchImageDTO request)
     {
         return super.handleRequest(() -> {
             String user_id = tokenChecker.doAuthCheck(headers);
 
-            List<Image> images = searchImagesByProvidedParam(user_id, request);
-            ImagesDTO imagesDTO = mapper.mapToListViewImagesDTO(images);
+            if (!request.isSearchParamProvided() && !request.isPageRequested()) {
+                return getAllUserImages(user_id);
+            }
+
+            ImagePage imagePage = searchImagesByProvidedParam(user_id, request);
+            ImagesDTO imagesDTO = mapper.mapToListViewImagesDTO(imagePage);
 
             return HttpResponse.ok(imagesDTO);
         });
     }
 
     /**
-     * Searches for images (owned by a user) given search
-     * field provided (image name, tag or content label).
-     * Searches for all user's images if no search field
+     * Streams all of a user's images into a chunked response
+     * body, so only a chunk of json is held in memory at a time.
+     * Chunks are read (from the user's cached image list, or
+     * rdbms) on an io thread, as the client takes them, and the
+     * image stream (and any connection) is closed once the
+     * response completes, fails or is cancelled.
+     */
+    private HttpResponse<Object> getAllUserImages(String user_id)
+            throws Exception
+    {
+        Stream<Image> images = imageUploadService.streamAllUserImages(user_id);
+
+        Flowable<byte[]> imagesJson = Flowable
+                .using(
+                        () -> images,
+                        openImages -> Flowable.fromIterable(
+                                () -> mapper.mapToListViewImagesJsonChunks(openImages, STREAM_CHUNK_SIZE_BYTES)),
+                        Stream::close)
+                .subscribeOn(Schedulers.io());
+
+        return HttpResponse.<Object>ok(imagesJson)
+                .contentType(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    /**
+     * Searches for a page of images (owned by a user) given
+     * search field provided (image name prefix, image name
+     * substring, tag or content label).
+     * Gets a page of all user's images if no search field
      * is provided.
      */
-    private List<Image> searchImagesByProvidedParam(String user_id, SearchImageDTO request)
+    private ImagePage searchImagesByProvidedParam(String user_id, SearchImageDTO request)
             throws Exception
     {
+        String pageCursor = request.getPageCursor();
+        int pageSize = request.getPageSize();
+
         if (request.name.isPresent()) {
             String imageName = request.name.get();
-            return imageUploadService.searchImagesByName(user_id, imageName);
+            return imageUploadService.searchImagesByName(user_id, imageName, pageCursor, pageSize);
+        }
+        else if (request.name_contains.isPresent()) {
+            String imageNameText = request.name_contains.get();
+            return imageUploadService.searchImagesByNameContaining(user_id, imageNameText, pageCursor, pageSize);
         }
         else if (request.tag.isPresent()) {
             String tagName = request.tag.get();
-            return imageUploadService.searchImagesByTag(user_id, tagName);
+            return imageUploadService.searchImagesByTag(user_id, tagName, pageCursor, pageSize);
         }
         else if (request.content_label.isPresent()) {
             String contentLabel = request.content_label.get();
-            return imageUploadService.searchImagesByContentLabel(user_id, contentLabel);
+            return imageUploadService.searchImagesByContentLabel(user_id, contentLabel, pageCursor, pageSize);
         }
         else {
-            return imageUploadService.getAllUserImages(user_id);
+            return imageUploadService.getAllUserImages(user_id, pageCursor, pageSize);
         }
     }
 
@@ -0,0 +1,89 @@
+package bitimage.transport.controllers;
+
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.cache.SnapshotCache;
+import bitimage.storage.cache.UserExistenceCache;
+import bitimage.storage.cache.UserImageListCache;
+import bitimage.storage.postgres.connection.ConnectionHandler;
+import bitimage.storage.postgres.connection.ReadRouter;
+import bitimage.storage.postgres.query.QueryMetrics;
+import bitimage.storage.s3.PresignedUrlCache;
+import bitimage.transport.dto.MetricsDTO;
+import bitimage.transport.mappers.MetricsControllerMapper;
+import bitimage.transport.middleware.TokenChecker;
+import bitimage.uploading.entities.ImagePage;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+
+import javax.inject.Inject;
+
+/**
+ * Exposes database query, statement cache, connection pool,
+ * read routing and cache (view url, public feed, user image,
+ * expanded image and user existence) metrics. Metrics are
+ * aggregates holding no user data, but are served on the
+ * public port, so requests must carry a valid token like any
+ * other endpoint.
+ */
+@Controller(BaseEndpoints.METRICS)
+public class MetricsController
+        extends BaseController
+{
+    private final QueryMetrics queryMetrics;
+    private final ConnectionHandler connectionHandler;
+    private final ReadRouter readRouter;
+    private final PresignedUrlCache viewUrlCache;
+    private final SnapshotCache<String, ImagePage> publicFeedCache;
+    private final UserImageListCache userImageListCache;
+    private final ExpandedImageCache expandedImageCache;
+    private final UserExistenceCache userExistenceCache;
+    private final MetricsControllerMapper mapper;
+
+    @Inject
+    public MetricsController(
+            QueryMetrics queryMetrics,
+            ConnectionHandler connectionHandler,
+            ReadRouter readRouter,
+            PresignedUrlCache viewUrlCache,
+            SnapshotCache<String, ImagePage> publicFeedCache,
+            UserImageListCache userImageListCache,
+            ExpandedImageCache expandedImageCache,
+            UserExistenceCache userExistenceCache,
+            MetricsControllerMapper mapper,
+            TokenChecker tokenChecker)
+    {
+        super(tokenChecker);
+
+        this.queryMetrics = queryMetrics;
+        this.connectionHandler = connectionHandler;
+        this.readRouter = readRouter;
+        this.viewUrlCache = viewUrlCache;
+        this.publicFeedCache = publicFeedCache;
+        this.userImageListCache = userImageListCache;
+        this.expandedImageCache = expandedImageCache;
+        this.userExistenceCache = userExistenceCache;
+        this.mapper = mapper;
+    }
+
+    @Get()
+    public HttpResponse<Object> getMetrics(HttpHeaders headers)
+    {
+        return super.handleRequest(() -> {
+            tokenChecker.doAuthCheck(headers);
+
+            MetricsDTO metricsDTO = mapper.mapToMetricsDTO(
+                    queryMetrics,
+                    connectionHandler.getPoolMetrics(),
+                    readRouter.getMetrics(),
+                    viewUrlCache,
+                    publicFeedCache,
+                    userImageListCache,
+                    expandedImageCache,
+                    userExistenceCache);
+
+            return HttpResponse.ok(metricsDTO);
+        });
+    }
+}
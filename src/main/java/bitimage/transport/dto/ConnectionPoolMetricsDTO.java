@@ -0,0 +1,10 @@
+package bitimage.transport.dto;
+
+public class ConnectionPoolMetricsDTO
+{
+    public int active_connections;
+    public int idle_connections;
+    public int total_connections;
+    public int pending_threads;
+    public LatencyDTO acquire_time;
+}
@@ -0,0 +1,10 @@
+package bitimage.transport.dto;
+
+public class ImageCacheMetricsDTO
+{
+    public long hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public long eviction_count;
+    public long cached_image_count;
+}
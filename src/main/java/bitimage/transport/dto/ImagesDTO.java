@@ -20,10 +20,21 @@ public class ImagesDTO
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public List<@Valid @NotNull ImageDTO> images;
 
+    /**
+     * Cursor to request the next page of images with, omitted on the last page.
+     */
+    public String next_cursor;
+
     public ImagesDTO(List<ImageDTO> images)
     {
         this.images = images;
     }
 
+    public ImagesDTO(List<ImageDTO> images, String next_cursor)
+    {
+        this.images = images;
+        this.next_cursor = next_cursor;
+    }
+
     public ImagesDTO() {}
 }
@@ -0,0 +1,11 @@
+package bitimage.transport.dto;
+
+public class LatencyDTO
+{
+    public long count;
+    public double mean_ms;
+    public double p50_ms;
+    public double p95_ms;
+    public double p99_ms;
+    public double max_ms;
+}
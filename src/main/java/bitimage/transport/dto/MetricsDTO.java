@@ -0,0 +1,16 @@
+package bitimage.transport.dto;
+
+import java.util.Map;
+
+public class MetricsDTO
+{
+    public Map<String, QueryMetricsDTO> queries;
+    public StatementCacheMetricsDTO statement_cache;
+    public ConnectionPoolMetricsDTO connection_pool;
+    public ReadRoutingMetricsDTO read_routing;
+    public ViewUrlCacheMetricsDTO view_url_cache;
+    public PublicFeedCacheMetricsDTO public_feed_cache;
+    public UserImageCacheMetricsDTO user_image_cache;
+    public ImageCacheMetricsDTO image_cache;
+    public UserExistenceCacheMetricsDTO user_existence_cache;
+}
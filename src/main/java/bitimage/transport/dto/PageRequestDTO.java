@@ -0,0 +1,48 @@
+package bitimage.transport.dto;
+
+import bitimage.regexp.RegexPatterns;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Pattern;
+
+import java.util.Optional;
+
+public class PageRequestDTO
+{
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    public Optional<
+            @Pattern(
+                    regexp = RegexPatterns.BASE64_URL,
+                    message = "Page cursor must be a cursor returned by a previous page")
+                    String>
+            cursor;
+
+    public Optional<
+            @Min(value = 1, message = "Page size must be at least 1")
+            @Max(value = 1000, message = "Page size must be at most 1000")
+                    Integer>
+            page_size;
+
+    public PageRequestDTO()
+    {
+        this.cursor = Optional.empty();
+        this.page_size = Optional.empty();
+    }
+
+    public boolean isPageRequested()
+    {
+        return cursor.isPresent() || page_size.isPresent();
+    }
+
+    public String getPageCursor()
+    {
+        return cursor.orElse(null);
+    }
+
+    public int getPageSize()
+    {
+        return page_size.orElse(DEFAULT_PAGE_SIZE);
+    }
+}
@@ -0,0 +1,10 @@
+package bitimage.transport.dto;
+
+public class PublicFeedCacheMetricsDTO
+{
+    public long hit_count;
+    public long stale_hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public long cached_page_count;
+}
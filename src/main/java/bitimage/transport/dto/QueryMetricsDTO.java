@@ -0,0 +1,11 @@
+package bitimage.transport.dto;
+
+import java.util.Map;
+
+public class QueryMetricsDTO
+{
+    public LatencyDTO execution_time;
+    public LatencyDTO connection_acquire_time;
+    public long row_count;
+    public Map<String, Long> error_counts;
+}
@@ -0,0 +1,13 @@
+package bitimage.transport.dto;
+
+import java.util.Map;
+
+public class ReadRoutingMetricsDTO
+{
+    public long replica_read_count;
+    public long primary_read_count;
+    public long session_primary_read_count;
+    public int tracked_session_count;
+    public Map<String, Long> replica_lag_ms;
+    public Map<String, Long> replica_lag_bytes;
+}
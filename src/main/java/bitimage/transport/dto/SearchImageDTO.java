@@ -8,6 +8,7 @@ import javax.validation.constraints.Size;
 import java.util.Optional;
 
 public class SearchImageDTO
+        extends PageRequestDTO
 {
     public Optional<
             @Size(min = 1, max = 200, message = "Image name must be between 1 and 200 characters")
@@ -17,6 +18,19 @@ public class SearchImageDTO
                     String>
             name;
 
+    /**
+     * Matches text anywhere in image names. At least three
+     * characters are required, the length of the trigrams the
+     * name index is searched by.
+     */
+    public Optional<
+            @Size(min = 3, max = 200, message = "Image name text must be between 3 and 200 characters")
+            @Pattern(
+                    regexp = RegexPatterns.ALPHA_NUMERIC,
+                    message = "Image name text can only contain letters and numbers")
+                    String>
+            name_contains;
+
     public Optional<
             @Size(min = 1, max = 200, message = "Tag name must be between 1 and 200 characters")
             @Pattern(
@@ -33,9 +47,17 @@ public class SearchImageDTO
                     String>
             content_label;
 
+    public boolean isSearchParamProvided()
+    {
+        return name.isPresent() || name_contains.isPresent() || tag.isPresent() || content_label.isPresent();
+    }
+
     public SearchImageDTO()
     {
+        super();
+
         this.name = Optional.empty();
+        this.name_contains = Optional.empty();
         this.tag = Optional.empty();
         this.content_label = Optional.empty();
     }
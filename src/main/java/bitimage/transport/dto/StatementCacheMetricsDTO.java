@@ -0,0 +1,9 @@
+package bitimage.transport.dto;
+
+public class StatementCacheMetricsDTO
+{
+    public long hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public long uncached_count;
+}
@@ -0,0 +1,12 @@
+package bitimage.transport.dto;
+
+public class UserExistenceCacheMetricsDTO
+{
+    public long hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public long filtered_lookup_count;
+    public long cached_user_count;
+    public boolean is_filter_built;
+    public double filter_false_positive_rate;
+}
@@ -0,0 +1,13 @@
+package bitimage.transport.dto;
+
+public class UserImageCacheMetricsDTO
+{
+    public long hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public long rejected_load_count;
+    public long eviction_count;
+    public long cached_user_count;
+    public long cached_image_count;
+    public long estimated_bytes;
+}
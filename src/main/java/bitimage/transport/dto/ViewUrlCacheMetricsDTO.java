@@ -0,0 +1,9 @@
+package bitimage.transport.dto;
+
+public class ViewUrlCacheMetricsDTO
+{
+    public long hit_count;
+    public long miss_count;
+    public double hit_rate;
+    public int cached_url_count;
+}
@@ -39,6 +39,23 @@ public class ExceptionResponses
                 .body(responseBody);
     }
 
+    public static HttpResponse<Object> badRequest(String message)
+    {
+        String responseBody = String.format(
+                """
+                {
+                    "error": "Bad request",
+                    "message": "%s",
+                    "detail": "Ensure that the provided request parameters are correct"
+                }
+                """,
+                message);
+
+        return HttpResponse
+                .status(HttpStatus.BAD_REQUEST)
+                .body(responseBody);
+    }
+
     public static HttpResponse<Object> resourceNotFound(String message)
     {
         String responseBody = String.format(
@@ -106,6 +123,23 @@ public class ExceptionResponses
                 .body(responseBody);
     }
 
+    public static HttpResponse<Object> resourceQuotaExceeded(String message)
+    {
+        String responseBody = String.format(
+                """
+                {
+                    "error": "Resource quota exceeded",
+                    "message": "%s",
+                    "detail": "Ensure that existing resources are deleted before uploading more"
+                }
+                """,
+                message);
+
+        return HttpResponse
+                .status(HttpStatus.FORBIDDEN)
+                .body(responseBody);
+    }
+
     public static HttpResponse<Object> internalServerError()
     {
         String responseBody = """
@@ -4,6 +4,8 @@ import bitimage.uploading.exceptions.ImageAlreadyExistsException;
 import bitimage.uploading.exceptions.ImageFormatInvalidException;
 import bitimage.uploading.exceptions.ImageNotFoundException;
 import bitimage.uploading.exceptions.ImageSizeExceededException;
+import bitimage.uploading.exceptions.ImageUploadLimitExceededException;
+import bitimage.uploading.exceptions.PageCursorInvalidException;
 import bitimage.uploading.exceptions.UserAlreadyExistsException;
 import bitimage.uploading.exceptions.UserNotFoundException;
 import io.micronaut.http.HttpResponse;
@@ -36,12 +38,18 @@ public class HttpExceptionHandler
         if (e instanceof ImageSizeExceededException) {
             return ExceptionResponses.resourceSizeExceedsLimit(e.getMessage());
         }
+        if (e instanceof ImageUploadLimitExceededException) {
+            return ExceptionResponses.resourceQuotaExceeded(e.getMessage());
+        }
         if (e instanceof ImageFormatInvalidException) {
             return ExceptionResponses.resourceMediaTypeUnsupported(e.getMessage());
         }
         if (e instanceof UserAlreadyExistsException) {
             return ExceptionResponses.resourceAlreadyExists(e.getMessage());
         }
+        if (e instanceof PageCursorInvalidException) {
+            return ExceptionResponses.badRequest(e.getMessage());
+        }
 
         return ExceptionResponses.internalServerError();
     }
@@ -4,6 +4,7 @@ import bitimage.shared.entities.Image;
 import bitimage.shared.entities.Label;
 import bitimage.uploading.commands.CreateImageCmd;
 import bitimage.uploading.entities.FileUrl;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.entities.Tag;
 import bitimage.transport.dto.ImageDTO;
 import bitimage.transport.dto.ImageUploadUrlDTO;
@@ -11,12 +12,24 @@ import bitimage.transport.dto.ImageUploadUrlsDTO;
 import bitimage.transport.dto.ImagesDTO;
 import bitimage.transport.dto.LabelDTO;
 import bitimage.transport.dto.TagDTO;
-
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ImageControllerMapper
 {
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
     public ImageDTO mapToExpandedViewImageDTO(Image image)
     {
         ImageDTO imageDTO = new ImageDTO();
@@ -41,6 +54,26 @@ public class ImageControllerMapper
                 .collect(Collectors.toList()));
     }
 
+    public ImagesDTO mapToListViewImagesDTO(ImagePage imagePage)
+    {
+        return new ImagesDTO(
+                imagePage.getImages().stream()
+                        .map(this::mapToListViewImageDTO)
+                        .collect(Collectors.toList()),
+                imagePage.getNextPageCursor());
+    }
+
+    /**
+     * Writes images as json in the same shape as a serialized
+     * ImagesDTO, split in chunks of about the given size. Images
+     * are read from the stream and mapped as each chunk is taken,
+     * so only a single chunk is held in memory at a time.
+     */
+    public Iterator<byte[]> mapToListViewImagesJsonChunks(Stream<Image> images, int chunkSize)
+    {
+        return new ImagesJsonChunkIterator(images.iterator(), chunkSize);
+    }
+
     public ImageDTO mapToListViewImageDTO(Image image)
     {
         ImageDTO imageDTO = new ImageDTO();
@@ -131,4 +164,79 @@ public class ImageControllerMapper
     {
         return tagDTOs.stream().map(tagDTO -> tagDTO.name.toLowerCase()).collect(Collectors.toList());
     }
+
+    private class ImagesJsonChunkIterator
+            implements Iterator<byte[]>
+    {
+        private final Iterator<Image> imageIterator;
+        private final int chunkSize;
+        private final ByteArrayOutputStream chunk;
+
+        private JsonGenerator json;
+        private boolean hasImages;
+        private boolean isDone;
+
+        private ImagesJsonChunkIterator(Iterator<Image> imageIterator, int chunkSize)
+        {
+            this.imageIterator = imageIterator;
+            this.chunkSize = chunkSize;
+            this.chunk = new ByteArrayOutputStream(chunkSize);
+        }
+
+        public boolean hasNext()
+        {
+            return !isDone;
+        }
+
+        public byte[] next()
+        {
+            if (isDone) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                writeChunk();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            byte[] bytes = chunk.toByteArray();
+            chunk.reset();
+
+            return bytes;
+        }
+
+        private void writeChunk()
+                throws IOException
+        {
+            if (json == null) {
+                json = JSON_MAPPER.getFactory().createGenerator(chunk);
+                json.writeStartObject();
+
+                // empty image lists are omitted, matching ImagesDTO
+                hasImages = imageIterator.hasNext();
+
+                if (hasImages) {
+                    json.writeArrayFieldStart("images");
+                }
+            }
+
+            while (chunk.size() < chunkSize && imageIterator.hasNext()) {
+                json.writeObject(mapToListViewImageDTO(imageIterator.next()));
+                json.flush();
+            }
+
+            if (!imageIterator.hasNext()) {
+                if (hasImages) {
+                    json.writeEndArray();
+                }
+
+                json.writeEndObject();
+                isDone = true;
+            }
+
+            json.flush();
+        }
+    }
 }
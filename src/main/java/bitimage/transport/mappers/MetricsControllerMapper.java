@@ -0,0 +1,221 @@
+package bitimage.transport.mappers;
+
+import bitimage.metrics.LatencyHistogram;
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.cache.SnapshotCache;
+import bitimage.storage.cache.UserExistenceCache;
+import bitimage.storage.cache.UserImageListCache;
+import bitimage.storage.postgres.connection.ConnectionPoolMetrics;
+import bitimage.storage.postgres.connection.ReadRoutingMetrics;
+import bitimage.storage.postgres.query.QueryMetrics;
+import bitimage.storage.postgres.query.QueryStats;
+import bitimage.storage.s3.PresignedUrlCache;
+import bitimage.transport.dto.ConnectionPoolMetricsDTO;
+import bitimage.transport.dto.ImageCacheMetricsDTO;
+import bitimage.transport.dto.LatencyDTO;
+import bitimage.transport.dto.MetricsDTO;
+import bitimage.transport.dto.PublicFeedCacheMetricsDTO;
+import bitimage.transport.dto.QueryMetricsDTO;
+import bitimage.transport.dto.ReadRoutingMetricsDTO;
+import bitimage.transport.dto.StatementCacheMetricsDTO;
+import bitimage.transport.dto.UserExistenceCacheMetricsDTO;
+import bitimage.transport.dto.UserImageCacheMetricsDTO;
+import bitimage.transport.dto.ViewUrlCacheMetricsDTO;
+import com.google.common.cache.CacheStats;
+
+import java.util.LinkedHashMap;
+
+public class MetricsControllerMapper
+{
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    public MetricsDTO mapToMetricsDTO(
+            QueryMetrics queryMetrics,
+            ConnectionPoolMetrics poolMetrics,
+            ReadRoutingMetrics readRoutingMetrics,
+            PresignedUrlCache viewUrlCache,
+            SnapshotCache<?, ?> publicFeedCache,
+            UserImageListCache userImageListCache,
+            ExpandedImageCache expandedImageCache,
+            UserExistenceCache userExistenceCache)
+    {
+        MetricsDTO metricsDTO = new MetricsDTO();
+
+        metricsDTO.queries = new LinkedHashMap<>();
+        queryMetrics.getStatsByQueryName()
+                .forEach((queryName, stats) -> metricsDTO.queries.put(queryName, mapToQueryMetricsDTO(stats)));
+
+        metricsDTO.statement_cache = mapToStatementCacheMetricsDTO(queryMetrics);
+
+        metricsDTO.connection_pool = mapToConnectionPoolMetricsDTO(poolMetrics);
+        metricsDTO.read_routing = mapToReadRoutingMetricsDTO(readRoutingMetrics);
+        metricsDTO.view_url_cache = mapToViewUrlCacheMetricsDTO(viewUrlCache);
+        metricsDTO.public_feed_cache = mapToPublicFeedCacheMetricsDTO(publicFeedCache);
+        metricsDTO.user_image_cache = mapToUserImageCacheMetricsDTO(userImageListCache);
+        metricsDTO.image_cache = mapToImageCacheMetricsDTO(expandedImageCache);
+        metricsDTO.user_existence_cache = mapToUserExistenceCacheMetricsDTO(userExistenceCache);
+
+        return metricsDTO;
+    }
+
+    private QueryMetricsDTO mapToQueryMetricsDTO(QueryStats stats)
+    {
+        QueryMetricsDTO queryMetricsDTO = new QueryMetricsDTO();
+
+        queryMetricsDTO.execution_time = mapToLatencyDTO(stats.getExecutionTimeHistogram());
+        queryMetricsDTO.connection_acquire_time = mapToLatencyDTO(stats.getAcquireTimeHistogram());
+        queryMetricsDTO.row_count = stats.getRowCount();
+        queryMetricsDTO.error_counts = stats.getErrorCounts();
+
+        return queryMetricsDTO;
+    }
+
+    /**
+     * Uncached statements are counted apart, as they never go
+     * through the statement cache.
+     */
+    private StatementCacheMetricsDTO mapToStatementCacheMetricsDTO(QueryMetrics queryMetrics)
+    {
+        StatementCacheMetricsDTO statementCacheMetricsDTO = new StatementCacheMetricsDTO();
+
+        statementCacheMetricsDTO.hit_count = queryMetrics.getStatementCacheHitCount();
+        statementCacheMetricsDTO.miss_count = queryMetrics.getStatementCacheMissCount();
+        statementCacheMetricsDTO.uncached_count = queryMetrics.getUncachedStatementCount();
+
+        long lookupCount = statementCacheMetricsDTO.hit_count + statementCacheMetricsDTO.miss_count;
+        statementCacheMetricsDTO.hit_rate = lookupCount > 0
+                ? (double) statementCacheMetricsDTO.hit_count / lookupCount
+                : 0;
+
+        return statementCacheMetricsDTO;
+    }
+
+    private ConnectionPoolMetricsDTO mapToConnectionPoolMetricsDTO(ConnectionPoolMetrics poolMetrics)
+    {
+        ConnectionPoolMetricsDTO poolMetricsDTO = new ConnectionPoolMetricsDTO();
+
+        poolMetricsDTO.active_connections = poolMetrics.getActiveConnections();
+        poolMetricsDTO.idle_connections = poolMetrics.getIdleConnections();
+        poolMetricsDTO.total_connections = poolMetrics.getTotalConnections();
+        poolMetricsDTO.pending_threads = poolMetrics.getPendingThreads();
+        poolMetricsDTO.acquire_time = mapToLatencyDTO(poolMetrics.getAcquireTimeHistogram());
+
+        return poolMetricsDTO;
+    }
+
+    private ReadRoutingMetricsDTO mapToReadRoutingMetricsDTO(ReadRoutingMetrics readRoutingMetrics)
+    {
+        ReadRoutingMetricsDTO readRoutingMetricsDTO = new ReadRoutingMetricsDTO();
+
+        readRoutingMetricsDTO.replica_read_count = readRoutingMetrics.getReplicaReadCount();
+        readRoutingMetricsDTO.primary_read_count = readRoutingMetrics.getPrimaryReadCount();
+        readRoutingMetricsDTO.session_primary_read_count = readRoutingMetrics.getSessionPrimaryReadCount();
+        readRoutingMetricsDTO.tracked_session_count = readRoutingMetrics.getTrackedSessionCount();
+        readRoutingMetricsDTO.replica_lag_ms = readRoutingMetrics.getReplicaLagMs();
+        readRoutingMetricsDTO.replica_lag_bytes = readRoutingMetrics.getReplicaLagBytes();
+
+        return readRoutingMetricsDTO;
+    }
+
+    private ViewUrlCacheMetricsDTO mapToViewUrlCacheMetricsDTO(PresignedUrlCache viewUrlCache)
+    {
+        ViewUrlCacheMetricsDTO viewUrlCacheMetricsDTO = new ViewUrlCacheMetricsDTO();
+
+        viewUrlCacheMetricsDTO.hit_count = viewUrlCache.getHitCount();
+        viewUrlCacheMetricsDTO.miss_count = viewUrlCache.getMissCount();
+        viewUrlCacheMetricsDTO.cached_url_count = viewUrlCache.getSize();
+
+        long lookupCount = viewUrlCacheMetricsDTO.hit_count + viewUrlCacheMetricsDTO.miss_count;
+        viewUrlCacheMetricsDTO.hit_rate = lookupCount > 0
+                ? (double) viewUrlCacheMetricsDTO.hit_count / lookupCount
+                : 0;
+
+        return viewUrlCacheMetricsDTO;
+    }
+
+    /**
+     * Stale snapshots served while refreshing count as hits.
+     */
+    private PublicFeedCacheMetricsDTO mapToPublicFeedCacheMetricsDTO(SnapshotCache<?, ?> publicFeedCache)
+    {
+        PublicFeedCacheMetricsDTO publicFeedCacheMetricsDTO = new PublicFeedCacheMetricsDTO();
+
+        publicFeedCacheMetricsDTO.hit_count = publicFeedCache.getHitCount();
+        publicFeedCacheMetricsDTO.stale_hit_count = publicFeedCache.getStaleHitCount();
+        publicFeedCacheMetricsDTO.miss_count = publicFeedCache.getMissCount();
+        publicFeedCacheMetricsDTO.cached_page_count = publicFeedCache.getSize();
+
+        long servedCount = publicFeedCacheMetricsDTO.hit_count + publicFeedCacheMetricsDTO.stale_hit_count;
+        long lookupCount = servedCount + publicFeedCacheMetricsDTO.miss_count;
+        publicFeedCacheMetricsDTO.hit_rate = lookupCount > 0
+                ? (double) servedCount / lookupCount
+                : 0;
+
+        return publicFeedCacheMetricsDTO;
+    }
+
+    private UserImageCacheMetricsDTO mapToUserImageCacheMetricsDTO(UserImageListCache userImageListCache)
+    {
+        UserImageCacheMetricsDTO userImageCacheMetricsDTO = new UserImageCacheMetricsDTO();
+        CacheStats stats = userImageListCache.getStats();
+
+        userImageCacheMetricsDTO.hit_count = stats.hitCount();
+        userImageCacheMetricsDTO.miss_count = stats.missCount();
+        userImageCacheMetricsDTO.hit_rate = stats.hitRate();
+        userImageCacheMetricsDTO.rejected_load_count = userImageListCache.getRejectedLoadCount();
+        userImageCacheMetricsDTO.eviction_count = stats.evictionCount();
+        userImageCacheMetricsDTO.cached_user_count = userImageListCache.getUserCount();
+        userImageCacheMetricsDTO.cached_image_count = userImageListCache.getImageCount();
+        userImageCacheMetricsDTO.estimated_bytes = userImageListCache.getEstimatedBytes();
+
+        return userImageCacheMetricsDTO;
+    }
+
+    private ImageCacheMetricsDTO mapToImageCacheMetricsDTO(ExpandedImageCache expandedImageCache)
+    {
+        ImageCacheMetricsDTO imageCacheMetricsDTO = new ImageCacheMetricsDTO();
+        CacheStats stats = expandedImageCache.getStats();
+
+        imageCacheMetricsDTO.hit_count = stats.hitCount();
+        imageCacheMetricsDTO.miss_count = stats.missCount();
+        imageCacheMetricsDTO.hit_rate = stats.hitRate();
+        imageCacheMetricsDTO.eviction_count = stats.evictionCount();
+        imageCacheMetricsDTO.cached_image_count = expandedImageCache.getSize();
+
+        return imageCacheMetricsDTO;
+    }
+
+    /**
+     * Lookups answered by the filter are counted apart, as the
+     * cache stats only count lookups of known users.
+     */
+    private UserExistenceCacheMetricsDTO mapToUserExistenceCacheMetricsDTO(UserExistenceCache userExistenceCache)
+    {
+        UserExistenceCacheMetricsDTO userExistenceCacheMetricsDTO = new UserExistenceCacheMetricsDTO();
+        CacheStats stats = userExistenceCache.getStats();
+
+        userExistenceCacheMetricsDTO.hit_count = stats.hitCount();
+        userExistenceCacheMetricsDTO.miss_count = stats.missCount();
+        userExistenceCacheMetricsDTO.hit_rate = stats.hitRate();
+        userExistenceCacheMetricsDTO.filtered_lookup_count = userExistenceCache.getFilteredLookupCount();
+        userExistenceCacheMetricsDTO.cached_user_count = userExistenceCache.getSize();
+        userExistenceCacheMetricsDTO.is_filter_built = userExistenceCache.isFilterBuilt();
+        userExistenceCacheMetricsDTO.filter_false_positive_rate = userExistenceCache.getFilterFpp();
+
+        return userExistenceCacheMetricsDTO;
+    }
+
+    private LatencyDTO mapToLatencyDTO(LatencyHistogram histogram)
+    {
+        LatencyDTO latencyDTO = new LatencyDTO();
+
+        latencyDTO.count = histogram.getCount();
+        latencyDTO.mean_ms = histogram.getMeanNanos() / NANOS_PER_MS;
+        latencyDTO.p50_ms = histogram.getPercentileNanos(50) / NANOS_PER_MS;
+        latencyDTO.p95_ms = histogram.getPercentileNanos(95) / NANOS_PER_MS;
+        latencyDTO.p99_ms = histogram.getPercentileNanos(99) / NANOS_PER_MS;
+        latencyDTO.max_ms = histogram.getMaxNanos() / NANOS_PER_MS;
+
+        return latencyDTO;
+    }
+}
@@ -0,0 +1,39 @@
+package bitimage.uploading.entities;
+
+import bitimage.shared.entities.Image;
+
+import java.util.List;
+
+/**
+ * A single page of images, along with an opaque cursor
+ * pointing to where the next page starts.
+ */
+public class ImagePage
+{
+    private final List<Image> images;
+    private final String nextPageCursor;
+
+    public ImagePage(List<Image> images, String nextPageCursor)
+    {
+        this.images = List.copyOf(images);
+        this.nextPageCursor = nextPageCursor;
+    }
+
+    public List<Image> getImages()
+    {
+        return images;
+    }
+
+    /**
+     * @return cursor of next page, or null if this is the last page.
+     */
+    public String getNextPageCursor()
+    {
+        return nextPageCursor;
+    }
+
+    public boolean hasNextPage()
+    {
+        return nextPageCursor != null;
+    }
+}
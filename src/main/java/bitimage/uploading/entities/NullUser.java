@@ -0,0 +1,16 @@
+package bitimage.uploading.entities;
+
+public class NullUser
+        extends User
+{
+    public NullUser()
+    {
+        super(null, 0, 0);
+    }
+
+    @Override
+    public boolean isNull()
+    {
+        return true;
+    }
+}
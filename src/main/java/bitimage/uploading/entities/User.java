@@ -9,7 +9,7 @@ public class User
     private final int imageUploadCount;
     private final int imageUploadLimit;
 
-    private User(EntityID id, int imageUploadCount, int imageUploadLimit)
+    protected User(EntityID id, int imageUploadCount, int imageUploadLimit)
     {
         super(id);
 
@@ -22,6 +22,11 @@ public class User
         return new User(id, 0, 10000);
     }
 
+    public static User CreateNew(EntityID id, int imageUploadCount, int imageUploadLimit)
+    {
+        return new User(id, imageUploadCount, imageUploadLimit);
+    }
+
     public int getImageUploadCount()
     {
         return imageUploadCount;
@@ -32,6 +37,15 @@ public class User
         return imageUploadLimit;
     }
 
+    /**
+     * Checks whether the user can upload the given number of
+     * images more without exceeding their upload limit.
+     */
+    public boolean canUploadImages(int imageCount)
+    {
+        return (long) imageUploadCount + imageCount <= imageUploadLimit;
+    }
+
     public boolean isNull()
     {
         return false;
@@ -0,0 +1,10 @@
+package bitimage.uploading.exceptions;
+
+public class ImageUploadLimitExceededException
+        extends IllegalArgumentException
+{
+    public ImageUploadLimitExceededException()
+    {
+        super("User's image upload limit exceeded");
+    }
+}
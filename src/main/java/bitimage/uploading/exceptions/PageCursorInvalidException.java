@@ -0,0 +1,10 @@
+package bitimage.uploading.exceptions;
+
+public class PageCursorInvalidException
+        extends IllegalArgumentException
+{
+    public PageCursorInvalidException()
+    {
+        super("Provided page cursor is invalid or expired");
+    }
+}
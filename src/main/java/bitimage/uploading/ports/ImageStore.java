@@ -4,27 +4,39 @@ import bitimage.shared.entities.EntityID;
 import bitimage.shared.entities.Image;
 import bitimage.uploading.entities.FileUrl;
 import bitimage.uploading.entities.ImageMetadata;
+import bitimage.uploading.entities.ImagePage;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ImageStore
 {
     List<Image> addImages(List<Image> images)
             throws Exception;
 
-    List<Image> getAllPublicImages()
+    ImagePage getAllPublicImages(String pageCursor, int pageSize)
             throws Exception;
 
-    List<Image> getAllUserImages(EntityID userID)
+    ImagePage getAllUserImages(EntityID userID, String pageCursor, int pageSize)
             throws Exception;
 
-    List<Image> getImagesByName(EntityID userID, String imageName)
+    Stream<Image> streamAllUserImages(EntityID userID)
             throws Exception;
 
-    List<Image> getImagesByTag(EntityID userID, String tagName)
+    ImagePage getImagesByName(EntityID userID, String imageName, String pageCursor, int pageSize)
             throws Exception;
 
-    List<Image> getImagesByContentLabel(EntityID userID, String contentLabelName)
+    ImagePage getImagesByNameContaining(EntityID userID, String imageNameText, String pageCursor, int pageSize)
+            throws Exception;
+
+    ImagePage getImagesByTag(EntityID userID, String tagName, String pageCursor, int pageSize)
+            throws Exception;
+
+    ImagePage getImagesByContentLabel(
+            EntityID userID,
+            String contentLabelName,
+            String pageCursor,
+            int pageSize)
             throws Exception;
 
     Image getImageByID(EntityID userID, EntityID imageID)
@@ -38,5 +50,7 @@ public interface ImageStore
 
     FileUrl generateImageUploadUrl(EntityID uploaderUserID);
 
+    List<FileUrl> generateImageUploadUrls(EntityID uploaderUserID, int imageCount);
+
     ImageMetadata getReceivedImageMetadata(EntityID userID, EntityID imageID);
 }
@@ -3,6 +3,8 @@ package bitimage.uploading.ports;
 import bitimage.shared.entities.EntityID;
 import bitimage.uploading.entities.User;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface UserStore
 {
     void addUser(User user)
@@ -11,6 +13,18 @@ public interface UserStore
     void deleteUserByID(EntityID userID)
             throws Exception;
 
+    /**
+     * @return user, or a null user if not found.
+     */
+    User getUserByID(EntityID userID)
+            throws Exception;
+
     boolean doesUserExist(EntityID userID)
             throws Exception;
+
+    /**
+     * Future completes exceptionally (ex. with a storage
+     * exception) if the existence check fails.
+     */
+    CompletableFuture<Boolean> doesUserExistAsync(EntityID userID);
 }
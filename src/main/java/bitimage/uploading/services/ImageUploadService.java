@@ -5,21 +5,29 @@ import bitimage.shared.entities.Image;
 import bitimage.uploading.commands.CreateImageCmd;
 import bitimage.uploading.entities.FileUrl;
 import bitimage.uploading.entities.ImageMetadata;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.entities.Tag;
+import bitimage.uploading.entities.User;
 import bitimage.uploading.events.ImagesUploadedEvent;
 import bitimage.uploading.exceptions.ImageAlreadyExistsException;
 import bitimage.uploading.exceptions.ImageNotFoundException;
+import bitimage.uploading.exceptions.ImageUploadLimitExceededException;
+import bitimage.uploading.exceptions.PageCursorInvalidException;
 import bitimage.uploading.exceptions.UserNotFoundException;
 import bitimage.uploading.ports.EventPublisher;
 import bitimage.uploading.ports.ImageStore;
 import bitimage.uploading.ports.UserStore;
+import bitimage.storage.exceptions.StorageCursorInvalidException;
 import bitimage.storage.exceptions.StorageObjectAlreadyExistsException;
 import bitimage.storage.exceptions.StorageObjectNotFoundException;
 import bitimage.storage.exceptions.StorageObjectReferenceException;
+import bitimage.storage.exceptions.StorageQuotaExceededException;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class ImageUploadService
 {
@@ -43,19 +51,24 @@ public class ImageUploadService
      * place after uploading images to aws presigned urls.
      *
      * <p>Uploaded images that are not confirmed as uploaded will expire (eventually be deleted).
+     *
+     * <p>Users who would exceed their upload limit are rejected by the same query that checks the
+     * user exists. The limit is enforced again when uploads are confirmed.
      */
     public List<FileUrl> generateImageUploadUrls(int imageUploadCount, String providedUserID)
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(providedUserID);
-        assertUserExists(userID);
+        User user = userStore.getUserByID(userID);
 
-        List<FileUrl> uploadUrls = IntStream.range(0, imageUploadCount)
-                .parallel()
-                .mapToObj(i -> imageStore.generateImageUploadUrl(userID))
-                .collect(Collectors.toList());
+        if (user.isNull()) {
+            throw new UserNotFoundException();
+        }
+        if (!user.canUploadImages(imageUploadCount)) {
+            throw new ImageUploadLimitExceededException();
+        }
 
-        return uploadUrls;
+        return imageStore.generateImageUploadUrls(userID, imageUploadCount);
     }
 
     /**
@@ -73,9 +86,21 @@ public class ImageUploadService
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(cmds.get(0).userID);
-        assertUserExists(userID);
+        CompletableFuture<Boolean> userExists = userStore.doesUserExistAsync(userID);
+
+        // uploaded files' metadata is looked up while user existence is checked
+        List<Image> images;
+
+        try {
+            images = cmds.stream().map(this::createImage).collect(Collectors.toList());
+        }
+        catch (ImageNotFoundException e) {
+            // a missing user takes precedence, as when checked first
+            assertUserExists(userExists);
+            throw e;
+        }
 
-        List<Image> images = cmds.stream().map(this::createImage).collect(Collectors.toList());
+        assertUserExists(userExists);
 
         try {
             List<Image> uploadedImages = imageStore.addImages(images);
@@ -92,12 +117,24 @@ public class ImageUploadService
         catch (StorageObjectReferenceException e) {
             throw new UserNotFoundException();
         }
+        catch (StorageQuotaExceededException e) {
+            throw new ImageUploadLimitExceededException();
+        }
     }
 
-    private void assertUserExists(EntityID userID)
+    private static void assertUserExists(CompletableFuture<Boolean> userExists)
             throws Exception
     {
-        if (!userStore.doesUserExist(userID)) {
+        boolean doesUserExist;
+
+        try {
+            doesUserExist = userExists.join();
+        }
+        catch (CompletionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+
+        if (!doesUserExist) {
             throw new UserNotFoundException();
         }
     }
@@ -124,38 +161,110 @@ public class ImageUploadService
                 .build();
     }
 
-    public List<Image> getAllUserImages(String providedUserID)
+    /**
+     * Gets a page of user's images, starting after the given
+     * page cursor (or from the most recent image if null).
+     */
+    public ImagePage getAllUserImages(String providedUserID, String pageCursor, int pageSize)
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(providedUserID);
-        return imageStore.getAllUserImages(userID);
+
+        try {
+            return imageStore.getAllUserImages(userID, pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
     }
 
-    public List<Image> getAllPublicImages()
+    /**
+     * @postcondition Returned stream must be closed after.
+     */
+    public Stream<Image> streamAllUserImages(String providedUserID)
             throws Exception
     {
-        return imageStore.getAllPublicImages();
+        EntityID userID = EntityID.CreateNew(providedUserID);
+        return imageStore.streamAllUserImages(userID);
     }
 
-    public List<Image> searchImagesByName(String providedUserID, String imageName)
+    public ImagePage getAllPublicImages(String pageCursor, int pageSize)
+            throws Exception
+    {
+        try {
+            return imageStore.getAllPublicImages(pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
+    }
+
+    public ImagePage searchImagesByName(
+            String providedUserID,
+            String imageName,
+            String pageCursor,
+            int pageSize)
+            throws Exception
+    {
+        EntityID userID = EntityID.CreateNew(providedUserID);
+
+        try {
+            return imageStore.getImagesByName(userID, imageName, pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
+    }
+
+    public ImagePage searchImagesByNameContaining(
+            String providedUserID,
+            String imageNameText,
+            String pageCursor,
+            int pageSize)
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(providedUserID);
-        return imageStore.getImagesByName(userID, imageName);
+
+        try {
+            return imageStore.getImagesByNameContaining(userID, imageNameText, pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
     }
 
-    public List<Image> searchImagesByTag(String providedUserID, String tagName)
+    public ImagePage searchImagesByTag(
+            String providedUserID,
+            String tagName,
+            String pageCursor,
+            int pageSize)
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(providedUserID);
-        return imageStore.getImagesByTag(userID, tagName);
+
+        try {
+            return imageStore.getImagesByTag(userID, tagName, pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
     }
 
-    public List<Image> searchImagesByContentLabel(String providedUserID, String contentLabelName)
+    public ImagePage searchImagesByContentLabel(
+            String providedUserID,
+            String contentLabelName,
+            String pageCursor,
+            int pageSize)
             throws Exception
     {
         EntityID userID = EntityID.CreateNew(providedUserID);
-        return imageStore.getImagesByContentLabel(userID, contentLabelName);
+
+        try {
+            return imageStore.getImagesByContentLabel(userID, contentLabelName, pageCursor, pageSize);
+        }
+        catch (StorageCursorInvalidException e) {
+            throw new PageCursorInvalidException();
+        }
     }
 
     public Image getImage(String providedUserID, String providedImageID)
@@ -4,6 +4,7 @@ import bitimage.classification.ImageClassifier;
 import bitimage.classification.mappers.ImageClassifierMapper;
 import bitimage.classification.rekognition.AwsImageClassifier;
 import bitimage.analysis.services.ImageAnalysisService;
+import bitimage.uploading.entities.ImagePage;
 import bitimage.uploading.events.ImagesUploadedEvent;
 import bitimage.uploading.events.UserDeletedEvent;
 import bitimage.uploading.services.ImageUploadService;
@@ -18,19 +19,36 @@ import bitimage.messaging.MessagePublisher;
 import bitimage.messaging.MessageReader;
 import bitimage.messaging.beanstalk.BeanstalkMessageQueue;
 import bitimage.messaging.beanstalk.BeanstalkTubeNames;
+import bitimage.storage.BulkLabelStore;
+import bitimage.storage.ImageDeletionPolicy;
 import bitimage.storage.ImageStore;
 import bitimage.storage.LabelStore;
+import bitimage.storage.OrphanSweeper;
+import bitimage.storage.PartitionMigration;
+import bitimage.storage.TagNamesBackfill;
+import bitimage.storage.UploadCountReconciler;
+import bitimage.storage.UserExistenceFilterBuilder;
 import bitimage.storage.UserStore;
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.cache.SnapshotCache;
+import bitimage.storage.cache.UserExistenceCache;
+import bitimage.storage.cache.UserImageListCache;
 import bitimage.storage.mappers.ImageStoreMapper;
 import bitimage.storage.mappers.LabelStoreMapper;
 import bitimage.storage.mappers.UserStoreMapper;
 import bitimage.storage.postgres.connection.ConnectionHandler;
+import bitimage.storage.postgres.connection.ReadRouter;
 import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.PartitionLayout;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
 import bitimage.storage.postgres.query.QueryExecutor;
+import bitimage.storage.postgres.query.QueryMetrics;
 import bitimage.storage.postgres.query.SQLExceptionTranslator;
+import bitimage.storage.s3.PresignedUrlCache;
 import bitimage.storage.s3.S3ExceptionTranslator;
 import bitimage.storage.s3.S3FileSystem;
 import bitimage.transport.mappers.ImageControllerMapper;
+import bitimage.transport.mappers.MetricsControllerMapper;
 import bitimage.transport.mappers.UserControllerMapper;
 import bitimage.transport.middleware.RemoteTokenChecker;
 import io.micronaut.context.annotation.Factory;
@@ -41,6 +59,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +67,10 @@ import java.util.logging.Logger;
  * Class responsible for wiring up entire application
  * object dependency graph.
  *
+ * <p>Created once, by the web server's application context, and
+ * used by workers as well (see Application), so shared components
+ * such as caches are single instances across the application.
+ *
  * TODO: migrate to Dagger injector framework
  */
 @Factory
@@ -56,14 +79,51 @@ public class Container
     private final GlobalEnv env;
     private final Logger logger;
     private final ExecutorService workerPool;
+    private final ScheduledExecutorService scheduler;
     private final ConnectionHandler sqlConnectionHandler;
+    private final ReadRouter sqlReadRouter;
+    private final QueryMetrics sqlQueryMetrics;
+    private final AsyncQueryExecutor asyncSQLQueryExecutor;
+    private final PresignedUrlCache s3ViewUrlCache;
+    private final SnapshotCache<String, ImagePage> publicFeedCache;
+    private final UserImageListCache userImageListCache;
+    private final ExpandedImageCache expandedImageCache;
+    private final UserExistenceCache userExistenceCache;
+    private DAOFactory daoFactory;
 
     public Container()
     {
         this.env = new EnvReader().read();
         this.logger = Logger.getLogger("Container logger");
         this.workerPool = Executors.newCachedThreadPool();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
         this.sqlConnectionHandler = ConnectionHandler.CreateNew(env);
+        this.sqlReadRouter = ReadRouter.CreateNew(env, sqlConnectionHandler);
+        this.sqlQueryMetrics = new QueryMetrics(env.getPostgresSlowQueryThresholdMs());
+        this.asyncSQLQueryExecutor = AsyncQueryExecutor.CreateNew(
+                provideSQLQueryExecutor(),
+                env.getPostgresAsyncThreadCount(),
+                env.getPostgresAsyncQueueSize());
+        this.s3ViewUrlCache = new PresignedUrlCache(
+                S3FileSystem.URL_TTL_MS,
+                env.getAwsViewUrlMinValidityMs(),
+                env.getAwsViewUrlCacheSize());
+        this.publicFeedCache = new SnapshotCache<>(
+                env.getPostgresPublicFeedRefreshIntervalMs(),
+                env.getPostgresPublicFeedMaxStalenessMs(),
+                env.getPostgresPublicFeedCacheSize(),
+                workerPool);
+        this.userImageListCache = new UserImageListCache(
+                env.getPostgresUserImageCacheMaxWeight(),
+                env.getPostgresUserImageCacheMaxUserImages(),
+                env.getPostgresUserImageCacheTtlMs());
+        this.expandedImageCache = new ExpandedImageCache(
+                env.getPostgresImageCacheSize(),
+                env.getPostgresImageCacheTtlMs());
+        this.userExistenceCache = new UserExistenceCache(
+                env.getPostgresUserExistenceCacheSize(),
+                env.getPostgresUserExistenceCacheTtlMs(),
+                env.isPostgresUserExistenceFilterEnabled());
 
         logger.log(Level.INFO, "Wiring up application components");
     }
@@ -80,6 +140,12 @@ public class Container
         return new UserControllerMapper();
     }
 
+    @Singleton
+    public MetricsControllerMapper provideMetricsControllerMapper()
+    {
+        return new MetricsControllerMapper();
+    }
+
     @Singleton
     public UserService provideUserService()
     {
@@ -128,7 +194,12 @@ public class Container
         return new ImageStore(
                 provideDAOFactory(),
                 provideS3FileSystem(),
-                provideImageStoreMapper());
+                provideImageStoreMapper(),
+                env.getImageDeletionPolicy(),
+                env.getPostgresImageDeletionChunkSize(),
+                providePublicFeedCache(),
+                provideUserImageListCache(),
+                provideExpandedImageCache());
     }
 
     public ImageStoreMapper provideImageStoreMapper()
@@ -140,7 +211,18 @@ public class Container
     {
         return new UserStore(
                 provideDAOFactory(),
-                provideUserStoreMapper());
+                provideUserStoreMapper(),
+                provideUserExistenceCache());
+    }
+
+    /**
+     * User existence is shared by every user store, so users
+     * created or deleted through one store are seen by all.
+     */
+    @Singleton
+    public UserExistenceCache provideUserExistenceCache()
+    {
+        return userExistenceCache;
     }
 
     public static UserStoreMapper provideUserStoreMapper()
@@ -152,14 +234,68 @@ public class Container
     {
         return S3FileSystem.CreateNew(
                 env,
-                provideAwsExceptionTranslator());
+                provideAwsExceptionTranslator(),
+                provideS3ViewUrlCache());
+    }
+
+    /**
+     * View url cache is shared by every file system, so urls
+     * signed for one request are reused by the next.
+     */
+    @Singleton
+    public PresignedUrlCache provideS3ViewUrlCache()
+    {
+        return s3ViewUrlCache;
     }
 
-    public LabelStore provideLabelStore()
+    /**
+     * Public feed snapshots are shared by every image store.
+     * Snapshots hold signed view urls, so their maximum staleness
+     * should stay below the view urls' minimum validity.
+     */
+    @Singleton
+    public SnapshotCache<String, ImagePage> providePublicFeedCache()
     {
+        return publicFeedCache;
+    }
+
+    /**
+     * User image lists are shared by every image store, so lists
+     * written through by one store are read by all.
+     */
+    @Singleton
+    public UserImageListCache provideUserImageListCache()
+    {
+        return userImageListCache;
+    }
+
+    /**
+     * Expanded images are shared by image and label stores, so
+     * labels stored by analysis invalidate the images served.
+     */
+    @Singleton
+    public ExpandedImageCache provideExpandedImageCache()
+    {
+        return expandedImageCache;
+    }
+
+    /**
+     * Provides either the COPY based bulk label store, or the
+     * default label store inserting labels by statement.
+     */
+    public bitimage.analysis.ports.LabelStore provideLabelStore()
+    {
+        if (env.isPostgresBulkLabelIngestEnabled()) {
+            return new BulkLabelStore(
+                    provideDAOFactory(),
+                    provideLabelStoreMapper(),
+                    provideExpandedImageCache());
+        }
+
         return new LabelStore(
                 provideDAOFactory(),
-                provideLabelStoreMapper());
+                provideLabelStoreMapper(),
+                provideExpandedImageCache());
     }
 
     public static LabelStoreMapper provideLabelStoreMapper()
@@ -179,12 +315,22 @@ public class Container
         return new S3ExceptionTranslator();
     }
 
-    public DAOFactory provideDAOFactory()
+    /**
+     * DAO factory is created once, on first use, so schema
+     * migrations are checked once per startup.
+     */
+    public synchronized DAOFactory provideDAOFactory()
     {
-        DAOFactory daoFactory = null;
+        if (daoFactory != null) {
+            return daoFactory;
+        }
 
         try {
-            daoFactory = DAOFactory.CreateNew(provideSQLQueryExecutor());
+            daoFactory = DAOFactory.CreateNew(
+                    provideSQLQueryExecutor(),
+                    provideAsyncSQLQueryExecutor(),
+                    provideSQLPartitionLayout(),
+                    env.getPostgresDictionaryCacheSize());
         }
         catch (Exception e) {
             logger.log(Level.SEVERE, e.getMessage(), e);
@@ -194,6 +340,77 @@ public class Container
         return daoFactory;
     }
 
+    public OrphanSweeper provideOrphanSweeper()
+    {
+        return new OrphanSweeper(
+                provideDAOFactory(),
+                env.getPostgresOrphanSweepBatchSize(),
+                env.getPostgresOrphanSweepMaxBatches(),
+                env.getPostgresOrphanSweepGraceMs());
+    }
+
+    public UploadCountReconciler provideUploadCountReconciler()
+    {
+        return new UploadCountReconciler(
+                provideDAOFactory(),
+                env.getPostgresUploadCountReconcileBatchSize());
+    }
+
+    public long provideUploadCountReconcileIntervalMs()
+    {
+        return env.getPostgresUploadCountReconcileIntervalMs();
+    }
+
+    public UserExistenceFilterBuilder provideUserExistenceFilterBuilder()
+    {
+        return new UserExistenceFilterBuilder(
+                provideDAOFactory(),
+                provideUserExistenceCache(),
+                env.getPostgresUserExistenceFilterBatchSize());
+    }
+
+    public boolean isUserExistenceFilterEnabled()
+    {
+        return env.isPostgresUserExistenceFilterEnabled();
+    }
+
+    public long provideUserExistenceFilterIntervalMs()
+    {
+        return env.getPostgresUserExistenceFilterIntervalMs();
+    }
+
+    public TagNamesBackfill provideTagNamesBackfill()
+    {
+        return new TagNamesBackfill(
+                provideDAOFactory(),
+                env.getPostgresTagNamesBackfillBatchSize(),
+                env.getPostgresTagNamesBackfillPauseMs());
+    }
+
+    public PartitionMigration providePartitionMigration()
+    {
+        return new PartitionMigration(
+                provideDAOFactory(),
+                env.getPostgresPartitionMigrationBatchSize(),
+                env.getPostgresPartitionMigrationPauseMs());
+    }
+
+    public boolean isPartitionMigrationEnabled()
+    {
+        return provideSQLPartitionLayout().isPartitioned() &&
+                env.isPostgresPartitionMigrationEnabled();
+    }
+
+    public PartitionLayout provideSQLPartitionLayout()
+    {
+        return new PartitionLayout(env.getPostgresPartitionCount());
+    }
+
+    public long provideOrphanSweepIntervalMs()
+    {
+        return env.getPostgresOrphanSweepIntervalMs();
+    }
+
     public SQLExceptionTranslator provideSQLExceptionTranslator()
     {
         return new SQLExceptionTranslator();
@@ -203,7 +420,19 @@ public class Container
     {
         return new QueryExecutor(
                 provideSQLConnectionHandler(),
-                provideSQLExceptionTranslator());
+                provideSQLReadRouter(),
+                provideSQLExceptionTranslator(),
+                provideSQLQueryMetrics(),
+                env.getPostgresFetchSize());
+    }
+
+    /**
+     * Async executor shares a single bounded pool of database
+     * threads across all callers.
+     */
+    public AsyncQueryExecutor provideAsyncSQLQueryExecutor()
+    {
+        return asyncSQLQueryExecutor;
     }
 
     @Singleton
@@ -212,6 +441,27 @@ public class Container
         return sqlConnectionHandler;
     }
 
+    @Singleton
+    public ReadRouter provideSQLReadRouter()
+    {
+        return sqlReadRouter;
+    }
+
+    /**
+     * Query metrics are shared by every query executor, so
+     * queries are recorded under one set of stats per name.
+     */
+    @Singleton
+    public QueryMetrics provideSQLQueryMetrics()
+    {
+        return sqlQueryMetrics;
+    }
+
+    public long provideReplicaPollIntervalMs()
+    {
+        return env.getPostgresReplicaPollIntervalMs();
+    }
+
     /**
      * Providing event handler components which allow
      * communication between bounded contexts.
@@ -290,4 +540,9 @@ public class Container
     {
         return workerPool;
     }
+
+    public ScheduledExecutorService provideScheduler()
+    {
+        return scheduler;
+    }
 }
@@ -0,0 +1,90 @@
+package bitimage.storage;
+
+import bitimage.shared.entities.EntityID;
+import bitimage.shared.entities.Label;
+import bitimage.storage.cache.ExpandedImageCache;
+import bitimage.storage.dto.ImageDTO;
+import bitimage.storage.mappers.LabelStoreMapper;
+import bitimage.storage.postgres.dao.DAOFactory;
+import bitimage.storage.postgres.dao.LabelDAO;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Labels are stored by workers, while images are served to
+ * requests, through the same expanded image cache.
+ */
+class LabelStoreTest
+{
+    @Test
+    void addLabels_invalidatesImagesServedFromSharedCache()
+            throws Exception
+    {
+        ExpandedImageCache expandedImageCache = new ExpandedImageCache(100, 60000);
+        LabelStore labelStore = new LabelStore(
+                mockDAOFactory(),
+                new LabelStoreMapper(),
+                expandedImageCache);
+
+        UUID userID = UUID.randomUUID();
+        UUID imageID = UUID.randomUUID();
+        AtomicInteger loadCount = new AtomicInteger();
+
+        expandedImageCache.getOrLoad(userID, imageID, () -> loadImage(userID, imageID, loadCount));
+        expandedImageCache.getOrLoad(userID, imageID, () -> loadImage(userID, imageID, loadCount));
+        assertEquals(1, loadCount.get());
+
+        labelStore.addLabels(List.of(Label.CreateNew(EntityID.CreateNew(imageID), "cat")));
+
+        expandedImageCache.getOrLoad(userID, imageID, () -> loadImage(userID, imageID, loadCount));
+        assertEquals(2, loadCount.get());
+    }
+
+    @Test
+    void addLabels_keepsOtherImagesCached()
+            throws Exception
+    {
+        ExpandedImageCache expandedImageCache = new ExpandedImageCache(100, 60000);
+        LabelStore labelStore = new LabelStore(
+                mockDAOFactory(),
+                new LabelStoreMapper(),
+                expandedImageCache);
+
+        UUID userID = UUID.randomUUID();
+        UUID imageID = UUID.randomUUID();
+        AtomicInteger loadCount = new AtomicInteger();
+
+        expandedImageCache.getOrLoad(userID, imageID, () -> loadImage(userID, imageID, loadCount));
+
+        labelStore.addLabels(List.of(Label.CreateNew(EntityID.CreateNew(UUID.randomUUID()), "cat")));
+
+        expandedImageCache.getOrLoad(userID, imageID, () -> loadImage(userID, imageID, loadCount));
+        assertEquals(1, loadCount.get());
+    }
+
+    private static DAOFactory mockDAOFactory()
+    {
+        DAOFactory daoFactory = mock(DAOFactory.class);
+        when(daoFactory.getLabelDAO()).thenReturn(mock(LabelDAO.class));
+
+        return daoFactory;
+    }
+
+    private static ImageDTO loadImage(UUID userID, UUID imageID, AtomicInteger loadCount)
+    {
+        loadCount.incrementAndGet();
+
+        ImageDTO imageDTO = new ImageDTO();
+        imageDTO.id = imageID;
+        imageDTO.user_id = userID;
+
+        return imageDTO;
+    }
+}
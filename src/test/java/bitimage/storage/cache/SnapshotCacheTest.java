@@ -0,0 +1,70 @@
+package bitimage.storage.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotCacheTest
+{
+    @Test
+    void get_servesCachedSnapshot()
+            throws Exception
+    {
+        SnapshotCache<String, Integer> cache = new SnapshotCache<>(60000, 120000, 10, Runnable::run);
+        AtomicInteger loadCount = new AtomicInteger();
+
+        cache.get("first", loadCount::incrementAndGet);
+        cache.get("first", loadCount::incrementAndGet);
+
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void get_evictsSnapshotsOnceFull_cachingNewKeys()
+            throws Exception
+    {
+        SnapshotCache<String, Integer> cache = new SnapshotCache<>(60000, 120000, 2, Runnable::run);
+        AtomicInteger loadCount = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            cache.get("page-" + i, loadCount::incrementAndGet);
+        }
+
+        assertTrue(cache.getSize() <= 2);
+
+        // the newest key is cached, rather than refused once the cache is full
+        cache.get("page-9", loadCount::incrementAndGet);
+        assertEquals(10, loadCount.get());
+    }
+
+    @Test
+    void get_reloadsSnapshotsPastMaxStaleness()
+            throws Exception
+    {
+        SnapshotCache<String, Integer> cache = new SnapshotCache<>(1, 20, 10, Runnable::run);
+        AtomicInteger loadCount = new AtomicInteger();
+
+        cache.get("first", loadCount::incrementAndGet);
+        Thread.sleep(50);
+
+        assertEquals(2, cache.get("first", loadCount::incrementAndGet));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void invalidateAll_dropsSnapshots()
+            throws Exception
+    {
+        SnapshotCache<String, Integer> cache = new SnapshotCache<>(60000, 120000, 10, Runnable::run);
+        AtomicInteger loadCount = new AtomicInteger();
+
+        cache.get("first", loadCount::incrementAndGet);
+        cache.invalidateAll();
+
+        assertEquals(2, cache.get("first", loadCount::incrementAndGet));
+    }
+}
@@ -0,0 +1,230 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.cache.DictionaryCache;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
+import bitimage.storage.postgres.query.QueryExecutor;
+import bitimage.storage.postgres.query.SQLQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Queries keyed by user_id must only touch the user's partition
+ * of the images table, when tables are hash partitioned by
+ * user_id.
+ *
+ * <p>Runs the sql built by ImageDAO under EXPLAIN, against the
+ * postgres database at BITIMAGE_TEST_POSTGRES_URL (a jdbc url,
+ * with user and password parameters), and is skipped when it is
+ * not set. Schema migrations are applied to partitioned tables
+ * within a transaction that is rolled back after each test.
+ *
+ * <p>Reads are planned generically (as prepared statements are
+ * once cached), and pruned when the plan is executed, which
+ * EXPLAIN EXECUTE shows. Deletes are planned with their values,
+ * as postgres only prunes a delete's partitions when planning.
+ */
+class ImageDAOPartitionPlanTest
+{
+    private static final String POSTGRES_URL_ENV = "BITIMAGE_TEST_POSTGRES_URL";
+    private static final int PARTITION_COUNT = 4;
+
+    private static final Pattern IMAGES_PARTITION_PATTERN = Pattern.compile("\\bimages_p(\\d+)\\b");
+
+    private Connection conn;
+    private QueryExecutor queryExecutor;
+    private ImageDAO imageDAO;
+
+    @BeforeEach
+    void setUp()
+            throws Exception
+    {
+        String postgresUrl = System.getenv(POSTGRES_URL_ENV);
+        assumeTrue(postgresUrl != null, POSTGRES_URL_ENV + " is not set");
+
+        conn = DriverManager.getConnection(postgresUrl);
+        conn.setAutoCommit(false);
+
+        PartitionLayout layout = new PartitionLayout(PARTITION_COUNT);
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS \"uuid-ossp\";");
+
+            for (SchemaMigration migration : SchemaMigrations.All()) {
+                statement.execute(migration.getSQL(layout));
+            }
+
+            statement.execute("ANALYZE;");
+        }
+
+        queryExecutor = mock(QueryExecutor.class);
+        when(queryExecutor.read(any(), any())).thenReturn(List.of());
+        when(queryExecutor.stream(any(), any())).thenReturn(Stream.empty());
+        when(queryExecutor.writeReturning(any(), any())).thenReturn(List.of());
+
+        imageDAO = new ImageDAO(
+                queryExecutor,
+                mock(AsyncQueryExecutor.class),
+                layout,
+                new DictionaryCache<>(100));
+    }
+
+    @AfterEach
+    void tearDown()
+            throws Exception
+    {
+        if (conn != null) {
+            conn.rollback();
+            conn.close();
+        }
+    }
+
+    @Test
+    void selectAllUserImages_readsUserPartition()
+            throws Exception
+    {
+        imageDAO.selectAllUserImages(UUID.randomUUID(), null, 10);
+
+        ArgumentCaptor<SQLQuery> queryCaptor = ArgumentCaptor.forClass(SQLQuery.class);
+        verify(queryExecutor).read(queryCaptor.capture(), any());
+
+        assertReadsOnePartition(explain(queryCaptor.getValue(), "force_generic_plan"));
+    }
+
+    @Test
+    void streamAllUserImages_readsUserPartition()
+            throws Exception
+    {
+        imageDAO.streamAllUserImages(UUID.randomUUID());
+
+        ArgumentCaptor<SQLQuery> queryCaptor = ArgumentCaptor.forClass(SQLQuery.class);
+        verify(queryExecutor).stream(queryCaptor.capture(), any());
+
+        assertReadsOnePartition(explain(queryCaptor.getValue(), "force_generic_plan"));
+    }
+
+    @Test
+    void deleteImagesByID_deletesFromUserPartition()
+            throws Exception
+    {
+        imageDAO.deleteImagesByID(UUID.randomUUID(), List.of(UUID.randomUUID(), UUID.randomUUID()));
+
+        ArgumentCaptor<SQLQuery> queryCaptor = ArgumentCaptor.forClass(SQLQuery.class);
+        verify(queryExecutor).writeReturning(queryCaptor.capture(), any());
+
+        assertReadsOnePartition(explain(queryCaptor.getValue(), "force_custom_plan"));
+    }
+
+    @Test
+    void deleteImagesByUserID_deletesFromUserPartition()
+            throws Exception
+    {
+        imageDAO.deleteImagesByUserID(UUID.randomUUID());
+
+        ArgumentCaptor<SQLQuery> queryCaptor = ArgumentCaptor.forClass(SQLQuery.class);
+        verify(queryExecutor).write(queryCaptor.capture());
+
+        assertReadsOnePartition(explain(queryCaptor.getValue(), "force_custom_plan"));
+    }
+
+    private static void assertReadsOnePartition(String plan)
+    {
+        Set<String> partitions = new TreeSet<>();
+        Matcher matcher = IMAGES_PARTITION_PATTERN.matcher(plan);
+
+        while (matcher.find()) {
+            partitions.add(matcher.group());
+        }
+
+        assertEquals(1, partitions.size(), plan);
+    }
+
+    /**
+     * Explains the plan of the query under the given plan cache
+     * mode. The query is prepared as a named statement, since
+     * EXPLAIN plans its statement with the parameter values bound
+     * to it, and its parameter values are passed to EXECUTE as
+     * literals.
+     */
+    private String explain(SQLQuery query, String planCacheMode)
+            throws Exception
+    {
+        int paramCount = query.getParams().size();
+        StringBuilder plan = new StringBuilder();
+
+        // parameter types are inferred from their use
+        String paramTypesSQL = String.join(", ", Collections.nCopies(paramCount, "unknown"));
+        String paramsSQL = query.getParams().stream()
+                .map(ImageDAOPartitionPlanTest::toLiteralSQL)
+                .collect(Collectors.joining(", "));
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("SET LOCAL plan_cache_mode = " + planCacheMode + ";");
+            statement.execute(
+                    "PREPARE user_query(" + paramTypesSQL + ") AS " + toNumberedParams(query.getSQL()));
+
+            try (ResultSet results = statement.executeQuery("EXPLAIN EXECUTE user_query(" + paramsSQL + ");")) {
+                while (results.next()) {
+                    plan.append(results.getString(1)).append('\n');
+                }
+            }
+            finally {
+                statement.execute("DEALLOCATE user_query;");
+            }
+        }
+
+        return plan.toString();
+    }
+
+    private static String toLiteralSQL(Object param)
+    {
+        if (param == null) {
+            return "NULL";
+        }
+
+        return "'" + param.toString().replace("'", "''") + "'";
+    }
+
+    /**
+     * Replaces jdbc's ? placeholders with numbered ($1, $2, ...)
+     * parameters, as PREPARE takes them.
+     */
+    private static String toNumberedParams(String sql)
+    {
+        StringBuilder numberedSQL = new StringBuilder(sql.length() + 32);
+        int paramCount = 0;
+
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                numberedSQL.append('$').append(++paramCount);
+            }
+            else {
+                numberedSQL.append(c);
+            }
+        }
+
+        return numberedSQL.toString();
+    }
+}
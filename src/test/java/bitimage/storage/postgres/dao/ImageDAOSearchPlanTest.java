@@ -0,0 +1,245 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.cache.DictionaryCache;
+import bitimage.storage.postgres.query.AsyncQueryExecutor;
+import bitimage.storage.postgres.query.QueryExecutor;
+import bitimage.storage.postgres.query.SQLQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Image searches must be served by indexes, in both the owner's
+ * branch and the public branch, even when planned generically
+ * (as prepared statements are once cached).
+ *
+ * <p>Runs the sql built by ImageDAO under EXPLAIN, against the
+ * postgres database at BITIMAGE_TEST_POSTGRES_URL (a jdbc url,
+ * with user and password parameters), and is skipped when it is
+ * not set. Schema migrations and test rows are applied within a
+ * transaction that is rolled back after each test.
+ *
+ * <p>Sequential scans are disabled, so a small test table cannot
+ * be scanned in place of an index that serves the query. Rows
+ * inserted after a GIN index is built wait in its pending list
+ * until vacuumed, which the planner costs as a full scan, so
+ * pending lists are flushed (as vacuum would) before planning.
+ */
+class ImageDAOSearchPlanTest
+{
+    private static final String POSTGRES_URL_ENV = "BITIMAGE_TEST_POSTGRES_URL";
+
+    private Connection conn;
+    private QueryExecutor queryExecutor;
+    private ImageDAO imageDAO;
+
+    @BeforeEach
+    void setUp()
+            throws Exception
+    {
+        String postgresUrl = System.getenv(POSTGRES_URL_ENV);
+        assumeTrue(postgresUrl != null, POSTGRES_URL_ENV + " is not set");
+
+        conn = DriverManager.getConnection(postgresUrl);
+        conn.setAutoCommit(false);
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS \"uuid-ossp\";");
+
+            for (SchemaMigration migration : SchemaMigrations.All()) {
+                statement.execute(migration.getSQL(PartitionLayout.Unpartitioned()));
+            }
+
+            statement.execute("""
+                INSERT INTO public.users (id)
+                SELECT
+                  uuid_generate_v4()
+                FROM
+                  generate_series(1, 20);
+
+                INSERT INTO public.images (name, user_id, hash_md5, size_bytes, file_format, is_private, created_at, updated_at)
+                SELECT
+                  md5(u.id::text || n),
+                  u.id,
+                  uuid_generate_v4(),
+                  1024,
+                  'png',
+                  n % 2 = 0,
+                  now(),
+                  now()
+                FROM
+                  public.users u,
+                  generate_series(1, 500) n;
+
+                SELECT
+                  gin_clean_pending_list(c.oid)
+                FROM
+                  pg_catalog.pg_class c
+                  INNER JOIN pg_catalog.pg_am am ON c.relam = am.oid
+                WHERE
+                  am.amname = 'gin';
+
+                ANALYZE;
+
+                SET LOCAL enable_seqscan = off;
+                SET LOCAL plan_cache_mode = force_generic_plan;
+            """);
+        }
+
+        queryExecutor = mock(QueryExecutor.class);
+        when(queryExecutor.read(any(), any())).thenReturn(List.of());
+
+        imageDAO = new ImageDAO(
+                queryExecutor,
+                mock(AsyncQueryExecutor.class),
+                PartitionLayout.Unpartitioned(),
+                new DictionaryCache<>(100));
+    }
+
+    @AfterEach
+    void tearDown()
+            throws Exception
+    {
+        if (conn != null) {
+            conn.rollback();
+            conn.close();
+        }
+    }
+
+    @Test
+    void selectImagesByName_usesOwnerAndPublicIndexes()
+            throws Exception
+    {
+        imageDAO.selectImagesByName(UUID.randomUUID(), "Sunset", null, 10);
+        String plan = explainLastRead();
+
+        // each branch may be read by any index on its own key, whether
+        // by name, or by recency (stopping once a page is matched)
+        assertTrue(plan.contains("ix_images_user_id_"), plan);
+        assertTrue(plan.contains("ix_images_public_"), plan);
+        assertFalse(plan.contains("Seq Scan"), plan);
+    }
+
+    @Test
+    void selectImagesByNameContaining_usesTrigramIndex()
+            throws Exception
+    {
+        imageDAO.selectImagesByNameContaining(UUID.randomUUID(), "sunset", null, 10);
+        String plan = explainLastRead();
+
+        assertTrue(plan.contains("ix_images_lower_name_trgm"), plan);
+        assertFalse(plan.contains("Seq Scan"), plan);
+    }
+
+    @Test
+    void selectImagesByTag_usesTagNameIndexes()
+            throws Exception
+    {
+        imageDAO.selectImagesByTag(UUID.randomUUID(), "cat", null, 10);
+        String plan = explainLastRead();
+
+        assertTrue(plan.contains("ix_tags_lower_name"), plan);
+        assertFalse(plan.contains("Seq Scan"), plan);
+    }
+
+    @Test
+    void selectImagesByContentLabel_usesLabelNameIndex()
+            throws Exception
+    {
+        imageDAO.selectImagesByContentLabel(UUID.randomUUID(), "cat", null, 10);
+        String plan = explainLastRead();
+
+        assertTrue(plan.contains("ix_content_labels_lower_name"), plan);
+        assertFalse(plan.contains("Seq Scan"), plan);
+    }
+
+    /**
+     * Explains the generic plan of the last query read through
+     * the query executor. The query is prepared as a named
+     * statement, since EXPLAIN plans its statement with the
+     * parameter values bound to it, and its parameter values are
+     * passed to EXECUTE as literals.
+     */
+    private String explainLastRead()
+            throws Exception
+    {
+        ArgumentCaptor<SQLQuery> queryCaptor = ArgumentCaptor.forClass(SQLQuery.class);
+        verify(queryExecutor).read(queryCaptor.capture(), any());
+
+        SQLQuery query = queryCaptor.getValue();
+        int paramCount = query.getParams().size();
+        StringBuilder plan = new StringBuilder();
+
+        // parameter types are inferred from their use
+        String paramTypesSQL = String.join(", ", Collections.nCopies(paramCount, "unknown"));
+        String paramsSQL = query.getParams().stream()
+                .map(ImageDAOSearchPlanTest::toLiteralSQL)
+                .collect(Collectors.joining(", "));
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(
+                    "PREPARE search_query(" + paramTypesSQL + ") AS " + toNumberedParams(query.getSQL()));
+
+            try (ResultSet results = statement.executeQuery("EXPLAIN EXECUTE search_query(" + paramsSQL + ");")) {
+                while (results.next()) {
+                    plan.append(results.getString(1)).append('\n');
+                }
+            }
+            finally {
+                statement.execute("DEALLOCATE search_query;");
+            }
+        }
+
+        assertTrue(plan.indexOf("$1") >= 0, "plan is not generic:\n" + plan);
+
+        return plan.toString();
+    }
+
+    private static String toLiteralSQL(Object param)
+    {
+        if (param == null) {
+            return "NULL";
+        }
+
+        return "'" + param.toString().replace("'", "''") + "'";
+    }
+
+    /**
+     * Replaces jdbc's ? placeholders with numbered ($1, $2, ...)
+     * parameters, as PREPARE takes them.
+     */
+    private static String toNumberedParams(String sql)
+    {
+        StringBuilder numberedSQL = new StringBuilder(sql.length() + 32);
+        int paramCount = 0;
+
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                numberedSQL.append('$').append(++paramCount);
+            }
+            else {
+                numberedSQL.append(c);
+            }
+        }
+
+        return numberedSQL.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package bitimage.storage.postgres.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Prefix ranges must cover every string starting with the
+ * prefix, including supplementary characters, and be valid
+ * (surrogate free) strings.
+ */
+class PrefixRangeTest
+{
+    @Test
+    void of_incrementsLastCharacter()
+    {
+        ImageDAO.PrefixRange range = ImageDAO.PrefixRange.Of("Cat");
+
+        assertEquals(List.of("cat", "cau"), range.getParams());
+        assertEquals("lower(i.name) ~>=~ ? AND lower(i.name) ~<~ ?", range.getMatchSQL("lower(i.name)"));
+    }
+
+    @Test
+    void of_emptyPrefix_hasNoUpperBound()
+    {
+        ImageDAO.PrefixRange range = ImageDAO.PrefixRange.Of("");
+
+        assertEquals(List.of(""), range.getParams());
+        assertEquals("lower(i.name) ~>=~ ?", range.getMatchSQL("lower(i.name)"));
+    }
+
+    @Test
+    void of_supplementaryCharacter_incrementsCodePoint()
+    {
+        ImageDAO.PrefixRange range = ImageDAO.PrefixRange.Of("a\ud83d\ude00");
+
+        assertEquals(List.of("a\ud83d\ude00", "a\ud83d\ude01"), range.getParams());
+    }
+
+    @Test
+    void of_lastCharacterBeforeSurrogates_skipsSurrogates()
+    {
+        ImageDAO.PrefixRange range = ImageDAO.PrefixRange.Of("a\ud7ff");
+
+        assertEquals(List.of("a\ud7ff", "a\ue000"), range.getParams());
+    }
+
+    @Test
+    void of_lastCharacterWithoutSuccessor_incrementsCharacterBefore()
+    {
+        String maxCodePoint = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+        assertEquals(List.of("a" + maxCodePoint, "b"), ImageDAO.PrefixRange.Of("a" + maxCodePoint).getParams());
+        assertEquals(List.of(maxCodePoint), ImageDAO.PrefixRange.Of(maxCodePoint).getParams());
+    }
+
+    @Test
+    void of_trailingHighSurrogate_isDropped()
+    {
+        ImageDAO.PrefixRange range = ImageDAO.PrefixRange.Of("ab\ud83d");
+
+        assertEquals(List.of("ab", "ac"), range.getParams());
+    }
+}
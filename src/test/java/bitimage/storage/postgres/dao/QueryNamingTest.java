@@ -0,0 +1,69 @@
+package bitimage.storage.postgres.dao;
+
+import bitimage.storage.postgres.query.SQLQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Queries are named after the DAO method that built them, even
+ * when built by private helpers shared across DAO methods.
+ */
+class QueryNamingTest
+{
+    @Test
+    void queryBuiltInPublicMethod_isNamedAfterIt()
+    {
+        assertEquals("FakeDAO.selectByID", new FakeDAO().selectByID().getName());
+    }
+
+    @Test
+    void queryBuiltByPrivateHelper_isNamedAfterPublicCaller()
+    {
+        FakeDAO fakeDAO = new FakeDAO();
+
+        assertEquals("FakeDAO.selectByName", fakeDAO.selectByName().getName());
+        assertEquals("FakeDAO.selectByTag", fakeDAO.selectByTag().getName());
+    }
+
+    @Test
+    void queryBuiltInLambda_isNamedAfterEnclosingMethod()
+    {
+        List<SQLQuery> queries = new FakeDAO().insertAll(List.of("a", "b"));
+
+        assertEquals("FakeDAO.insertAll", queries.get(0).getName());
+    }
+
+    private static class FakeDAO
+    {
+        public SQLQuery selectByID()
+        {
+            return new SQLQuery("SELECT 1");
+        }
+
+        public SQLQuery selectByName()
+        {
+            return selectPage();
+        }
+
+        public SQLQuery selectByTag()
+        {
+            return selectPage();
+        }
+
+        public List<SQLQuery> insertAll(List<String> names)
+        {
+            return names.stream()
+                    .map(name -> new SQLQuery("SELECT ?", List.of(name)))
+                    .collect(Collectors.toList());
+        }
+
+        private SQLQuery selectPage()
+        {
+            return new SQLQuery("SELECT 2");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package bitimage.transport.mappers;
+
+import bitimage.shared.entities.EntityID;
+import bitimage.shared.entities.Image;
+import bitimage.transport.dto.ImagesDTO;
+import bitimage.uploading.entities.FileSize;
+import bitimage.uploading.entities.FileUrl;
+import bitimage.uploading.entities.ImageMetadata;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageControllerMapperTest
+{
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final ImageControllerMapper mapper = new ImageControllerMapper();
+
+    @Test
+    void mapToListViewImagesJsonChunks_matchesSerializedImagesDTO()
+            throws Exception
+    {
+        List<Image> images = createImages(200);
+
+        List<byte[]> chunks = takeAll(mapper.mapToListViewImagesJsonChunks(images.stream(), 1024));
+
+        assertTrue(chunks.size() > 1);
+        assertEquals(
+                JSON_MAPPER.writeValueAsString(mapper.mapToListViewImagesDTO(images)),
+                concat(chunks));
+    }
+
+    @Test
+    void mapToListViewImagesJsonChunks_omitsEmptyImageList()
+            throws Exception
+    {
+        List<byte[]> chunks = takeAll(mapper.mapToListViewImagesJsonChunks(new ArrayList<Image>().stream(), 1024));
+
+        assertEquals(JSON_MAPPER.writeValueAsString(new ImagesDTO(List.of())), concat(chunks));
+    }
+
+    private static List<Image> createImages(int count)
+    {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    EntityID imageID = EntityID.CreateNew();
+                    Image image = new Image.Builder(imageID, "image-" + i, EntityID.CreateNew())
+                            .withPrivacyStatus(i % 2 == 0)
+                            .withTags(List.of())
+                            .withContentLabels(List.of())
+                            .withMetadata(ImageMetadata.CreateNew(imageID, FileSize.CreateFromBytes(1024), "png"))
+                            .build();
+
+                    image.setViewUrl(new FileUrl("https://bucket.s3.amazonaws.com/" + imageID, imageID));
+                    return image;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static List<byte[]> takeAll(Iterator<byte[]> chunks)
+    {
+        List<byte[]> takenChunks = new ArrayList<>();
+        chunks.forEachRemaining(takenChunks::add);
+
+        return takenChunks;
+    }
+
+    private static String concat(List<byte[]> chunks)
+    {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        chunks.forEach(json::writeBytes);
+
+        return json.toString();
+    }
+}